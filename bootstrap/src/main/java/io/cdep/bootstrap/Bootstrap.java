@@ -2,22 +2,41 @@ package io.cdep.bootstrap;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class Bootstrap {
+    final private static int MAX_PARALLEL_DOWNLOADS = 4;
     private PrintStream out = System.out;
     private File downloadFolder = null;
     private String entryPoint = null;
     private List<String> dependencies = new ArrayList<>();
+    // SHA-256 given in the manifest for a dependency, like '- <url> sha256:<hex>'
+    private Map<String, String> expectedSha256 = new HashMap<>();
     private List<File> localJars = new ArrayList<>();
     private String manifest = null;
+    Thread revalidation = null;
 
     Bootstrap(File downloadFolder, PrintStream out) {
         this.out = out;
@@ -60,28 +79,216 @@ public class Bootstrap {
         }
     }
 
+    /*
+     * Jars that aren't already cached are downloaded at the same time. A cold start would otherwise
+     * wait on each download in turn.
+     */
     private boolean handleDownload() throws IOException {
-        for (String dependency : dependencies) {
+        File jars[] = new File[dependencies.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < jars.length; ++i) {
+            String dependency = dependencies.get(i);
             File file = new File(dependency);
             if (file.isFile()) {
-                localJars.add(file);
+                jars[i] = file;
                 continue;
             }
-            String name = dependency.substring(dependency.lastIndexOf('/'));
-
-            File download = new File(downloadFolder, String.format("%s", manifest.hashCode()));
-            download.mkdirs();
-            download = new File(download, name);
-            if (!download.exists()) {
-                WebUtils.copyUrlToLocalFile(new URL(dependency), download);
+            jars[i] = findCachedJar(dependency);
+            if (jars[i] == null) {
+                missing.add(i);
             }
-            localJars.add(download);
+        }
+        if (missing.size() == 1) {
+            int index = missing.get(0);
+            jars[index] = downloadJar(dependencies.get(index));
+        } else if (missing.size() > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(missing.size(), MAX_PARALLEL_DOWNLOADS));
+            try {
+                List<Future<File>> downloads = new ArrayList<>();
+                for (final int index : missing) {
+                    downloads.add(pool.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws IOException {
+                            return downloadJar(dependencies.get(index));
+                        }
+                    }));
+                }
+                for (int i = 0; i < missing.size(); ++i) {
+                    jars[missing.get(i)] = waitForDownload(downloads.get(i));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        for (File jar : jars) {
+            localJars.add(jar);
         }
         return true;
     }
 
+    private static File waitForDownload(Future<File> download) throws IOException {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private File getJarFolder(String dependency) {
+        return new File(downloadFolder, sha256(dependency.getBytes(UTF_8)));
+    }
+
+    private static String getJarName(String dependency) {
+        return dependency.substring(dependency.lastIndexOf('/') + 1);
+    }
+
+    /*
+     * Downloaded jars live in a folder named by the SHA-256 of their URL. Next to each jar is a
+     * .sha256 file with the SHA-256 of its content followed by the jar's size and last-modified
+     * time, written only after the download finished. The jar is only hashed again when its size
+     * or time has changed. A jar that doesn't match, because a download was interrupted or the file
+     * was damaged, or that doesn't match the SHA-256 from the manifest isn't used and is downloaded
+     * again.
+     */
+    private File findCachedJar(String dependency) throws IOException {
+        String name = getJarName(dependency);
+        File jar = new File(getJarFolder(dependency), name);
+        File hash = new File(getJarFolder(dependency), name + ".sha256");
+        if (!jar.isFile() || !hash.isFile()) {
+            return null;
+        }
+        String parts[] = new String(Files.readAllBytes(hash.toPath()), UTF_8).trim().split("\\s+");
+        String recorded = parts[0];
+        String expected = expectedSha256.get(dependency);
+        if (expected != null && !expected.equalsIgnoreCase(recorded)) {
+            return null;
+        }
+        if (parts.length == 3 && parts[1].equals(Long.toString(jar.length()))
+                && parts[2].equals(Long.toString(jar.lastModified()))) {
+            return jar;
+        }
+        if (!recorded.equals(sha256(jar))) {
+            return null;
+        }
+        writeHashFile(hash, jar, recorded);
+        return jar;
+    }
+
+    /*
+     * Download a jar into the cache. The .sha256 file is removed first and written last so a
+     * download that doesn't finish is never taken for a cached jar.
+     */
+    private File downloadJar(String dependency) throws IOException {
+        String name = getJarName(dependency);
+        File jar = new File(getJarFolder(dependency), name);
+        File hash = new File(getJarFolder(dependency), name + ".sha256");
+        hash.delete();
+        WebUtils.copyUrlToLocalFile(new URL(dependency), jar);
+        String actual = sha256(jar);
+        String expected = expectedSha256.get(dependency);
+        if (expected != null && !expected.equalsIgnoreCase(actual)) {
+            jar.delete();
+            throw new IOException(String.format("Downloaded %s has SHA-256 %s but the bootstrap manifest expects %s",
+                    dependency, actual, expected));
+        }
+        writeHashFile(hash, jar, actual);
+        return jar;
+    }
+
+    private static void writeHashFile(File hash, File jar, String sha256) throws IOException {
+        String body = String.format("%s %s %s", sha256, jar.length(), jar.lastModified());
+        writeAtomically(hash, body.getBytes(UTF_8));
+    }
+
+    /*
+     * Read the bootstrap manifest. A remote manifest is kept in the downloads folder so that later
+     * runs start from that copy right away while a background thread fetches the current one. A
+     * changed manifest takes effect on the next run.
+     */
+    private String readManifest(final String manifestUrl) throws IOException {
+        if (new File(manifestUrl).isFile()) {
+            return WebUtils.getUrlAsString(manifestUrl);
+        }
+        final File cached = new File(new File(downloadFolder, "manifests"),
+                sha256(manifestUrl.getBytes(UTF_8)) + ".yml");
+        if (!cached.isFile()) {
+            String manifest = WebUtils.getUrlAsString(manifestUrl);
+            writeAtomically(cached, manifest.getBytes(UTF_8));
+            return manifest;
+        }
+        final String manifest = new String(Files.readAllBytes(cached.toPath()), UTF_8);
+        revalidation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String latest = WebUtils.getUrlAsString(manifestUrl);
+                    if (!latest.equals(manifest)) {
+                        writeAtomically(cached, latest.getBytes(UTF_8));
+                    }
+                } catch (IOException e) {
+                    // Offline or unreachable. The cached manifest stays in use.
+                }
+            }
+        }, "cdep-bootstrap-revalidate");
+        // Exit doesn't wait for this. A revalidation cut short leaves the cached manifest as it was
+        // and the next run tries again.
+        revalidation.setDaemon(true);
+        revalidation.start();
+        return manifest;
+    }
+
+    private static void writeAtomically(File file, byte body[]) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            Files.write(temp.toPath(), body);
+            Files.move(temp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte digest[]) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    static String sha256(byte body[]) {
+        return toHex(newSha256().digest(body));
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte buffer[] = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
     private boolean handleMonkeyParse(String manifestUrl) throws IOException {
-        manifest = WebUtils.getUrlAsString(manifestUrl);
+        manifest = readManifest(manifestUrl);
         String lines[] = manifest.split("\\r?\\n");
         String section = null;
         for (String line : lines) {
@@ -96,7 +303,13 @@ public class Bootstrap {
             }
             if (line.startsWith("- ")) {
                 if ("dependencies".equals(section)) {
-                    dependencies.add(line.substring(2).trim());
+                    String parts[] = line.substring(2).trim().split("\\s+");
+                    dependencies.add(parts[0]);
+                    for (int i = 1; i < parts.length; ++i) {
+                        if (parts[i].startsWith("sha256:")) {
+                            expectedSha256.put(parts[0], parts[i].substring(7));
+                        }
+                    }
                 }
                 continue;
             }
@@ -1,5 +1,7 @@
 package io.cdep.bootstrap;
 
+import io.cdep.fetch.FetchClient;
+
 import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
@@ -7,7 +9,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
 public class WebUtils {
+  // Shared with cdep. Pools connections and retries failed requests with backoff.
+  private static final FetchClient client = FetchClient.fromSystemProperties(null);
 
   public static String getUrlAsString(String url) throws IOException {
     File file = new File(url);
@@ -16,44 +23,61 @@ public class WebUtils {
       return new String(encoded, StandardCharsets.UTF_8);
     }
 
-    URL urlObj = new URL(url);
-    URLConnection con = urlObj.openConnection();
-
-    con.setDoOutput(true);
-    con.connect();
+    return client.fetch(new URL(url), new FetchClient.Exchange<String>() {
+      @Override
+      public String exchange(URLConnection con) throws IOException {
+        StringBuilder response = new StringBuilder();
+        String inputLine;
 
-    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
+        String newLine = System.getProperty("line.separator");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
+          while ((inputLine = in.readLine()) != null) {
+            response.append(inputLine + newLine);
+          }
+        }
 
-    StringBuilder response = new StringBuilder();
-    String inputLine;
-
-    String newLine = System.getProperty("line.separator");
-    while ((inputLine = in.readLine()) != null) {
-      response.append(inputLine + newLine);
-    }
-
-    in.close();
-
-    return response.toString();
+        return response.toString();
+      }
+    });
   }
 
   public static void pingUrl(URL url) throws IOException {
-    URLConnection con = url.openConnection();
-    con.connect();
-    con.getInputStream().read();
+    client.fetch(url, new FetchClient.Exchange<Void>() {
+      @Override
+      public Void exchange(URLConnection con) throws IOException {
+        try (InputStream input = con.getInputStream()) {
+          input.read();
+        }
+        return null;
+      }
+    });
   }
 
-  public static void copyUrlToLocalFile(URL url, File localFile) throws IOException {
-    URLConnection con = url.openConnection();
-    con.connect();
-    InputStream input = con.getInputStream();
-    byte[] buffer = new byte[4096];
-    int n;
-
-    OutputStream output = new FileOutputStream(localFile);
-    while ((n = input.read(buffer)) != -1) {
-      output.write(buffer, 0, n);
-    }
-    output.close();
+  /*
+   * Download into a temporary file next to localFile and rename it into place once complete, so
+   * an interrupted download never leaves a truncated file under the final name.
+   */
+  public static void copyUrlToLocalFile(URL url, final File localFile) throws IOException {
+    final File folder = localFile.getAbsoluteFile().getParentFile();
+    folder.mkdirs();
+    client.fetch(url, new FetchClient.Exchange<Void>() {
+      @Override
+      public Void exchange(URLConnection con) throws IOException {
+        File temp = File.createTempFile(localFile.getName(), ".tmp", folder);
+        try {
+          byte[] buffer = new byte[64 * 1024];
+          int n;
+          try (InputStream input = con.getInputStream(); OutputStream output = new FileOutputStream(temp)) {
+            while ((n = input.read(buffer)) != -1) {
+              output.write(buffer, 0, n);
+            }
+          }
+          Files.move(temp.toPath(), localFile.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+          temp.delete();
+        }
+        return null;
+      }
+    });
   }
-}
\ No newline at end of file
+}
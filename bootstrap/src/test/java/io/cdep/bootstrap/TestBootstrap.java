@@ -8,6 +8,7 @@ import org.junit.rules.TestName;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 
@@ -27,14 +28,61 @@ public class TestBootstrap {
     }
 
     private void deleteDownloadFiles() {
-        File files[] = getDownloadFolder().listFiles();
+        deleteTree(getDownloadFolder());
+    }
+
+    private static void deleteTree(File folder) {
+        File files[] = folder.listFiles();
         if (files != null) {
             for (File download : files) {
+                deleteTree(download);
                 download.delete();
             }
         }
     }
 
+    // Entry point for manifests written by these tests. It is found through the parent class loader.
+    public static class Entry {
+        static String lastArgs[];
+
+        public static void main(String args[]) {
+            lastArgs = args;
+        }
+    }
+
+    private File writeManifest(String entry, File jar) throws Exception {
+        File manifest = new File(getDownloadFolder().getParentFile(), "remote/bootstrap.yml").getAbsoluteFile();
+        manifest.getParentFile().mkdirs();
+        Files.write(String.format("entry: %s\ndependencies:\n- %s\n", entry, jar.getAbsoluteFile().toURI()),
+                manifest, StandardCharsets.UTF_8);
+        return manifest;
+    }
+
+    private File writeJar(String name, String content) throws Exception {
+        File jar = new File(getDownloadFolder().getParentFile(), "remote/" + name).getAbsoluteFile();
+        jar.getParentFile().mkdirs();
+        Files.write(content, jar, StandardCharsets.UTF_8);
+        return jar;
+    }
+
+    private Bootstrap run(String... args) throws Exception {
+        Bootstrap bootstrap = new Bootstrap(getDownloadFolder(), new PrintStream(new ByteArrayOutputStream()));
+        bootstrap.go(args);
+        if (bootstrap.revalidation != null) {
+            bootstrap.revalidation.join();
+        }
+        return bootstrap;
+    }
+
+    private File findCachedJar(String name) {
+        for (File file : Files.fileTreeTraverser().preOrderTraversal(getDownloadFolder())) {
+            if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
     private String main(String... args) throws Exception {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PrintStream ps = new PrintStream(baos);
@@ -52,6 +100,90 @@ public class TestBootstrap {
         main("https://raw.githubusercontent.com/jomof/cdep/master/boot.yml", "--version");
     }
 
+    @Test
+    public void testRemoteManifestIsCachedAndRevalidated() throws Exception {
+        String entry = Entry.class.getName();
+        File jar = writeJar("first.jar", "first");
+        File manifest = writeManifest(entry, jar);
+        String url = manifest.toURI().toString();
+
+        // First run has no cached manifest and waits for it
+        Bootstrap first = run(url, "--version");
+        assertThat(first.revalidation).isNull();
+        assertThat(Entry.lastArgs).asList().containsExactly("--version");
+
+        // Later runs start from the cached manifest and fetch the current one in the background
+        writeManifest("no.such.Entry", jar);
+        Bootstrap second = run(url, "--help");
+        assertThat(second.revalidation).isNotNull();
+        assertThat(Entry.lastArgs).asList().containsExactly("--help");
+
+        // The manifest fetched in the background is used by the next run
+        try {
+            run(url, "--version");
+            throw new RuntimeException("Expected the revalidated manifest to be used");
+        } catch (ClassNotFoundException e) {
+            assertThat(e.getMessage()).contains("no.such.Entry");
+        }
+    }
+
+    @Test
+    public void testDamagedJarIsDownloadedAgain() throws Exception {
+        File jar = writeJar("cdep.jar", "the real jar");
+        String url = writeManifest(Entry.class.getName(), jar).toURI().toString();
+        run(url, "--version");
+        File cached = findCachedJar("cdep.jar");
+        assertThat(cached).isNotNull();
+        assertThat(Files.toString(cached, StandardCharsets.UTF_8)).isEqualTo("the real jar");
+        assertThat(Files.toString(new File(cached.getParentFile(), "cdep.jar.sha256"), StandardCharsets.UTF_8))
+                .isEqualTo(String.format("%s %s %s", Bootstrap.sha256(jar), cached.length(), cached.lastModified()));
+
+        // Simulate a download that was cut short
+        Files.write("the re", cached, StandardCharsets.UTF_8);
+        run(url, "--version");
+        assertThat(Files.toString(cached, StandardCharsets.UTF_8)).isEqualTo("the real jar");
+    }
+
+    @Test
+    public void testDependenciesAreDownloadedAndVerified() throws Exception {
+        File first = writeJar("first.jar", "first");
+        File second = writeJar("second.jar", "second");
+        File third = writeJar("third.jar", "third");
+        File manifest = new File(getDownloadFolder().getParentFile(), "remote/bootstrap.yml").getAbsoluteFile();
+        Files.write(String.format("entry: %s\ndependencies:\n- %s sha256:%s\n- %s\n- %s sha256:%s\n",
+                Entry.class.getName(),
+                first.toURI(), Bootstrap.sha256(first),
+                second.toURI(),
+                third.toURI(), Bootstrap.sha256(third).toUpperCase()),
+                manifest, StandardCharsets.UTF_8);
+        run(manifest.getPath(), "--version");
+        assertThat(Files.toString(findCachedJar("first.jar"), StandardCharsets.UTF_8)).isEqualTo("first");
+        assertThat(Files.toString(findCachedJar("second.jar"), StandardCharsets.UTF_8)).isEqualTo("second");
+        assertThat(Files.toString(findCachedJar("third.jar"), StandardCharsets.UTF_8)).isEqualTo("third");
+
+        // Only whole, verified jars are left behind
+        for (File file : Files.fileTreeTraverser().preOrderTraversal(getDownloadFolder())) {
+            assertThat(file.getName()).doesNotContain(".tmp");
+        }
+    }
+
+    @Test
+    public void testDownloadThatDoesNotMatchManifestHashIsRejected() throws Exception {
+        File jar = writeJar("cdep.jar", "tampered");
+        File manifest = new File(getDownloadFolder().getParentFile(), "remote/bootstrap.yml").getAbsoluteFile();
+        String expected = Bootstrap.sha256("original".getBytes(StandardCharsets.UTF_8));
+        Files.write(String.format("entry: %s\ndependencies:\n- %s sha256:%s\n",
+                Entry.class.getName(), jar.toURI(), expected),
+                manifest, StandardCharsets.UTF_8);
+        try {
+            run(manifest.getPath(), "--version");
+            throw new RuntimeException("Expected the download to be rejected");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains(expected);
+        }
+        assertThat(findCachedJar("cdep.jar")).isNull();
+    }
+
     //@Test
     public void testLocalFile() throws Exception {
         File localCDep = new File("./local-test-files/cdep-alpha-0.0.29.jar").getAbsoluteFile();
@@ -75,7 +75,8 @@ public class API {
           + separator + classPath;
     }
     result.add(platformQuote(classPath));
-    result.add("io.cdep.CDep");
+    // The client runs callbacks in a cdep daemon if there is one and in-process otherwise
+    result.add("io.cdep.CDepClient");
     result.add("--working-folder");
     result.add(platformQuote(environment.workingFolder.getAbsolutePath().replace("\\", "/")));
 
@@ -1,4 +1,4 @@
 package io.cdep;
-class BuildInfo {
-  static final String PROJECT_VERSION = "dev";
+public class BuildInfo {
+  public static final String PROJECT_VERSION = "dev";
 }
\ No newline at end of file
@@ -19,7 +19,12 @@ import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
 import io.cdep.cdep.CheckLocalFileSystemIntegrity;
 import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
+import io.cdep.cdep.TargetArchiveSelector;
+import io.cdep.cdep.ast.finder.Expression;
 import io.cdep.cdep.ast.finder.FunctionTableExpression;
+import io.cdep.cdep.ast.finder.ModuleArchiveExpression;
+import io.cdep.cdep.ast.finder.ModuleExpression;
 import io.cdep.cdep.fullfill.Fullfill;
 import io.cdep.cdep.generator.*;
 import io.cdep.cdep.io.IO;
@@ -45,9 +50,7 @@ import java.lang.management.RuntimeMXBean;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 import static io.cdep.cdep.io.IO.info;
 import static io.cdep.cdep.io.IO.infoln;
@@ -57,6 +60,8 @@ import static io.cdep.cdep.yml.cdepmanifest.CDepManifestBuilder.archive;
 @SuppressWarnings("unused")
 public class CDep {
 
+  // Prefetch is dominated by network latency so more threads than cores are worthwhile
+  final private static int DEFAULT_PREFETCH_THREADS = 8;
   final private static String EXAMPLE_COORDINATE = "com.github.jomof:boost:1.0.63-rev24";
   @Nullable
   private final File downloadFolder = null;
@@ -72,6 +77,18 @@ public class CDep {
   private BuildSystem overrideBuildSystem = null;
   @Nullable
   private String callerID = null;
+  @Nullable
+  private Integer downloadThreads = null;
+  private boolean offline = false;
+  // The build target to download and explode archives for. Null target system means all targets.
+  @Nullable
+  private String targetSystem = null;
+  @Nullable
+  private String targetPlatform = null;
+  @Nullable
+  private String androidStl = null;
+  @NotNull
+  private final List<String> androidAbis = new ArrayList<>();
 
   CDep(@NotNull PrintStream out, @NotNull PrintStream err, boolean ansi) {
     IO.setOut(out);
@@ -125,6 +142,13 @@ public class CDep {
     return result;
   }
 
+  /*
+   * Return true if the flag is one of the arguments. The flag is removed from the list.
+   */
+  static private boolean eatFlagArgument(@NotNull String longArgument, @NotNull List<String> args) {
+    return args.removeAll(Collections.singleton(longArgument));
+  }
+
   int go(@NotNull String[] argArray, boolean showFirstExceptionStack)
       throws IOException, URISyntaxException, NoSuchAlgorithmException {
     Invariant.pushErrorCollectionScope(true);
@@ -163,9 +187,15 @@ public class CDep {
     handleGeneratedModulesFolder(args);
     handleOverrideBuildSystem(args);
     handleCallerID(args);
+    handleDownloadThreads(args);
+    handleOffline(args);
+    handleTarget(args);
     if (handleWrapper(args)) {
       return;
     }
+    if (handleDaemon(args)) {
+      return;
+    }
     if (handleStartupInfo(args)) {
       return;
     }
@@ -196,12 +226,21 @@ public class CDep {
     if (handleShowManifest(args)) {
       return;
     }
+    if (handleQuery(args)) {
+      return;
+    }
     if (handleCreate(args)) {
       return;
     }
     if (handleDownload(args)) {
       return;
     }
+    if (handlePrefetch(args)) {
+      return;
+    }
+    if (handleGarbageCollect(args)) {
+      return;
+    }
 
     handleGenerateScript();
   }
@@ -243,6 +282,9 @@ public class CDep {
   private boolean handleDownload(@NotNull List<String> args)
       throws IOException, NoSuchAlgorithmException {
     if (args.size() > 0 && "redownload".equals(args.get(0))) {
+      if (failIf(offline, "Can't redownload when offline")) {
+        return true;
+      }
       downloadReferencedPackages(true);
       return true;
     }
@@ -253,6 +295,46 @@ public class CDep {
     return false;
   }
 
+  /*
+   * Resolve cdep.yml and download all of the archives it refers to, concurrently, so that later
+   * runs can work offline.
+   */
+  private boolean handlePrefetch(@NotNull List<String> args) throws IOException, NoSuchAlgorithmException {
+    if (args.size() > 0 && "prefetch".equals(args.get(0))) {
+      GeneratorEnvironment environment = getGeneratorEnvironment(false, false);
+      environment.readCDepSHA256File();
+      FunctionTableExpression table = getFunctionTableExpression(environment);
+      Map<Coordinate, List<Expression>> foundModules = getTargetModules(environment, table);
+      if (!GeneratorEnvironmentUtils.checkOfflineCache(environment, foundModules)) {
+        return true;
+      }
+      GeneratorEnvironmentUtils.downloadReferencedModules(environment, foundModules,
+          getDownloadThreads(DEFAULT_PREFETCH_THREADS));
+      getIntegrityCheck(environment, foundModules).visit(table);
+      // Record manifest hashes so that an offline run resolves exactly what was prefetched
+      environment.writeCDepSHA256File();
+      if (errorsInScope() == 0) {
+        int archives = 0;
+        for (List<Expression> modules : foundModules.values()) {
+          archives += modules.size();
+        }
+        info("Prefetched %s archives for %s packages\n", archives, foundModules.size());
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private boolean handleGarbageCollect(@NotNull List<String> args) throws IOException {
+    if (args.size() > 0 && "gc".equals(args.get(0))) {
+      GeneratorEnvironment environment = getGeneratorEnvironment(false, false);
+      int deleted = environment.collectGarbage();
+      info("Deleted %s stored archives or exploded archives that were no longer used\n", deleted);
+      return true;
+    }
+    return false;
+  }
+
   /*
    * Download packages referenced by cdep.yml. Will also regenerate cmake or ndk-build glue.
    * If forceRedownload is true then packages will redownloaded even if they already exist locally.
@@ -261,17 +343,56 @@ public class CDep {
       throws IOException, NoSuchAlgorithmException {
     GeneratorEnvironment environment = getGeneratorEnvironment(forceRedownload, false);
     FunctionTableExpression table = getFunctionTableExpression(environment);
+    Map<Coordinate, List<Expression>> foundModules = getTargetModules(environment, table);
+    if (!GeneratorEnvironmentUtils.checkOfflineCache(environment, foundModules)) {
+      return;
+    }
 
     // Download and unzip archives.
-    GeneratorEnvironmentUtils.downloadReferencedModules(environment,
-        ExpressionUtils.getAllFoundModuleExpressions(table));
+    GeneratorEnvironmentUtils.downloadReferencedModules(environment, foundModules, getDownloadThreads(1));
 
     // Check that the expected files were downloaded
-    new CheckLocalFileSystemIntegrity(environment.unzippedArchivesFolder).visit(table);
+    getIntegrityCheck(environment, foundModules).visit(table);
 
     runBuilders(environment, table);
   }
 
+  /*
+   * Return the found modules in the function table. If a target was given then only those that
+   * the target's build would fetch are returned.
+   */
+  @NotNull
+  private Map<Coordinate, List<Expression>> getTargetModules(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull FunctionTableExpression table) {
+    Map<Coordinate, List<Expression>> foundModules = ExpressionUtils.getAllFoundModuleExpressions(table);
+    if (targetSystem == null) {
+      return foundModules;
+    }
+    return new TargetArchiveSelector(table, environment.unzippedArchivesFolder, targetSystem, targetPlatform,
+        androidStl, androidAbis).select(foundModules);
+  }
+
+  /*
+   * Return a check that the archives of the given found modules were exploded.
+   */
+  @NotNull
+  private CheckLocalFileSystemIntegrity getIntegrityCheck(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull Map<Coordinate, List<Expression>> foundModules) {
+    if (targetSystem == null) {
+      return new CheckLocalFileSystemIntegrity(environment.unzippedArchivesFolder);
+    }
+    Set<ModuleArchiveExpression> archives =
+        Collections.newSetFromMap(new IdentityHashMap<ModuleArchiveExpression, Boolean>());
+    for (List<Expression> modules : foundModules.values()) {
+      for (Expression module : modules) {
+        archives.add(((ModuleExpression) module).archive);
+      }
+    }
+    return new CheckLocalFileSystemIntegrity(environment.unzippedArchivesFolder, archives);
+  }
+
   private boolean handleLint(@NotNull List<String> args)
       throws IOException, NoSuchAlgorithmException {
     if (args.size() > 0 && "lint".equals(args.get(0))) {
@@ -485,6 +606,53 @@ public class CDep {
     return false;
   }
 
+  /*
+   * Print the include folder and libraries that a build for the given target would use for a
+   * coordinate referenced from cdep.yml.
+   */
+  private boolean handleQuery(@NotNull List<String> args) throws IOException, NoSuchAlgorithmException {
+    if (args.size() == 0 || !"query".equals(args.get(0))) {
+      return false;
+    }
+    if (args.size() != 2 || targetSystem == null) {
+      info("Usage: cdep --target-system {system} [--target-platform {level}] [--android-stl {stl}] "
+          + "[--android-abi {abi,abi2}] query {coordinate}\n");
+      return true;
+    }
+    GeneratorEnvironment environment = getGeneratorEnvironment(false, false);
+    FunctionTableExpression table = getFunctionTableExpression(environment);
+    Coordinate coordinate = null;
+    for (Coordinate reference : table.orderOfReferences) {
+      if (args.get(1).equals(reference.toString())
+          || args.get(1).equals(reference.groupId + ":" + reference.artifactId)) {
+        coordinate = reference;
+      }
+    }
+    if (failIf(coordinate == null, "Coordinate '%s' is not referenced from cdep.yml", args.get(1))) {
+      return true;
+    }
+    assert coordinate != null;
+    Map<String, List<ModuleArchive>> found = new TargetArchiveSelector(table, environment.unzippedArchivesFolder,
+        targetSystem, targetPlatform, androidStl, androidAbis).query(coordinate);
+    if (failIf(found == null, "The target needs more parameters to find '%s'", coordinate)) {
+      return true;
+    }
+    assert found != null;
+    for (String abi : found.keySet()) {
+      String prefix = abi == null ? "" : abi + " ";
+      for (ModuleArchive archive : found.get(abi)) {
+        info("%sarchive: %s\n", prefix, archive.remote);
+        if (archive.fullIncludePath != null) {
+          info("%sinclude: %s\n", prefix, archive.fullIncludePath);
+        }
+        for (File library : archive.fullLibraryNames) {
+          info("%slib: %s\n", prefix, library);
+        }
+      }
+    }
+    return true;
+  }
+
   private boolean handleWrapper(@NotNull List<String> args) throws IOException {
     if (args.size() > 0 && "wrapper".equals(args.get(0))) {
       String appname = System.getProperty("io.cdep.appname");
@@ -546,11 +714,14 @@ public class CDep {
             new SoftNameDependency(args.get(i))};
         FunctionTableExpression table = GeneratorEnvironmentUtils
             .getFunctionTableExpression(environment, dependencies);
+        Map<Coordinate, List<Expression>> foundModules = getTargetModules(environment, table);
+        if (!GeneratorEnvironmentUtils.checkOfflineCache(environment, foundModules)) {
+          continue;
+        }
         // Download and unzip archives.
-        GeneratorEnvironmentUtils.downloadReferencedModules(environment,
-            ExpressionUtils.getAllFoundModuleExpressions(table));
+        GeneratorEnvironmentUtils.downloadReferencedModules(environment, foundModules, getDownloadThreads(1));
         // Check that the expected files were downloaded
-        new CheckLocalFileSystemIntegrity(environment.unzippedArchivesFolder).visit(table);
+        getIntegrityCheck(environment, foundModules).visit(table);
       }
 
       info("Fetch complete\n");
@@ -559,6 +730,27 @@ public class CDep {
     return false;
   }
 
+  /*
+   * Run a daemon that serves build system callbacks without starting a JVM for each one, or stop
+   * the running daemon.
+   */
+  private boolean handleDaemon(@NotNull List<String> args) throws IOException {
+    if (args.size() > 0 && "daemon".equals(args.get(0))) {
+      File daemonFile = CDepClient.getDaemonFile();
+      if (args.size() > 1 && "stop".equals(args.get(1))) {
+        if (CDepClient.stopDaemon(daemonFile)) {
+          info("Stopped cdep daemon\n");
+        } else {
+          info("No cdep daemon is running\n");
+        }
+        return true;
+      }
+      new CDepDaemon(daemonFile, Long.getLong("cdep.daemon.idleMillis", CDepDaemon.DEFAULT_IDLE_MILLIS)).run();
+      return true;
+    }
+    return false;
+  }
+
   private boolean handleFetchArchive(@NotNull List<String> args)
       throws IOException, NoSuchAlgorithmException {
     if (args.size() > 0 && "fetch-archive".equals(args.get(0))) {
@@ -624,11 +816,66 @@ public class CDep {
       return;
     }
     GeneratorEnvironment environment = getGeneratorEnvironment(false, false);
+    GenerationFingerprint fingerprint = getGenerationFingerprint(environment);
+    if (fingerprint.isUpToDate()) {
+      // Archives may have left the local cache since the modules were generated
+      if (offline) {
+        environment.readCDepSHA256File();
+        if (!checkOfflineCache(environment, getFunctionTableExpression(environment))) {
+          return;
+        }
+      }
+      info("Generated modules in %s are up to date\n", environment.modulesFolder);
+      return;
+    }
+    fingerprint.delete();
     environment.readCDepSHA256File();
     FunctionTableExpression table = getFunctionTableExpression(environment);
+    if (!checkOfflineCache(environment, table)) {
+      return;
+    }
 
     runBuilders(environment, table);
     environment.writeCDepSHA256File();
+    if (errorsInScope() == 0) {
+      // cdep.sha256 is checked along with the manifests because it may have just been written
+      List<File> checked = new ArrayList<>(environment.getManifestFiles());
+      File sha256File = new File(workingFolder, "cdep.sha256");
+      if (sha256File.isFile()) {
+        checked.add(sha256File);
+      }
+      fingerprint.write(checked, GenerationFingerprint.listGeneratedFiles(environment));
+    }
+  }
+
+  /*
+   * Generated build modules fetch archives when the build runs. When offline, make sure they will
+   * find them locally.
+   */
+  private boolean checkOfflineCache(@NotNull GeneratorEnvironment environment, @NotNull FunctionTableExpression table) {
+    return GeneratorEnvironmentUtils.checkOfflineCache(environment, getTargetModules(environment, table));
+  }
+
+  /*
+   * The fingerprint of everything generation depends on other than the manifests and cdep.sha256.
+   * The target options are included because they change which archives the offline check needs.
+   */
+  @NotNull
+  private GenerationFingerprint getGenerationFingerprint(@NotNull GeneratorEnvironment environment)
+      throws IOException, NoSuchAlgorithmException {
+    StringBuilder inputs = new StringBuilder();
+    inputs.append("version ").append(BuildInfo.PROJECT_VERSION).append("\n");
+    inputs.append("builder ").append(overrideBuildSystem == null ? "" : overrideBuildSystem.name).append("\n");
+    inputs.append("offline ").append(offline).append("\n");
+    inputs.append("target ").append(targetSystem).append(" ").append(targetPlatform).append(" ")
+        .append(androidStl).append(" ").append(androidAbis).append("\n");
+    inputs.append("downloads ").append(environment.downloadFolder).append("\n");
+    inputs.append("exploded ").append(environment.unzippedArchivesFolder).append("\n");
+    inputs.append("modules ").append(environment.modulesFolder).append("\n");
+    inputs.append("examples ").append(environment.examplesFolder).append("\n");
+    inputs.append(FileUtils.readAllText(configFile)).append("\n");
+    return new GenerationFingerprint(new File(environment.modulesFolder, ".cdep-fingerprint"),
+        inputs.toString());
   }
 
   @NotNull
@@ -655,7 +902,8 @@ public class CDep {
         downloadedPackagesFolder,
         generatedModulesFolder,
         forceRedownload,
-        ignoreManifestHashes);
+        ignoreManifestHashes,
+        offline);
   }
 
   /*
@@ -684,9 +932,15 @@ public class CDep {
     info(" cdep show folders: show local download and file folders\n");
     info(" cdep show manifest: show cdep interpretation of cdep.yml\n");
     info(" cdep show include {coordinate}: show local include path for the given coordinate\n");
+    info(" cdep --target-system {system} [--target-platform {level}] [--android-stl {stl}] " +
+        "[--android-abi {abi,abi2}] query {coordinate}: show the archive, include folder and libraries that a " +
+        "build for this target would use\n");
     info(" cdep download: download dependencies for current cdep.yml\n");
     info(" cdep redownload: redownload dependencies for current cdep.yml\n");
     info(" cdep create hashes: create or recreate cdep.sha256 file\n");
+    info(" cdep prefetch: download all archives for current cdep.yml concurrently so that later runs can be " +
+        "offline\n");
+    info(" cdep gc: delete stored archives that are no longer referenced from the download or exploded folders\n");
     info(
         " cdep merge {coordinate} {coordinate2} ... outputmanifest.yml: merge manifests into outputmanifest.yml\n");
     info(
@@ -697,6 +951,15 @@ public class CDep {
         " cdep fetch-archive {coordinate} archive.zip {size} {sha256} : download a single archive " +
             "from within a package\n");
     info(" cdep wrapper: copy cdep to the current folder\n");
+    info(" cdep daemon: serve build system callbacks from one long-lived process until idle or stopped\n");
+    info(" cdep daemon stop: stop the running daemon\n");
+    info(" cdep --download-threads {count} [download|redownload|fetch|prefetch]: download and explode archives " +
+        "concurrently\n");
+    info(" cdep --target-system {system} [--target-platform {level}] [--android-stl {stl}] " +
+        "[--android-abi {abi,abi2}] [download|fetch|prefetch]: only download and explode the archives that " +
+        "a build for this target would use\n");
+    info(" cdep --offline [download|fetch|prefetch]: use only manifests and archives already in the local cache. " +
+        "Reports any that are missing\n");
     info(" cdep --version: show version information\n");
     return false;
   }
@@ -725,6 +988,52 @@ public class CDep {
     }
   }
 
+  private void handleDownloadThreads(@NotNull List<String> args) {
+    for (String downloadThreads : eatStringArgument("-dt", "--download-threads", args)) {
+      Integer result = null;
+      try {
+        result = Integer.parseInt(downloadThreads);
+      } catch (NumberFormatException e) {
+        // Reported below
+      }
+      if (failIf(result == null || result < 1,
+          "Download thread count '%s' is not a positive integer.", downloadThreads)) {
+        continue;
+      }
+      this.downloadThreads = result;
+    }
+  }
+
+  /*
+   * Return the download thread count from the command-line or the given default.
+   */
+  private int getDownloadThreads(int defaultThreads) {
+    return downloadThreads == null ? defaultThreads : downloadThreads;
+  }
+
+  private void handleOffline(@NotNull List<String> args) {
+    if (eatFlagArgument("--offline", args)) {
+      this.offline = true;
+    }
+  }
+
+  private void handleTarget(@NotNull List<String> args) {
+    for (String targetSystem : eatStringArgument("-ts", "--target-system", args)) {
+      this.targetSystem = targetSystem;
+    }
+    for (String targetPlatform : eatStringArgument("-tp", "--target-platform", args)) {
+      this.targetPlatform = targetPlatform;
+    }
+    for (String androidStl : eatStringArgument("-stl", "--android-stl", args)) {
+      this.androidStl = androidStl;
+    }
+    for (String androidAbis : eatStringArgument("-abi", "--android-abi", args)) {
+      Collections.addAll(this.androidAbis, androidAbis.split(","));
+    }
+    failIf(targetSystem == null && (targetPlatform != null || androidStl != null || !androidAbis.isEmpty()),
+        "--target-platform, --android-stl and --android-abi need --target-system");
+  }
+
   private void handleOverrideBuildSystem(@NotNull List<String> args) {
     for (String overrideBuildSystem : eatStringArgument("-b", "--builder", args)) {
       BuildSystem result = null;
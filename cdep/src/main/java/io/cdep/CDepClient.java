@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Entry point that generated CMake and ndk-build modules use to call back into CDep. If a CDep
+ * daemon for this version of CDep is running (see CDepDaemon) then the command is sent to it
+ * and this process just copies its output. Otherwise, the command runs in this process the same
+ * as calling io.cdep.CDep.
+ *
+ * Only java.* classes are used on the way to the daemon so that the short-lived JVM doesn't load
+ * SnakeYAML, jansi or the rest of CDep.
+ */
+public class CDepClient {
+  // Kinds of connection
+  final static int RUN = 1;
+  final static int STOP = 2;
+
+  // Kinds of frame sent back by the daemon
+  final static byte OUT = 1;
+  final static byte ERR = 2;
+  final static byte EXIT = 3;
+
+  final private static int CONNECT_TIMEOUT_MILLIS = 500;
+
+  public static void main(@NotNull String[] args) {
+    Integer result = tryRunInDaemon(getDaemonFile(), args, System.out, System.err);
+    if (result == null) {
+      CDep.main(args);
+      return;
+    }
+    System.exit(result);
+  }
+
+  /*
+   * The file where a running daemon records its port and the token that clients must present.
+   */
+  @NotNull
+  static File getDaemonFile() {
+    String override = System.getProperty("cdep.daemon.file");
+    if (override != null) {
+      return new File(override);
+    }
+    return new File(System.getProperty("user.home"), ".cdep/daemon");
+  }
+
+  /*
+   * Run the command in the daemon and copy its output. Returns the exit code or null if there was
+   * no daemon to run it.
+   */
+  @Nullable
+  static Integer tryRunInDaemon(
+      @NotNull File daemonFile,
+      @NotNull String[] args,
+      @NotNull PrintStream out,
+      @NotNull PrintStream err) {
+    Socket socket = connect(daemonFile, RUN);
+    if (socket == null) {
+      return null;
+    }
+    try {
+      DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      request.writeUTF(new File(".").getAbsoluteFile().getParent());
+      request.writeInt(args.length);
+      for (String arg : args) {
+        request.writeUTF(arg);
+      }
+      request.flush();
+      DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (true) {
+        byte kind = response.readByte();
+        if (kind == EXIT) {
+          return response.readInt();
+        }
+        byte bytes[] = new byte[response.readInt()];
+        response.readFully(bytes);
+        PrintStream stream = kind == OUT ? out : err;
+        stream.write(bytes);
+        stream.flush();
+      }
+    } catch (IOException e) {
+      // The command may have partly run so it isn't run again in this process
+      err.printf("Lost connection to cdep daemon: %s\n", e.getMessage());
+      return 1;
+    } finally {
+      close(socket);
+    }
+  }
+
+  /*
+   * Ask the daemon to exit. Returns false if there was no daemon.
+   */
+  static boolean stopDaemon(@NotNull File daemonFile) {
+    Socket socket = connect(daemonFile, STOP);
+    if (socket == null) {
+      return false;
+    }
+    close(socket);
+    return true;
+  }
+
+  /*
+   * Connect to the daemon and introduce this client. Returns null if there's no daemon or it
+   * belongs to a different version of CDep.
+   */
+  @Nullable
+  private static Socket connect(@NotNull File daemonFile, int kind) {
+    if (!daemonFile.isFile()) {
+      return null;
+    }
+    Socket socket = new Socket();
+    try {
+      String fields[] = new String(Files.readAllBytes(daemonFile.toPath()), UTF_8).trim().split(" ");
+      if (fields.length != 2) {
+        return null;
+      }
+      socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(fields[0])),
+          CONNECT_TIMEOUT_MILLIS);
+      DataOutputStream hello = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      hello.writeUTF(fields[1]);
+      hello.writeUTF(BuildInfo.PROJECT_VERSION);
+      hello.writeInt(kind);
+      hello.flush();
+      if (socket.getInputStream().read() != 1) {
+        close(socket);
+        return null;
+      }
+      return socket;
+    } catch (IOException | NumberFormatException e) {
+      close(socket);
+      return null;
+    }
+  }
+
+  private static void close(@NotNull Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing to do
+    }
+  }
+}
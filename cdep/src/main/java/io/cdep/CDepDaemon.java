@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.io.IO;
+import io.cdep.cdep.utils.FileUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.cdep.cdep.io.IO.info;
+
+/*
+ * Long-lived CDep process that runs commands for CDepClient so that build system callbacks don't
+ * each pay for starting a JVM and loading CDep. Caches that live in memory, like the file hash
+ * index and loaded function table snapshots, stay warm between commands.
+ *
+ * The daemon listens on a loopback port that it writes to the daemon file along with a random
+ * token. Clients must present the token and the same CDep version or they run the command
+ * themselves. Commands run one at a time because CDep's output streams are process-wide.
+ */
+class CDepDaemon {
+  final static long DEFAULT_IDLE_MILLIS = 3 * 60 * 60 * 1000L;
+
+  @NotNull
+  final private File daemonFile;
+  final private long idleMillis;
+  @NotNull
+  final private String token;
+
+  CDepDaemon(@NotNull File daemonFile, long idleMillis) {
+    this.daemonFile = daemonFile;
+    this.idleMillis = idleMillis;
+    byte bytes[] = new byte[16];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    this.token = sb.toString();
+  }
+
+  /*
+   * Serve commands until asked to stop or until no command arrives for the idle time.
+   */
+  void run() throws IOException {
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout((int) Math.min(idleMillis, Integer.MAX_VALUE));
+      String contents = server.getLocalPort() + " " + token + "\n";
+      // Only this user should be able to present the token
+      FileUtils.writeTextToOwnerOnlyFileAtomically(daemonFile, contents);
+      info("cdep daemon listening on port %s\n", server.getLocalPort());
+      try {
+        while (true) {
+          Socket socket;
+          try {
+            socket = server.accept();
+          } catch (SocketTimeoutException e) {
+            info("cdep daemon exiting after being idle\n");
+            return;
+          }
+          try (Socket ignored = socket) {
+            if (!serve(socket)) {
+              info("cdep daemon stopped\n");
+              return;
+            }
+          } catch (IOException e) {
+            // The client went away. Keep serving others.
+          }
+        }
+      } finally {
+        // A newer daemon may have taken over the file
+        if (daemonFile.isFile() && FileUtils.readAllText(daemonFile).equals(contents)) {
+          //noinspection ResultOfMethodCallIgnored
+          daemonFile.delete();
+        }
+      }
+    }
+  }
+
+  /*
+   * Serve a single connection. Returns false if the daemon was asked to stop.
+   */
+  private boolean serve(@NotNull Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    String clientToken = in.readUTF();
+    String clientVersion = in.readUTF();
+    int kind = in.readInt();
+    boolean accepted = token.equals(clientToken) && BuildInfo.PROJECT_VERSION.equals(clientVersion);
+    out.writeByte(accepted ? 1 : 0);
+    out.flush();
+    if (!accepted) {
+      return true;
+    }
+    if (kind == CDepClient.STOP) {
+      return false;
+    }
+    String clientFolder = in.readUTF();
+    List<String> args = new ArrayList<>();
+    int count = in.readInt();
+    for (int i = 0; i < count; ++i) {
+      args.add(in.readUTF());
+    }
+    boolean standalone = args.size() == 1 && (args.contains("--help") || args.contains("--version"));
+    if (!standalone && !args.contains("-wf") && !args.contains("--working-folder")) {
+      // The daemon's own folder means nothing to the client
+      args.add(0, "--working-folder");
+      args.add(1, clientFolder);
+    }
+    int result = runCommand(out, args);
+    out.writeByte(CDepClient.EXIT);
+    out.writeInt(result);
+    out.flush();
+    return true;
+  }
+
+  /*
+   * Run a CDep command with its output sent back to the client as it's written.
+   */
+  private static int runCommand(@NotNull DataOutputStream out, @NotNull List<String> args) {
+    PrintStream clientOut = new PrintStream(new FrameOutputStream(out, CDepClient.OUT), true);
+    PrintStream clientErr = new PrintStream(new FrameOutputStream(out, CDepClient.ERR), true);
+    PrintStream originalSystemOut = System.out;
+    PrintStream originalSystemErr = System.err;
+    PrintStream originalOut = IO.setOut(clientOut);
+    PrintStream originalErr = IO.setErr(clientErr);
+    System.setOut(clientOut);
+    System.setErr(clientErr);
+    try {
+      return new CDep(clientOut, clientErr, false).go(args.toArray(new String[args.size()]), false);
+    } catch (Throwable e) {
+      e.printStackTrace(clientErr);
+      return 1;
+    } finally {
+      clientOut.flush();
+      clientErr.flush();
+      System.setOut(originalSystemOut);
+      System.setErr(originalSystemErr);
+      IO.setOut(originalOut);
+      IO.setErr(originalErr);
+    }
+  }
+
+  /*
+   * Sends everything written to it as frames of the given kind.
+   */
+  private static class FrameOutputStream extends OutputStream {
+    @NotNull
+    final private DataOutputStream out;
+    final private byte kind;
+
+    FrameOutputStream(@NotNull DataOutputStream out, byte kind) {
+      this.out = out;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return;
+      }
+      synchronized (out) {
+        out.writeByte(kind);
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+}
@@ -49,6 +49,22 @@ public class BuildFindModuleFunctionTable {
 
   @NotNull
   public FunctionTableExpression build() {
+    // Lift assignments up to the highest correct scope
+    FunctionTableExpression functionTable =
+        (FunctionTableExpression) new LiftAssignmentToCommonAncestor().visit(buildUnlifted());
+
+    // Check sanity of the function system
+    new CheckReferenceAndDependencyConsistency().visit(functionTable);
+
+    return functionTable;
+  }
+
+  /*
+   * Build the function table with each assignment replaced by a reference to it but before the
+   * assignments are lifted into blocks.
+   */
+  @NotNull
+  FunctionTableExpression buildUnlifted() {
     GlobalBuildEnvironmentExpression globals = new GlobalBuildEnvironmentExpression();
     Map<Coordinate, StatementExpression> findFunctions = new LinkedHashMap<>();
     Map<Coordinate, ExampleExpression> examples = new LinkedHashMap<>();
@@ -69,15 +85,7 @@ public class BuildFindModuleFunctionTable {
     }
 
     FunctionTableExpression functionTable = new FunctionTableExpression(globals, orderedManifests, findFunctions, examples);
-
-    // Lift assignments up to the highest correct scope
-    functionTable = (FunctionTableExpression) new ReplaceAssignmentWithReference().visit(functionTable);
-    functionTable = (FunctionTableExpression) new LiftAssignmentToCommonAncestor().visit(functionTable);
-
-    // Check sanity of the function system
-    new CheckReferenceAndDependencyConsistency().visit(functionTable);
-
-    return functionTable;
+    return (FunctionTableExpression) new ReplaceAssignmentWithReference().visit(functionTable);
   }
 
   @NotNull
@@ -17,33 +17,76 @@ package io.cdep.cdep;
 
 import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
 import io.cdep.cdep.ast.finder.*;
 
 import java.io.File;
+import java.util.*;
 
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.array;
 import static io.cdep.cdep.utils.Invariant.fail;
 
 /*
  * Locates every referenced local file and ensures that those files are present in the right
  * place on the local file system.
+ *
+ * Every module archive is checked, whichever branch of the find function it is on, so conditions
+ * aren't evaluated. Archive paths only depend on the exploded root.
  */
-public class CheckLocalFileSystemIntegrity extends InterpretingVisitor {
+public class CheckLocalFileSystemIntegrity {
 
   final private File explodedRoot;
+  @Nullable
+  final private Set<ModuleArchiveExpression> archives;
 
   public CheckLocalFileSystemIntegrity(File explodedRoot) {
+    this(explodedRoot, null);
+  }
+
+  /*
+   * If archives isn't null then only those archives are checked. The others may not have been
+   * exploded.
+   */
+  public CheckLocalFileSystemIntegrity(File explodedRoot, @Nullable Set<ModuleArchiveExpression> archives) {
     this.explodedRoot = explodedRoot;
+    this.archives = archives;
   }
 
-  @NotNull
-  private ModuleArchive superVisitModuleArchiveExpression(@NotNull ModuleArchiveExpression expr) {
-    return super.visitModuleArchiveExpression(expr);
+  public void visit(@NotNull Expression expr) {
+    final List<Expression> found = new ArrayList<>();
+    final Set<ModuleArchiveExpression> seen =
+        Collections.newSetFromMap(new IdentityHashMap<ModuleArchiveExpression, Boolean>());
+    new ReadonlyVisitor() {
+      @Override
+      protected void visitModuleArchiveExpression(@NotNull ModuleArchiveExpression expr) {
+        if ((archives == null || archives.contains(expr)) && seen.add(expr)) {
+          found.add(expr);
+        }
+        super.visitModuleArchiveExpression(expr);
+      }
+    }.visit(expr);
+    if (found.isEmpty()) {
+      return;
+    }
+    // All of the archives are compiled together so that shared assignments are evaluated once
+    CompiledExpression.compile(array(found.toArray(new Expression[found.size()])))
+        .evaluate(new CompiledExpression.Evaluation() {
+          @Override
+          protected Object getParameter(@NotNull ParameterExpression expr) {
+            if (expr.name.equals("cdep_exploded_root")) {
+              return explodedRoot;
+            }
+            return super.getParameter(expr);
+          }
+
+          @Override
+          protected void moduleArchive(@NotNull ModuleArchiveExpression expr, @NotNull ModuleArchive archive) {
+            checkModuleArchive(archive);
+          }
+        });
   }
 
-  @NotNull
-  @Override
-  protected ModuleArchive visitModuleArchiveExpression(@NotNull ModuleArchiveExpression expr) {
-    ModuleArchive archive = superVisitModuleArchiveExpression(expr);
+  private static void checkModuleArchive(@NotNull ModuleArchive archive) {
     if (archive.fullIncludePath != null) {
       if (!archive.fullIncludePath.getParentFile().isDirectory()) {
         fail("Expected '%s' folder to be created but it wasn't.",
@@ -73,36 +116,5 @@ public class CheckLocalFileSystemIntegrity extends InterpretingVisitor {
             fullLibraryName);
       }
     }
-    return archive;
-  }
-
-  @Override
-  protected Object visitParameterExpression(@NotNull ParameterExpression expr) {
-    if (expr.name.equals("cdep_exploded_root")) {
-      return explodedRoot;
-    }
-    return super.visitParameterExpression(expr);
-  }
-
-  @Nullable
-  @Override
-  protected Object visitFindModuleExpression(@NotNull FindModuleExpression expr) {
-    return visit(expr.body);
-  }
-
-  @Nullable
-  @Override
-  protected Object visitIfSwitchExpression(@NotNull IfSwitchExpression expr) {
-    for (int i = 0; i < expr.conditions.length; ++i) {
-      // Don't visit the condition. Instead, travel down all paths.
-      visit(expr.expressions[i]);
-    }
-    return visit(expr.elseExpression);
-  }
-
-  @Nullable
-  @Override
-  protected Object visitAbortExpression(@NotNull AbortExpression expr) {
-    return null;
   }
 }
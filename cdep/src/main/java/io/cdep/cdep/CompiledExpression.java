@@ -0,0 +1,602 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
+import io.cdep.cdep.ast.finder.*;
+import io.cdep.cdep.yml.cdepmanifest.CxxLanguageFeatures;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static io.cdep.cdep.InterpretingVisitor.coerce;
+import static io.cdep.cdep.utils.Invariant.fail;
+import static io.cdep.cdep.utils.Invariant.require;
+import static io.cdep.cdep.utils.StringUtils.safeFormat;
+
+/*
+ * An expression lowered once into a tree of closures so that it can be evaluated many times, for
+ * example a find function evaluated for each ABI. Built-in external functions are called directly
+ * and others through method handles. Constant arguments are coerced ahead of time. Parameters and
+ * assignments are given numbered slots so evaluation does no reflection or map lookups. Results
+ * are the same as those of InterpretingVisitor.
+ *
+ * Each assignment is evaluated at most once per evaluation. Its value depends only on the bound
+ * parameters so it is the same wherever it is referenced.
+ */
+public class CompiledExpression {
+
+  @NotNull
+  private static final Object UNSET = new Object();
+
+  @NotNull
+  final private Closure root;
+  final private int parameterCount;
+  final private int assignmentCount;
+
+  private CompiledExpression(@NotNull Closure root, int parameterCount, int assignmentCount) {
+    this.root = root;
+    this.parameterCount = parameterCount;
+    this.assignmentCount = assignmentCount;
+  }
+
+  @NotNull
+  public static CompiledExpression compile(@Nullable Expression expr) {
+    Compiler compiler = new Compiler();
+    Closure root = compiler.compile(expr);
+    return new CompiledExpression(root, compiler.parameters.size(), compiler.assignments.size());
+  }
+
+  /*
+   * Evaluate with the given parameter values. A parameter without a value is an error if the
+   * evaluation needs it.
+   */
+  @Nullable
+  public Object evaluate(@NotNull Map<ParameterExpression, Object> bindings) {
+    return evaluate(new Evaluation(bindings));
+  }
+
+  @Nullable
+  public Object evaluate(@NotNull Evaluation evaluation) {
+    evaluation.parameters = new Object[parameterCount];
+    evaluation.assignments = new Object[assignmentCount];
+    for (int i = 0; i < parameterCount; ++i) {
+      evaluation.parameters[i] = UNSET;
+    }
+    for (int i = 0; i < assignmentCount; ++i) {
+      evaluation.assignments[i] = UNSET;
+    }
+    return root.evaluate(evaluation);
+  }
+
+  /*
+   * The state of one evaluation. Subclasses can supply parameter values some other way and can
+   * observe the module archives that were reached.
+   */
+  public static class Evaluation {
+    @NotNull
+    final private Map<ParameterExpression, Object> bindings;
+    private Object parameters[];
+    private Object assignments[];
+
+    public Evaluation() {
+      this(new HashMap<ParameterExpression, Object>());
+    }
+
+    public Evaluation(@NotNull Map<ParameterExpression, Object> bindings) {
+      this.bindings = bindings;
+    }
+
+    /*
+     * Called at most once per evaluation for each parameter that is needed.
+     */
+    @Nullable
+    protected Object getParameter(@NotNull ParameterExpression expr) {
+      if (!bindings.containsKey(expr)) {
+        throw new RuntimeException("Need to bind " + expr.name);
+      }
+      return bindings.get(expr);
+    }
+
+    /*
+     * Called each time a module archive is reached.
+     */
+    protected void moduleArchive(@NotNull ModuleArchiveExpression expr, @NotNull ModuleArchive archive) {
+    }
+  }
+
+  abstract static class Closure {
+    @Nullable
+    abstract Object evaluate(@NotNull Evaluation evaluation);
+  }
+
+  /*
+   * A call whose arguments are evaluated into an array.
+   */
+  abstract static class Call extends Closure {
+    @NotNull
+    final private Closure arguments[];
+
+    Call(@NotNull Closure arguments[]) {
+      this.arguments = arguments;
+    }
+
+    @Nullable
+    abstract Object call(@NotNull Object values[]);
+
+    @Nullable
+    @Override
+    Object evaluate(@NotNull Evaluation evaluation) {
+      Object values[] = new Object[arguments.length];
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = arguments[i].evaluate(evaluation);
+      }
+      return call(values);
+    }
+  }
+
+  /*
+   * The slot of an assignment and its compiled expression. The expression is filled in after the
+   * slot is created so that references can be compiled before the assignment is.
+   */
+  private static class AssignmentSlot {
+    final int index;
+    @Nullable
+    Closure expression;
+
+    AssignmentSlot(int index) {
+      this.index = index;
+    }
+  }
+
+  private static class Compiler {
+    @NotNull
+    final Map<ParameterExpression, Integer> parameters = new IdentityHashMap<>();
+    @NotNull
+    final Map<AssignmentExpression, AssignmentSlot> assignments = new IdentityHashMap<>();
+
+    @NotNull
+    Closure compile(@Nullable Expression expr) {
+      if (expr == null) {
+        return constant(null);
+      }
+      switch (expr.kind) {
+        case FUNCTION_TABLE:
+          return compileFunctionTableExpression((FunctionTableExpression) expr);
+        case FIND_MODULE:
+          return compile(((FindModuleExpression) expr).body);
+        case PARAMETER:
+          return compileParameterExpression((ParameterExpression) expr);
+        case IF_SWITCH:
+          return compileIfSwitchExpression((IfSwitchExpression) expr);
+        case CONSTANT:
+          return constant(((ConstantExpression) expr).value);
+        case ASSIGNMENT:
+          assignment((AssignmentExpression) expr);
+          return constant(null);
+        case INVOKE_FUNCTION:
+          return compileInvokeFunctionExpression((InvokeFunctionExpression) expr);
+        case MODULE:
+          return compile(((ModuleExpression) expr).archive);
+        case ABORT:
+          return compileAbortExpression((AbortExpression) expr);
+        case EXAMPLE:
+          return constant(null);
+        case EXTERNAL_FUNCTION:
+          return constant(((ExternalFunctionExpression) expr).method);
+        case ARRAY:
+          return array(((ArrayExpression) expr).elements);
+        case ASSIGNMENT_BLOCK:
+          return compileAssignmentBlockExpression((AssignmentBlockExpression) expr);
+        case ASSIGNMENT_REFERENCE:
+          return compileAssignmentReferenceExpression((AssignmentReferenceExpression) expr);
+        case MODULE_ARCHIVE:
+          return compileModuleArchiveExpression((ModuleArchiveExpression) expr);
+        case MULTI_STATEMENT:
+          return array(((MultiStatementExpression) expr).statements);
+        case NOP:
+          return constant(expr);
+        case GLOBAL_BUILD_ENVIRONMENT:
+          return constant(null);
+      }
+      throw new RuntimeException("Can't compile " + expr.getClass().toString());
+    }
+
+    @NotNull
+    private Closure compileFunctionTableExpression(@NotNull FunctionTableExpression expr) {
+      final Closure findFunctions[] = new Closure[expr.orderOfReferences.size()];
+      for (int i = 0; i < findFunctions.length; ++i) {
+        findFunctions[i] = compile(expr.getFindFunction(expr.orderOfReferences.get(i)));
+      }
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          for (Closure findFunction : findFunctions) {
+            findFunction.evaluate(evaluation);
+          }
+          return null;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure compileParameterExpression(@NotNull final ParameterExpression expr) {
+      Integer slot = parameters.get(expr);
+      if (slot == null) {
+        slot = parameters.size();
+        parameters.put(expr, slot);
+      }
+      final int index = slot;
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          Object value = evaluation.parameters[index];
+          if (value == UNSET) {
+            value = evaluation.getParameter(expr);
+            evaluation.parameters[index] = value;
+          }
+          return value;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure compileIfSwitchExpression(@NotNull final IfSwitchExpression expr) {
+      final Closure conditions[] = compileAll(expr.conditions);
+      final Closure expressions[] = compileAll(expr.expressions);
+      final Closure elseExpression = compile(expr.elseExpression);
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          for (int i = 0; i < conditions.length; ++i) {
+            Object condition = conditions[i].evaluate(evaluation);
+            assert condition != null;
+            require(condition instanceof Boolean,
+                "Value of type '%s' was not assignable to boolean",
+                condition.getClass());
+            if ((Boolean) condition) {
+              Object result = expressions[i].evaluate(evaluation);
+              require(result != null, "Expected %s to not return null", expr.expressions[i]);
+              return result;
+            }
+          }
+          Object result = elseExpression.evaluate(evaluation);
+          require(result != null, "Expected %s to not return null", expr.elseExpression);
+          return result;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure compileInvokeFunctionExpression(@NotNull InvokeFunctionExpression expr) {
+      Method method = expr.function.method;
+      Class<?> parameterTypes[] = method.getParameterTypes();
+      int firstParameter = Modifier.isStatic(method.getModifiers()) ? 0 : 1;
+      final Closure arguments[] = new Closure[expr.parameters.length];
+      for (int i = 0; i < arguments.length; ++i) {
+        Class<?> type = i < firstParameter
+            ? method.getDeclaringClass()
+            : parameterTypes[i - firstParameter];
+        arguments[i] = coerced(expr.parameters[i], type);
+      }
+      Closure known = compileKnownFunction(expr.function, arguments);
+      if (known != null) {
+        return known;
+      }
+      MethodHandle handle;
+      try {
+        handle = MethodHandles.publicLookup().unreflect(method);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+      // Fixed arity so that an array argument to a varargs method like fileJoinSegments is passed as is
+      final MethodHandle invoker = handle
+          .asFixedArity()
+          .asType(handle.type().generic())
+          .asSpreader(Object[].class, arguments.length);
+      return new Call(arguments) {
+        @Nullable
+        @Override
+        Object call(@NotNull Object[] values) {
+          try {
+            return (Object) invoker.invokeExact(values);
+          } catch (RuntimeException | Error e) {
+            throw e;
+          } catch (Throwable e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
+
+    /*
+     * Calls to the external functions that ExpressionBuilder uses are made directly. Returns null
+     * for other functions.
+     */
+    @Nullable
+    private static Closure compileKnownFunction(@NotNull ExternalFunctionExpression function,
+        @NotNull Closure arguments[]) {
+      if (function == ExternalFunctionExpression.FILE_GETNAME) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ((File) values[0]).getName();
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.STRING_LASTINDEXOF) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ((String) values[0]).lastIndexOf((String) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.STRING_SUBSTRING_BEGIN_END) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ((String) values[0]).substring((Integer) values[1], (Integer) values[2]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.STRING_STARTSWITH) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ((String) values[0]).startsWith((String) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.FILE_JOIN_SEGMENTS) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.fileJoinSegments((File) values[0], (String[]) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.INTEGER_GTE) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.gte((Integer) values[0], (Integer) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.NOT) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.not((Boolean) values[0]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.OR) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.or((Boolean) values[0], (Boolean) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.STRING_EQUALS) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.eq((String) values[0], (String) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.ARRAY_HAS_ONLY_ELEMENT) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.hasOnlyElement((String[]) values[0], (String) values[1]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.REQUIRE_MINIMUM_CXX_COMPILER_STANDARD) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.requireMinimumCxxCompilerStandard((String) values[0]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.REQUIRES_COMPILER_FEATURES) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.requiresCompilerFeatures((CxxLanguageFeatures[]) values[0]);
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.SUPPORTS_COMPILER_FEATURES) {
+        return new Call(arguments) {
+          @NotNull
+          @Override
+          Object call(@NotNull Object[] values) {
+            return ExternalFunctionExpression.supportsCompilerFeatures();
+          }
+        };
+      }
+      if (function == ExternalFunctionExpression.SET_CXX_COMPILER_STANDARD_FOR_ALL_TARGETS) {
+        return new Call(arguments) {
+          @Nullable
+          @Override
+          Object call(@NotNull Object[] values) {
+            ExternalFunctionExpression.setCxxCompilerStandardForAllTargets((Integer) values[0]);
+            return null;
+          }
+        };
+      }
+      return null;
+    }
+
+    /*
+     * Compile an argument that is coerced to type. Constants are coerced now.
+     */
+    @NotNull
+    private Closure coerced(@NotNull Expression expr, @NotNull final Class<?> type) {
+      if (expr.kind == ExpressionKind.CONSTANT) {
+        return constant(coerce(((ConstantExpression) expr).value, type));
+      }
+      final Closure value = compile(expr);
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          return coerce(value.evaluate(evaluation), type);
+        }
+      };
+    }
+
+    @NotNull
+    private Closure compileAbortExpression(@NotNull AbortExpression expr) {
+      final String message = "Abort: " + expr.message;
+      final Closure parameters[] = compileAll(expr.parameters);
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          Object values[] = new Object[parameters.length];
+          for (int i = 0; i < values.length; ++i) {
+            values[i] = parameters[i].evaluate(evaluation);
+          }
+          String formatted = safeFormat(message, (Object[]) coerce(values, String[].class));
+          fail(formatted);
+          return formatted;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure compileAssignmentBlockExpression(@NotNull AssignmentBlockExpression expr) {
+      for (AssignmentExpression assignment : expr.assignments) {
+        assignment(assignment);
+      }
+      return compile(expr.statement);
+    }
+
+    @NotNull
+    private Closure compileAssignmentReferenceExpression(@NotNull AssignmentReferenceExpression expr) {
+      final AssignmentSlot slot = assignment(expr.assignment);
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          Object value = evaluation.assignments[slot.index];
+          if (value == UNSET) {
+            assert slot.expression != null;
+            value = slot.expression.evaluate(evaluation);
+            evaluation.assignments[slot.index] = value;
+          }
+          return value;
+        }
+      };
+    }
+
+    @NotNull
+    private AssignmentSlot assignment(@NotNull AssignmentExpression assignment) {
+      AssignmentSlot slot = assignments.get(assignment);
+      if (slot == null) {
+        slot = new AssignmentSlot(assignments.size());
+        assignments.put(assignment, slot);
+        slot.expression = compile(assignment.expression);
+      }
+      return slot;
+    }
+
+    @NotNull
+    private Closure compileModuleArchiveExpression(@NotNull final ModuleArchiveExpression expr) {
+      final Closure includePath = compile(expr.includePath);
+      final Closure libraryPaths[] = compileAll(expr.libraryPaths);
+      return new Closure() {
+        @NotNull
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          File fullLibraryNames[] = new File[libraryPaths.length];
+          for (int i = 0; i < fullLibraryNames.length; ++i) {
+            fullLibraryNames[i] = (File) libraryPaths[i].evaluate(evaluation);
+          }
+          ModuleArchive archive = new ModuleArchive(expr.file, (File) includePath.evaluate(evaluation), fullLibraryNames);
+          evaluation.moduleArchive(expr, archive);
+          return archive;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure array(@NotNull Expression elements[]) {
+      final Closure closures[] = compileAll(elements);
+      return new Closure() {
+        @NotNull
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          Object result[] = new Object[closures.length];
+          for (int i = 0; i < result.length; ++i) {
+            result[i] = closures[i].evaluate(evaluation);
+          }
+          return result;
+        }
+      };
+    }
+
+    @NotNull
+    private Closure[] compileAll(@NotNull Expression expressions[]) {
+      Closure result[] = new Closure[expressions.length];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = compile(expressions[i]);
+      }
+      return result;
+    }
+
+    @NotNull
+    private static Closure constant(@Nullable final Object value) {
+      return new Closure() {
+        @Nullable
+        @Override
+        Object evaluate(@NotNull Evaluation evaluation) {
+          return value;
+        }
+      };
+    }
+  }
+}
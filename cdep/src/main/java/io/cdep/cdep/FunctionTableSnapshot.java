@@ -0,0 +1,556 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.ast.finder.*;
+import io.cdep.cdep.yml.cdepmanifest.AndroidABI;
+import io.cdep.cdep.yml.cdepmanifest.CxxLanguageFeatures;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Compact binary form of a built FunctionTableExpression. Reading one back gives an equivalent
+ * table without parsing manifests or running the rewriting and checking passes again.
+ *
+ * Expressions are written depth first. Each expression is given the next number once it has been
+ * written and later occurrences of the same instance are written as a reference to that number.
+ * This keeps the sharing that passes like ReplaceAssignmentWithReference rely on, for example an
+ * AssignmentReferenceExpression still points at the same AssignmentExpression instance.
+ */
+public class FunctionTableSnapshot {
+  final private static int MAGIC = 0x43446570; // "CDep"
+  // Raise this whenever the written form or the shape of the tables that are written changes.
+  // Version 2 has expression kinds and nodes shared by ExpressionBuilder.
+  final private static int FORMAT_VERSION = 2;
+
+  final private static byte NULL = 0;
+  final private static byte REFERENCE = 1;
+  final private static byte ABORT = 2;
+  final private static byte ARRAY = 3;
+  final private static byte ASSIGNMENT_BLOCK = 4;
+  final private static byte ASSIGNMENT = 5;
+  final private static byte ASSIGNMENT_REFERENCE = 6;
+  final private static byte CONSTANT = 7;
+  final private static byte EXAMPLE = 8;
+  final private static byte EXTERNAL_FUNCTION = 9;
+  final private static byte FIND_MODULE = 10;
+  final private static byte IF_SWITCH = 11;
+  final private static byte INVOKE_FUNCTION = 12;
+  final private static byte MODULE_ARCHIVE = 13;
+  final private static byte MODULE = 14;
+  final private static byte MULTI_STATEMENT = 15;
+  final private static byte NOP = 16;
+
+  final private static byte STRING_VALUE = 0;
+  final private static byte INTEGER_VALUE = 1;
+  final private static byte BOOLEAN_VALUE = 2;
+  final private static byte FEATURE_VALUE = 3;
+  final private static byte ABI_VALUE = 4;
+
+  // External functions are written as their position in this array.
+  final private static ExternalFunctionExpression FUNCTIONS[] = new ExternalFunctionExpression[]{
+      ExternalFunctionExpression.FILE_GETNAME,
+      ExternalFunctionExpression.STRING_LASTINDEXOF,
+      ExternalFunctionExpression.STRING_SUBSTRING_BEGIN_END,
+      ExternalFunctionExpression.STRING_STARTSWITH,
+      ExternalFunctionExpression.FILE_JOIN_SEGMENTS,
+      ExternalFunctionExpression.INTEGER_GTE,
+      ExternalFunctionExpression.NOT,
+      ExternalFunctionExpression.OR,
+      ExternalFunctionExpression.REQUIRE_MINIMUM_CXX_COMPILER_STANDARD,
+      ExternalFunctionExpression.STRING_EQUALS,
+      ExternalFunctionExpression.ARRAY_HAS_ONLY_ELEMENT,
+      ExternalFunctionExpression.REQUIRES_COMPILER_FEATURES,
+      ExternalFunctionExpression.SUPPORTS_COMPILER_FEATURES,
+      ExternalFunctionExpression.SET_CXX_COMPILER_STANDARD_FOR_ALL_TARGETS
+  };
+
+  public static void write(@NotNull FunctionTableExpression table, @NotNull DataOutput out) throws IOException {
+    new Writer(out).writeTable(table);
+  }
+
+  /*
+   * Read a table written by write(). Throws IOException if the data isn't a snapshot written by
+   * this version of the format.
+   */
+  @NotNull
+  public static FunctionTableExpression read(@NotNull DataInput in) throws IOException {
+    return new Reader(in).readTable();
+  }
+
+  @NotNull
+  private static ParameterExpression[] getGlobalParameters(@NotNull GlobalBuildEnvironmentExpression globals) {
+    return new ParameterExpression[]{
+        globals.cdepExplodedRoot,
+        globals.buildSystemNoneRuntime,
+        globals.buildSystemTargetSystem,
+        globals.buildSystemTargetPlatform,
+        globals.cdepDeterminedAndroidAbi,
+        globals.cdepDeterminedAndroidRuntime,
+        globals.cmakeOsxSysroot,
+        globals.cmakeOsxArchitectures,
+        globals.buildSystemCxxCompilerStandard
+    };
+  }
+
+  private static class Writer {
+    @NotNull
+    final private DataOutput out;
+    @NotNull
+    final private Map<Expression, Integer> written = new IdentityHashMap<>();
+
+    Writer(@NotNull DataOutput out) {
+      this.out = out;
+    }
+
+    void writeTable(@NotNull FunctionTableExpression table) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      // Globals are recreated by the reader so they're numbered up front rather than written
+      written.put(table.globals, written.size());
+      for (ParameterExpression parameter : getGlobalParameters(table.globals)) {
+        written.put(parameter, written.size());
+      }
+      out.writeInt(table.orderOfReferences.size());
+      for (Coordinate coordinate : table.orderOfReferences) {
+        writeCoordinate(coordinate);
+        writeExpression(table.getFindFunction(coordinate));
+        writeExpression(table.getExample(coordinate));
+      }
+    }
+
+    private void writeExpression(@Nullable Expression expr) throws IOException {
+      if (expr == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Integer number = written.get(expr);
+      if (number != null) {
+        out.writeByte(REFERENCE);
+        out.writeInt(number);
+        return;
+      }
+      switch (expr.kind) {
+        case ABORT: {
+          AbortExpression specific = (AbortExpression) expr;
+          out.writeByte(ABORT);
+          writeString(specific.message);
+          writeExpressions(specific.parameters);
+          break;
+        }
+        case ARRAY:
+          out.writeByte(ARRAY);
+          writeExpressions(((ArrayExpression) expr).elements);
+          break;
+        case ASSIGNMENT_BLOCK: {
+          AssignmentBlockExpression specific = (AssignmentBlockExpression) expr;
+          out.writeByte(ASSIGNMENT_BLOCK);
+          out.writeInt(specific.assignments.size());
+          for (AssignmentExpression assignment : specific.assignments) {
+            writeExpression(assignment);
+          }
+          writeExpression(specific.statement);
+          break;
+        }
+        case ASSIGNMENT: {
+          AssignmentExpression specific = (AssignmentExpression) expr;
+          out.writeByte(ASSIGNMENT);
+          writeString(specific.name);
+          writeExpression(specific.expression);
+          break;
+        }
+        case ASSIGNMENT_REFERENCE:
+          out.writeByte(ASSIGNMENT_REFERENCE);
+          writeExpression(((AssignmentReferenceExpression) expr).assignment);
+          break;
+        case CONSTANT:
+          out.writeByte(CONSTANT);
+          writeConstant(((ConstantExpression) expr).value);
+          break;
+        case EXAMPLE:
+          out.writeByte(EXAMPLE);
+          writeString(((ExampleExpression) expr).sourceCode);
+          break;
+        case EXTERNAL_FUNCTION: {
+          int index = Arrays.asList(FUNCTIONS).indexOf(expr);
+          if (index == -1) {
+            throw new RuntimeException("snapshot function " + ((ExternalFunctionExpression) expr).method);
+          }
+          out.writeByte(EXTERNAL_FUNCTION);
+          out.writeInt(index);
+          break;
+        }
+        case FIND_MODULE: {
+          FindModuleExpression specific = (FindModuleExpression) expr;
+          out.writeByte(FIND_MODULE);
+          writeExpression(specific.globals);
+          writeCoordinate(specific.coordinate);
+          writeString(specific.headerArchive);
+          writeString(specific.include);
+          writeExpression(specific.body);
+          break;
+        }
+        case IF_SWITCH: {
+          IfSwitchExpression specific = (IfSwitchExpression) expr;
+          out.writeByte(IF_SWITCH);
+          writeExpressions(specific.conditions);
+          writeExpressions(specific.expressions);
+          writeExpression(specific.elseExpression);
+          break;
+        }
+        case INVOKE_FUNCTION: {
+          InvokeFunctionExpression specific = (InvokeFunctionExpression) expr;
+          out.writeByte(INVOKE_FUNCTION);
+          writeExpression(specific.function);
+          writeExpressions(specific.parameters);
+          break;
+        }
+        case MODULE_ARCHIVE: {
+          ModuleArchiveExpression specific = (ModuleArchiveExpression) expr;
+          out.writeByte(MODULE_ARCHIVE);
+          writeString(specific.file.toString());
+          writeString(specific.sha256);
+          out.writeLong(specific.size);
+          writeString(specific.include);
+          writeExpression(specific.includePath);
+          out.writeInt(specific.libs.length);
+          for (String lib : specific.libs) {
+            writeString(lib);
+          }
+          writeExpressions(specific.libraryPaths);
+          writeExpression(specific.completionSentinel);
+          out.writeInt(specific.requires.length);
+          for (CxxLanguageFeatures feature : specific.requires) {
+            writeString(feature.name());
+          }
+          break;
+        }
+        case MODULE: {
+          ModuleExpression specific = (ModuleExpression) expr;
+          out.writeByte(MODULE);
+          writeExpression(specific.archive);
+          out.writeInt(specific.dependencies.size());
+          for (Coordinate dependency : specific.dependencies) {
+            writeCoordinate(dependency);
+          }
+          break;
+        }
+        case MULTI_STATEMENT:
+          out.writeByte(MULTI_STATEMENT);
+          writeExpressions(((MultiStatementExpression) expr).statements);
+          break;
+        case NOP:
+          out.writeByte(NOP);
+          break;
+        default:
+          throw new RuntimeException("snapshot" + expr.getClass().toString());
+      }
+      written.put(expr, written.size());
+    }
+
+    private void writeExpressions(@NotNull Expression expressions[]) throws IOException {
+      out.writeInt(expressions.length);
+      for (Expression expression : expressions) {
+        writeExpression(expression);
+      }
+    }
+
+    private void writeConstant(@NotNull Object value) throws IOException {
+      if (value instanceof String) {
+        out.writeByte(STRING_VALUE);
+        writeString((String) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(INTEGER_VALUE);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN_VALUE);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof CxxLanguageFeatures) {
+        out.writeByte(FEATURE_VALUE);
+        writeString(((CxxLanguageFeatures) value).name());
+      } else if (value instanceof AndroidABI) {
+        out.writeByte(ABI_VALUE);
+        writeString(((AndroidABI) value).name);
+      } else {
+        throw new RuntimeException("snapshot constant " + value.getClass().toString());
+      }
+    }
+
+    private void writeCoordinate(@NotNull Coordinate coordinate) throws IOException {
+      writeString(coordinate.groupId);
+      writeString(coordinate.artifactId);
+      writeString(coordinate.version.value);
+    }
+
+    // Unlike writeUTF this allows null and strings longer than 64K, like example source code.
+    private void writeString(@Nullable String string) throws IOException {
+      if (string == null) {
+        out.writeInt(-1);
+        return;
+      }
+      byte bytes[] = string.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static class Reader {
+    @NotNull
+    final private DataInput in;
+    @NotNull
+    final private List<Expression> read = new ArrayList<>();
+
+    Reader(@NotNull DataInput in) {
+      this.in = in;
+    }
+
+    @NotNull
+    FunctionTableExpression readTable() throws IOException {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Not a function table snapshot of the current format");
+      }
+      GlobalBuildEnvironmentExpression globals = new GlobalBuildEnvironmentExpression();
+      read.add(globals);
+      read.addAll(Arrays.asList(getGlobalParameters(globals)));
+      int count = in.readInt();
+      List<Coordinate> orderOfReferences = new ArrayList<>();
+      Map<Coordinate, StatementExpression> findFunctions = new LinkedHashMap<>();
+      Map<Coordinate, ExampleExpression> examples = new LinkedHashMap<>();
+      for (int i = 0; i < count; ++i) {
+        Coordinate coordinate = readCoordinate();
+        orderOfReferences.add(coordinate);
+        findFunctions.put(coordinate, readExpression(StatementExpression.class));
+        ExampleExpression example = readNullableExpression(ExampleExpression.class);
+        if (example != null) {
+          examples.put(coordinate, example);
+        }
+      }
+      return new FunctionTableExpression(globals, orderOfReferences, findFunctions, examples);
+    }
+
+    @NotNull
+    private <T extends Expression> T readExpression(@NotNull Class<T> clazz) throws IOException {
+      T result = readNullableExpression(clazz);
+      if (result == null) {
+        throw new IOException("Unexpected null expression in snapshot");
+      }
+      return result;
+    }
+
+    @Nullable
+    private <T extends Expression> T readNullableExpression(@NotNull Class<T> clazz) throws IOException {
+      Expression result = readAny();
+      if (result != null && !clazz.isInstance(result)) {
+        throw new IOException(String.format("Expected %s in snapshot but found %s",
+            clazz.getSimpleName(), result.getClass().getSimpleName()));
+      }
+      return clazz.cast(result);
+    }
+
+    @Nullable
+    private Expression readAny() throws IOException {
+      byte tag = in.readByte();
+      Expression result;
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE: {
+          int number = in.readInt();
+          if (number < 0 || number >= read.size()) {
+            throw new IOException("Snapshot refers to an expression that hasn't been read");
+          }
+          return read.get(number);
+        }
+        case ABORT: {
+          String message = readString();
+          result = abort(message, readExpressions());
+          break;
+        }
+        case ARRAY:
+          result = array(readExpressions());
+          break;
+        case ASSIGNMENT_BLOCK: {
+          int count = in.readInt();
+          List<AssignmentExpression> assignments = new ArrayList<>();
+          for (int i = 0; i < count; ++i) {
+            assignments.add(readExpression(AssignmentExpression.class));
+          }
+          result = assignmentBlock(assignments, readExpression(StatementExpression.class));
+          break;
+        }
+        case ASSIGNMENT: {
+          String name = readString();
+          result = assign(name, readExpression(Expression.class));
+          break;
+        }
+        case ASSIGNMENT_REFERENCE:
+          result = reference(readExpression(AssignmentExpression.class));
+          break;
+        case CONSTANT:
+          result = constant(readConstant());
+          break;
+        case EXAMPLE:
+          result = new ExampleExpression(readString());
+          break;
+        case EXTERNAL_FUNCTION: {
+          int index = in.readInt();
+          if (index < 0 || index >= FUNCTIONS.length) {
+            throw new IOException("Snapshot refers to an unknown external function");
+          }
+          result = FUNCTIONS[index];
+          break;
+        }
+        case FIND_MODULE: {
+          GlobalBuildEnvironmentExpression globals = readExpression(GlobalBuildEnvironmentExpression.class);
+          Coordinate coordinate = readCoordinate();
+          String headerArchive = readString();
+          String include = readString();
+          result = new FindModuleExpression(globals, coordinate, headerArchive, include,
+              readExpression(StatementExpression.class));
+          break;
+        }
+        case IF_SWITCH: {
+          Expression conditions[] = readExpressions();
+          Expression expressions[] = readExpressions();
+          result = ifSwitch(conditions, expressions, readExpression(Expression.class));
+          break;
+        }
+        case INVOKE_FUNCTION: {
+          ExternalFunctionExpression function = readExpression(ExternalFunctionExpression.class);
+          result = invoke(function, readExpressions());
+          break;
+        }
+        case MODULE_ARCHIVE: {
+          URL file = new URL(readString());
+          String sha256 = readString();
+          long size = in.readLong();
+          String include = readString();
+          Expression includePath = readNullableExpression(Expression.class);
+          String libs[] = new String[in.readInt()];
+          for (int i = 0; i < libs.length; ++i) {
+            libs[i] = readString();
+          }
+          Expression libraryPaths[] = readExpressions();
+          Expression completionSentinel = readNullableExpression(Expression.class);
+          CxxLanguageFeatures requires[] = new CxxLanguageFeatures[in.readInt()];
+          for (int i = 0; i < requires.length; ++i) {
+            requires[i] = readFeature();
+          }
+          result = archive(file, sha256, size, include, includePath, libs, libraryPaths, completionSentinel,
+              requires);
+          break;
+        }
+        case MODULE: {
+          ModuleArchiveExpression archive = readExpression(ModuleArchiveExpression.class);
+          int count = in.readInt();
+          Set<Coordinate> dependencies = new LinkedHashSet<>();
+          for (int i = 0; i < count; ++i) {
+            dependencies.add(readCoordinate());
+          }
+          result = module(archive, dependencies);
+          break;
+        }
+        case MULTI_STATEMENT: {
+          Expression expressions[] = readExpressions();
+          StatementExpression statements[] = new StatementExpression[expressions.length];
+          for (int i = 0; i < expressions.length; ++i) {
+            if (!(expressions[i] instanceof StatementExpression)) {
+              throw new IOException("Expected statement in snapshot");
+            }
+            statements[i] = (StatementExpression) expressions[i];
+          }
+          result = multi(statements);
+          break;
+        }
+        case NOP:
+          result = nop();
+          break;
+        default:
+          throw new IOException(String.format("Unknown expression tag %s in snapshot", tag));
+      }
+      read.add(result);
+      return result;
+    }
+
+    @NotNull
+    private Expression[] readExpressions() throws IOException {
+      Expression result[] = new Expression[in.readInt()];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = readAny();
+      }
+      return result;
+    }
+
+    @NotNull
+    private Object readConstant() throws IOException {
+      byte type = in.readByte();
+      switch (type) {
+        case STRING_VALUE:
+          return readString();
+        case INTEGER_VALUE:
+          return in.readInt();
+        case BOOLEAN_VALUE:
+          return in.readBoolean();
+        case FEATURE_VALUE:
+          return readFeature();
+        case ABI_VALUE:
+          return new AndroidABI(String.valueOf(readString()));
+        default:
+          throw new IOException(String.format("Unknown constant type %s in snapshot", type));
+      }
+    }
+
+    @NotNull
+    private CxxLanguageFeatures readFeature() throws IOException {
+      String name = readString();
+      try {
+        return CxxLanguageFeatures.valueOf(name);
+      } catch (IllegalArgumentException | NullPointerException e) {
+        throw new IOException(String.format("Unknown language feature %s in snapshot", name));
+      }
+    }
+
+    @NotNull
+    private Coordinate readCoordinate() throws IOException {
+      String groupId = readString();
+      String artifactId = readString();
+      return new Coordinate(groupId, artifactId, new Version(readString()));
+    }
+
+    @Nullable
+    private String readString() throws IOException {
+      int length = in.readInt();
+      if (length == -1) {
+        return null;
+      }
+      if (length < 0) {
+        throw new IOException("Negative string length in snapshot");
+      }
+      byte bytes[] = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, UTF_8);
+    }
+  }
+}
@@ -43,7 +43,7 @@ public class InterpretingVisitor {
   private Frame stack = null;
 
   @Nullable
-  private static Object coerce(@Nullable Object o, @NotNull Class<?> clazz) {
+  static Object coerce(@Nullable Object o, @NotNull Class<?> clazz) {
     if (o == null) {
       return null;
     }
@@ -100,59 +100,43 @@ public class InterpretingVisitor {
       return null;
     }
 
-    if (expr.getClass().equals(FunctionTableExpression.class)) {
-      return visitFunctionTableExpression((FunctionTableExpression) expr);
-    }
-    if (expr.getClass().equals(FindModuleExpression.class)) {
-      return visitFindModuleExpression((FindModuleExpression) expr);
-    }
-    if (expr.getClass().equals(ParameterExpression.class)) {
-      return visitParameterExpression((ParameterExpression) expr);
-    }
-    if (expr.getClass().equals(IfSwitchExpression.class)) {
-      return visitIfSwitchExpression((IfSwitchExpression) expr);
-    }
-    if (expr.getClass().equals(ConstantExpression.class)) {
-      return visitValueExpression((ConstantExpression) expr);
-    }
-    if (expr.getClass().equals(AssignmentExpression.class)) {
-      return visitAssignmentExpression((AssignmentExpression) expr);
-    }
-    if (expr.getClass().equals(InvokeFunctionExpression.class)) {
-      return visitInvokeFunctionExpression((InvokeFunctionExpression) expr);
-    }
-    if (expr.getClass().equals(ModuleExpression.class)) {
-      return visitModuleExpression((ModuleExpression) expr);
-    }
-    if (expr.getClass().equals(AbortExpression.class)) {
-      return visitAbortExpression((AbortExpression) expr);
-    }
-    if (expr.getClass().equals(ExampleExpression.class)) {
-      return visitExampleExpression((ExampleExpression) expr);
-    }
-    if (expr.getClass().equals(ExternalFunctionExpression.class)) {
-      return visitExternalFunctionExpression((ExternalFunctionExpression) expr);
-    }
-    if (expr.getClass().equals(ArrayExpression.class)) {
-      return visitArrayExpression((ArrayExpression) expr);
-    }
-    if (expr.getClass().equals(AssignmentBlockExpression.class)) {
-      return visitAssignmentBlockExpression((AssignmentBlockExpression) expr);
-    }
-    if (expr.getClass().equals(AssignmentReferenceExpression.class)) {
-      return visitAssignmentReferenceExpression((AssignmentReferenceExpression) expr);
-    }
-    if (expr.getClass().equals(ModuleArchiveExpression.class)) {
-      return visitModuleArchiveExpression((ModuleArchiveExpression) expr);
-    }
-    if (expr.getClass().equals(MultiStatementExpression.class)) {
-      return visitMultiStatementExpression((MultiStatementExpression) expr);
-    }
-    if (expr.getClass().equals(NopExpression.class)) {
-      return visitNopExpression((NopExpression) expr);
-    }
-    if (expr.getClass().equals(GlobalBuildEnvironmentExpression.class)) {
-      return visitGlobalBuildEnvironmentExpression((GlobalBuildEnvironmentExpression) expr);
+    switch (expr.kind) {
+      case FUNCTION_TABLE:
+        return visitFunctionTableExpression((FunctionTableExpression) expr);
+      case FIND_MODULE:
+        return visitFindModuleExpression((FindModuleExpression) expr);
+      case PARAMETER:
+        return visitParameterExpression((ParameterExpression) expr);
+      case IF_SWITCH:
+        return visitIfSwitchExpression((IfSwitchExpression) expr);
+      case CONSTANT:
+        return visitValueExpression((ConstantExpression) expr);
+      case ASSIGNMENT:
+        return visitAssignmentExpression((AssignmentExpression) expr);
+      case INVOKE_FUNCTION:
+        return visitInvokeFunctionExpression((InvokeFunctionExpression) expr);
+      case MODULE:
+        return visitModuleExpression((ModuleExpression) expr);
+      case ABORT:
+        return visitAbortExpression((AbortExpression) expr);
+      case EXAMPLE:
+        return visitExampleExpression((ExampleExpression) expr);
+      case EXTERNAL_FUNCTION:
+        return visitExternalFunctionExpression((ExternalFunctionExpression) expr);
+      case ARRAY:
+        return visitArrayExpression((ArrayExpression) expr);
+      case ASSIGNMENT_BLOCK:
+        return visitAssignmentBlockExpression((AssignmentBlockExpression) expr);
+      case ASSIGNMENT_REFERENCE:
+        return visitAssignmentReferenceExpression((AssignmentReferenceExpression) expr);
+      case MODULE_ARCHIVE:
+        return visitModuleArchiveExpression((ModuleArchiveExpression) expr);
+      case MULTI_STATEMENT:
+        return visitMultiStatementExpression((MultiStatementExpression) expr);
+      case NOP:
+        return visitNopExpression((NopExpression) expr);
+      case GLOBAL_BUILD_ENVIRONMENT:
+        return visitGlobalBuildEnvironmentExpression((GlobalBuildEnvironmentExpression) expr);
     }
     throw new RuntimeException("intr" + expr.getClass().toString());
   }
@@ -359,7 +343,7 @@ public class InterpretingVisitor {
     }
   }
 
-  static class ModuleArchive {
+  public static class ModuleArchive {
 
     final public URL remote;
     final public File fullIncludePath;
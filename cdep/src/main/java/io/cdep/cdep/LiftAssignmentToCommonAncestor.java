@@ -16,6 +16,7 @@
 package io.cdep.cdep;
 
 import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
 import io.cdep.cdep.ast.finder.*;
 
 import java.util.*;
@@ -27,6 +28,8 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
   @NotNull
   private final Set<AssignmentExpression> captured = new LinkedHashSet<>();
   @NotNull
+  private final ReferenceCounts references = new ReferenceCounts();
+  @NotNull
   private Map<AssignmentExpression, Integer> functionCounts = new LinkedHashMap<>();
 
   public LiftAssignmentToCommonAncestor() {
@@ -35,12 +38,9 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
   @NotNull
   @Override
   protected Expression visitFindModuleExpression(@NotNull FindModuleExpression expr) {
-    List<AssignmentExpression> order = new ArrayList<>();
-    Map<AssignmentExpression, Integer> counts = new LinkedHashMap<>();
-    assignments(expr, order, counts);
-    this.functionCounts = counts;
+    this.functionCounts = references.of(expr);
     StatementExpression body = (StatementExpression) visit(expr.body);
-    List<AssignmentExpression> block = extractBlocks(body);
+    List<AssignmentExpression> block = extractBlocks(references.of(expr.body));
     if (block.size() > 0) {
       body = assignmentBlock(block, body);
     }
@@ -51,7 +51,7 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
         expr.headerArchive,
         expr.include,
         body);
-    block = extractBlocks(result);
+    block = extractBlocks(references.of(expr));
     if (block.size() > 0) {
       result = assignmentBlock(block, result);
     }
@@ -62,7 +62,7 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
   @Override
   protected Expression visitIfSwitchExpression(@NotNull IfSwitchExpression expr) {
     Expression result = super.visitIfSwitchExpression(expr);
-    List<AssignmentExpression> block = extractBlocks(result);
+    List<AssignmentExpression> block = extractBlocks(references.of(expr));
 
     if (block.size() > 0) {
       return assignmentBlock(block, (StatementExpression) result);
@@ -73,7 +73,7 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
   @Override
   protected Expression visitModuleExpression(@NotNull ModuleExpression expr) {
     Expression result = super.visitModuleExpression(expr);
-    List<AssignmentExpression> block = extractBlocks(result);
+    List<AssignmentExpression> block = extractBlocks(references.of(expr));
 
     if (block.size() > 0) {
       return assignmentBlock(block, (StatementExpression) result);
@@ -81,19 +81,21 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
     return result;
   }
 
+  /*
+   * Rewriting a subtree only wraps parts of it in assignment blocks, which aren't counted, so the
+   * references in a rewritten subtree are the same as in the original one it came from.
+   */
   @NotNull
-  private List<AssignmentExpression> extractBlocks(Expression result) {
-    List<AssignmentExpression> order = new ArrayList<>();
-    Map<AssignmentExpression, Integer> count = new LinkedHashMap<>();
-    assignments(result, order, count);
+  private List<AssignmentExpression> extractBlocks(@NotNull Map<AssignmentExpression, Integer> counts) {
     List<AssignmentExpression> block = new ArrayList<>();
 
-    for (AssignmentExpression assignment : order) {
+    for (Map.Entry<AssignmentExpression, Integer> entry : counts.entrySet()) {
+      AssignmentExpression assignment = entry.getKey();
       if (captured.contains(assignment)) {
         continue;
       }
       long functionCount = functionCounts.get(assignment);
-      long currentCount = count.get(assignment);
+      long currentCount = entry.getValue();
       require(currentCount <= functionCount);
       if (currentCount == functionCount) {
         // Current scope covers all references in the function so
@@ -105,19 +107,80 @@ public class LiftAssignmentToCommonAncestor extends RewritingVisitor {
     return block;
   }
 
-  private void assignments(Expression expr,
-      @NotNull List<AssignmentExpression> order,
-      @NotNull Map<AssignmentExpression, Integer> counts) {
-    require(order.size() == 0);
-    require(counts.size() == 0);
-    List<AssignmentExpression> assignments = new GetContainedReferences(expr).list;
-    for (AssignmentExpression assignment : assignments) {
-      Integer n = counts.get(assignment);
-      if (n == null) {
-        n = 0;
+  /*
+   * Counts the assignment references under each expression in the same order and with the same
+   * multiplicity as GetContainedReferences. Each expression is walked once and its counts are
+   * built from those of its children. Counts are never modified after they are recorded so an
+   * expression whose references all come from a single child shares that child's map.
+   */
+  private static class ReferenceCounts extends ReadonlyVisitor {
+    @NotNull
+    private final Map<Expression, Map<AssignmentExpression, Integer>> counts = new IdentityHashMap<>();
+    @NotNull
+    private Map<AssignmentExpression, Integer> current = Collections.emptyMap();
+    private boolean owned = false;
+
+    @NotNull
+    Map<AssignmentExpression, Integer> of(@NotNull Expression expr) {
+      Map<AssignmentExpression, Integer> result = counts.get(expr);
+      if (result == null) {
+        visit(expr);
+        result = counts.get(expr);
+        current = Collections.emptyMap();
+        owned = false;
+      }
+      return result;
+    }
+
+    @Override
+    public void visit(@Nullable Expression expr) {
+      if (expr == null) {
+        return;
+      }
+      Map<AssignmentExpression, Integer> result = counts.get(expr);
+      if (result == null) {
+        Map<AssignmentExpression, Integer> outer = current;
+        boolean outerOwned = owned;
+        current = Collections.emptyMap();
+        owned = false;
+        super.visit(expr);
+        result = current;
+        counts.put(expr, result);
+        current = outer;
+        owned = outerOwned;
+      }
+      add(result);
+    }
+
+    @Override
+    protected void visitAssignmentReferenceExpression(@NotNull AssignmentReferenceExpression expr) {
+      visit(expr.assignment);
+      add(Collections.singletonMap(expr.assignment, 1));
+    }
+
+    @Override
+    protected void visitAssignmentBlockExpression(@NotNull AssignmentBlockExpression expr) {
+      // Don't count assign block
+      visit(expr.statement);
+    }
+
+    private void add(@NotNull Map<AssignmentExpression, Integer> child) {
+      if (child.isEmpty()) {
+        return;
+      }
+      if (current.isEmpty()) {
+        current = child;
+        owned = false;
+        return;
+      }
+      if (!owned) {
+        current = new LinkedHashMap<>(current);
+        owned = true;
+      }
+      for (Map.Entry<AssignmentExpression, Integer> entry : child.entrySet()) {
+        Integer n = current.get(entry.getKey());
+        current.put(entry.getKey(), n == null ? entry.getValue() : n + entry.getValue());
       }
-      order.add(assignment);
-      counts.put(assignment, ++n);
     }
   }
 }
@@ -27,77 +27,61 @@ public class ReadonlyVisitor {
       return;
     }
 
-    if (expr.getClass().equals(FunctionTableExpression.class)) {
-      visitFunctionTableExpression((FunctionTableExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(FindModuleExpression.class)) {
-      visitFindModuleExpression((FindModuleExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ParameterExpression.class)) {
-      visitParameterExpression((ParameterExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(IfSwitchExpression.class)) {
-      visitIfSwitchExpression((IfSwitchExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ConstantExpression.class)) {
-      visitConstantExpression((ConstantExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(AssignmentExpression.class)) {
-      visitAssignmentExpression((AssignmentExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(InvokeFunctionExpression.class)) {
-      visitInvokeFunctionExpression((InvokeFunctionExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ModuleExpression.class)) {
-      visitModuleExpression((ModuleExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(AbortExpression.class)) {
-      visitAbortExpression((AbortExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ExampleExpression.class)) {
-      visitExampleExpression((ExampleExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ExternalFunctionExpression.class)) {
-      visitExternalFunctionExpression((ExternalFunctionExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ArrayExpression.class)) {
-      visitArrayExpression((ArrayExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(AssignmentBlockExpression.class)) {
-      visitAssignmentBlockExpression((AssignmentBlockExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(AssignmentReferenceExpression.class)) {
-      visitAssignmentReferenceExpression((AssignmentReferenceExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(ModuleArchiveExpression.class)) {
-      visitModuleArchiveExpression((ModuleArchiveExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(MultiStatementExpression.class)) {
-      visitMultiStatementExpression((MultiStatementExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(NopExpression.class)) {
-      visitNopExpression((NopExpression) expr);
-      return;
-    }
-    if (expr.getClass().equals(GlobalBuildEnvironmentExpression.class)) {
-      visitGlobalBuildEnvironmentExpression((GlobalBuildEnvironmentExpression) expr);
-      return;
+    switch (expr.kind) {
+      case FUNCTION_TABLE:
+        visitFunctionTableExpression((FunctionTableExpression) expr);
+        return;
+      case FIND_MODULE:
+        visitFindModuleExpression((FindModuleExpression) expr);
+        return;
+      case PARAMETER:
+        visitParameterExpression((ParameterExpression) expr);
+        return;
+      case IF_SWITCH:
+        visitIfSwitchExpression((IfSwitchExpression) expr);
+        return;
+      case CONSTANT:
+        visitConstantExpression((ConstantExpression) expr);
+        return;
+      case ASSIGNMENT:
+        visitAssignmentExpression((AssignmentExpression) expr);
+        return;
+      case INVOKE_FUNCTION:
+        visitInvokeFunctionExpression((InvokeFunctionExpression) expr);
+        return;
+      case MODULE:
+        visitModuleExpression((ModuleExpression) expr);
+        return;
+      case ABORT:
+        visitAbortExpression((AbortExpression) expr);
+        return;
+      case EXAMPLE:
+        visitExampleExpression((ExampleExpression) expr);
+        return;
+      case EXTERNAL_FUNCTION:
+        visitExternalFunctionExpression((ExternalFunctionExpression) expr);
+        return;
+      case ARRAY:
+        visitArrayExpression((ArrayExpression) expr);
+        return;
+      case ASSIGNMENT_BLOCK:
+        visitAssignmentBlockExpression((AssignmentBlockExpression) expr);
+        return;
+      case ASSIGNMENT_REFERENCE:
+        visitAssignmentReferenceExpression((AssignmentReferenceExpression) expr);
+        return;
+      case MODULE_ARCHIVE:
+        visitModuleArchiveExpression((ModuleArchiveExpression) expr);
+        return;
+      case MULTI_STATEMENT:
+        visitMultiStatementExpression((MultiStatementExpression) expr);
+        return;
+      case NOP:
+        visitNopExpression((NopExpression) expr);
+        return;
+      case GLOBAL_BUILD_ENVIRONMENT:
+        visitGlobalBuildEnvironmentExpression((GlobalBuildEnvironmentExpression) expr);
+        return;
     }
 
     throw new RuntimeException("ro" + expr.getClass().toString());
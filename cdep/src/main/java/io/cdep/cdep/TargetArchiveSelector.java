@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
+import io.cdep.cdep.ast.finder.*;
+
+import java.io.File;
+import java.util.*;
+
+import static io.cdep.cdep.utils.Invariant.require;
+
+/*
+ * Evaluates the find module function of each coordinate for a single build target and keeps only
+ * the module archives that it selects. These are the archives that the generated build modules
+ * would fetch when configured for that target, so the others don't need to be downloaded or
+ * exploded.
+ *
+ * Target parameters that aren't known are left unbound. If a find function needs one of them then
+ * all of that coordinate's archives are kept.
+ */
+public class TargetArchiveSelector {
+  @NotNull
+  final private FunctionTableExpression table;
+  @NotNull
+  final private Map<ParameterExpression, Object> bindings = new HashMap<>();
+  @NotNull
+  final private List<String> androidAbis;
+
+  /*
+   * The target system is a CMAKE_SYSTEM_NAME like Android or Linux. For Android, the platform is
+   * the API level and the STL is the ANDROID_STL value like c++_shared. There may be several ABIs,
+   * one for each time the build is configured.
+   */
+  public TargetArchiveSelector(
+      @NotNull FunctionTableExpression table,
+      @NotNull File explodedRoot,
+      @NotNull String targetSystem,
+      @Nullable String targetPlatform,
+      @Nullable String androidStl,
+      @NotNull List<String> androidAbis) {
+    this.table = table;
+    this.androidAbis = androidAbis;
+    bindings.put(table.globals.cdepExplodedRoot, explodedRoot);
+    bindings.put(table.globals.buildSystemTargetSystem, targetSystem);
+    bindings.put(table.globals.buildSystemNoneRuntime, "none");
+    if (targetPlatform != null) {
+      bindings.put(table.globals.buildSystemTargetPlatform, targetPlatform);
+    }
+    if (androidStl != null) {
+      bindings.put(table.globals.cdepDeterminedAndroidRuntime, androidStl);
+    }
+  }
+
+  /*
+   * Return the found modules, as from ExpressionUtils.getAllFoundModuleExpressions, whose archives
+   * are selected for the target.
+   */
+  @NotNull
+  public Map<Coordinate, List<Expression>> select(@NotNull Map<Coordinate, List<Expression>> foundModules) {
+    Map<Coordinate, List<Expression>> result = new LinkedHashMap<>();
+    for (Coordinate coordinate : foundModules.keySet()) {
+      Set<ModuleArchiveExpression> selected = selectArchives(coordinate);
+      List<Expression> modules = new ArrayList<>();
+      for (Expression module : foundModules.get(coordinate)) {
+        if (selected == null || selected.contains(((ModuleExpression) module).archive)) {
+          modules.add(module);
+        }
+      }
+      if (!modules.isEmpty()) {
+        result.put(coordinate, modules);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Return the archives that the coordinate's find function selects for each ABI, keyed by ABI. The
+   * key is null if no ABI was given. Returns null if the find function needs a target parameter that
+   * wasn't given.
+   */
+  @Nullable
+  public Map<String, List<ModuleArchive>> query(@NotNull Coordinate coordinate) {
+    Map<String, List<ModuleArchive>> result = new LinkedHashMap<>();
+    CompiledExpression function = compile(coordinate);
+    for (String abi : getAbis()) {
+      List<ModuleArchive> archives = new ArrayList<>();
+      if (!evaluate(function, abi, archives, null)) {
+        return null;
+      }
+      result.put(abi, archives);
+    }
+    return result;
+  }
+
+  /*
+   * Return the archives selected by the coordinate's find function for each ABI or null if they
+   * couldn't be determined.
+   */
+  @Nullable
+  private Set<ModuleArchiveExpression> selectArchives(@NotNull Coordinate coordinate) {
+    Set<ModuleArchiveExpression> selected =
+        Collections.newSetFromMap(new IdentityHashMap<ModuleArchiveExpression, Boolean>());
+    CompiledExpression function = compile(coordinate);
+    for (String abi : getAbis()) {
+      if (!evaluate(function, abi, null, selected)) {
+        return null;
+      }
+    }
+    return selected;
+  }
+
+  @NotNull
+  private List<String> getAbis() {
+    return androidAbis.isEmpty() ? Collections.<String>singletonList(null) : androidAbis;
+  }
+
+  /*
+   * The find function is compiled once and then evaluated for each ABI.
+   */
+  @NotNull
+  private CompiledExpression compile(@NotNull Coordinate coordinate) {
+    StatementExpression function = table.getFindFunction(coordinate);
+    require(function != null, "Coordinate '%s' is not in the function table", coordinate);
+    return CompiledExpression.compile(function);
+  }
+
+  /*
+   * Evaluate the find function for one ABI and add the archives it reaches. Returns false if a
+   * target parameter that wasn't given is needed.
+   */
+  private boolean evaluate(
+      @NotNull CompiledExpression function,
+      @Nullable final String abi,
+      @Nullable final List<ModuleArchive> archives,
+      @Nullable final Set<ModuleArchiveExpression> selected) {
+    try {
+      function.evaluate(new CompiledExpression.Evaluation() {
+        @Override
+        protected Object getParameter(@NotNull ParameterExpression expr) {
+          if (expr == table.globals.cdepDeterminedAndroidAbi && abi != null) {
+            return abi;
+          }
+          if (!bindings.containsKey(expr)) {
+            throw new UnboundParameterException();
+          }
+          return bindings.get(expr);
+        }
+
+        @Override
+        protected void moduleArchive(@NotNull ModuleArchiveExpression expr, @NotNull ModuleArchive archive) {
+          if (archives != null) {
+            archives.add(archive);
+          }
+          if (selected != null) {
+            selected.add(expr);
+          }
+        }
+      });
+    } catch (UnboundParameterException e) {
+      return false;
+    }
+    return true;
+  }
+
+  private static class UnboundParameterException extends RuntimeException {
+  }
+}
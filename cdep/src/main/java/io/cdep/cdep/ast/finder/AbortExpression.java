@@ -21,6 +21,7 @@ public class AbortExpression extends StatementExpression {
   final public Expression parameters[];
 
   AbortExpression(String message, Expression... parameters) {
+    super(ExpressionKind.ABORT);
     this.message = message;
     this.parameters = parameters;
   }
@@ -16,12 +16,31 @@
 package io.cdep.cdep.ast.finder;
 
 import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
 
 public class ArrayExpression extends Expression {
   @NotNull
   final public Expression elements[];
 
+  final private int hash;
+
   ArrayExpression(@NotNull Expression elements[]) {
+    super(ExpressionKind.ARRAY);
     this.elements = elements;
+    this.hash = hashElements(ExpressionKind.ARRAY.ordinal(), elements);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (!(obj instanceof ArrayExpression)) {
+      return false;
+    }
+    ArrayExpression other = (ArrayExpression) obj;
+    return hash == other.hash && sameElements(elements, other.elements);
   }
 }
@@ -26,6 +26,7 @@ public class AssignmentBlockExpression extends StatementExpression {
   final public StatementExpression statement;
 
   AssignmentBlockExpression(@NotNull List<AssignmentExpression> assignments, @NotNull StatementExpression statement) {
+    super(ExpressionKind.ASSIGNMENT_BLOCK);
     this.assignments = assignments;
     this.statement = statement;
   }
@@ -22,7 +22,7 @@ public class AssignmentExpression extends ParameterExpression {
   final public Expression expression;
 
   AssignmentExpression(@NotNull String name, @NotNull Expression expression) {
-    super(name);
+    super(ExpressionKind.ASSIGNMENT, name);
     this.expression = expression;
   }
 }
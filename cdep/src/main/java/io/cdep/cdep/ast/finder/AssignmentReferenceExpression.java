@@ -16,6 +16,7 @@
 package io.cdep.cdep.ast.finder;
 
 import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
 
 /*
  * A reference to the result of an assignment
@@ -25,6 +26,17 @@ public class AssignmentReferenceExpression extends Expression {
   final public AssignmentExpression assignment;
 
   AssignmentReferenceExpression(@NotNull AssignmentExpression assignment) {
+    super(ExpressionKind.ASSIGNMENT_REFERENCE);
     this.assignment = assignment;
   }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(assignment);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    return obj instanceof AssignmentReferenceExpression && ((AssignmentReferenceExpression) obj).assignment == assignment;
+  }
 }
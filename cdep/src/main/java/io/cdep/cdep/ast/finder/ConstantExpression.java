@@ -24,6 +24,7 @@ public class ConstantExpression extends Expression {
   final public Object value;
 
   ConstantExpression(@NotNull Object value) {
+    super(ExpressionKind.CONSTANT);
     this.value = value;
   }
 
@@ -22,6 +22,7 @@ public class ExampleExpression extends Expression {
   final public String sourceCode;
 
   public ExampleExpression(@NotNull String sourceCode) {
+    super(ExpressionKind.EXAMPLE);
     this.sourceCode = sourceCode;
   }
 }
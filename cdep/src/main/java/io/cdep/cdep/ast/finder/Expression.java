@@ -15,13 +15,43 @@
 */
 package io.cdep.cdep.ast.finder;
 
+import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
 import io.cdep.cdep.CreateStringVisitor;
 
 abstract public class Expression {
+  @NotNull
+  final public ExpressionKind kind;
   @Nullable
   private String string = null;
 
+  Expression(@NotNull ExpressionKind kind) {
+    this.kind = kind;
+  }
+
+  /*
+   * Children of interned expressions are themselves interned or have identity semantics so
+   * comparing and hashing them by identity is the same as comparing them structurally.
+   */
+  static boolean sameElements(@NotNull Expression left[], @NotNull Expression right[]) {
+    if (left.length != right.length) {
+      return false;
+    }
+    for (int i = 0; i < left.length; ++i) {
+      if (left[i] != right[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int hashElements(int hash, @NotNull Expression elements[]) {
+    for (Expression element : elements) {
+      hash = 31 * hash + System.identityHashCode(element);
+    }
+    return hash;
+  }
+
   @Nullable
   @Override
   public String toString() {
@@ -21,17 +21,46 @@ import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
 import io.cdep.cdep.Coordinate;
 import io.cdep.cdep.yml.cdepmanifest.CxxLanguageFeatures;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /*
- * Methods for creating expression trees
+ * Methods for creating expression trees.
+ *
+ * Constants, invocations, arrays and references are hash-consed: building one that is
+ * structurally the same as one that already exists returns the existing node. Manifests with
+ * many archives build the same ABI constants and exploded folder joins over and over so this
+ * keeps the trees and the work done by visitors over them small. Assignments aren't shared
+ * because where an assignment is lifted to depends on which references point at it.
  */
 @SuppressWarnings("unused")
 public class ExpressionBuilder {
+  // Weak so that nodes no longer in any tree can be collected
+  @NotNull
+  private static final Map<Expression, WeakReference<Expression>> interned = new WeakHashMap<>();
+
+  @NotNull
+  @SuppressWarnings("unchecked")
+  private static <T extends Expression> T intern(@NotNull T expr) {
+    synchronized (interned) {
+      WeakReference<Expression> prior = interned.get(expr);
+      if (prior != null) {
+        Expression existing = prior.get();
+        if (existing != null) {
+          return (T) existing;
+        }
+      }
+      interned.put(expr, new WeakReference<Expression>(expr));
+      return expr;
+    }
+  }
+
   @NotNull
   public static AssignmentBlockExpression assignmentBlock(@NotNull List<AssignmentExpression> assignments,
       @NotNull StatementExpression statement) {
@@ -70,7 +99,7 @@ public class ExpressionBuilder {
 
   @NotNull
   public static AssignmentReferenceExpression reference(@NotNull AssignmentExpression assignment) {
-    return new AssignmentReferenceExpression(assignment);
+    return intern(new AssignmentReferenceExpression(assignment));
   }
 
   @NotNull
@@ -108,7 +137,7 @@ public class ExpressionBuilder {
   public static InvokeFunctionExpression invoke(
       @NotNull ExternalFunctionExpression function,
       @NotNull Expression... parameters) {
-    return new InvokeFunctionExpression(function, parameters);
+    return intern(new InvokeFunctionExpression(function, parameters));
   }
 
   /*
@@ -219,13 +248,13 @@ public class ExpressionBuilder {
 
   @NotNull
   public static ArrayExpression array(@NotNull Expression... expressions) {
-    return new ArrayExpression(expressions);
+    return intern(new ArrayExpression(expressions));
   }
 
   @NotNull
   public static ConstantExpression constant(@Nullable Object value) {
     assert value != null;
-    return new ConstantExpression(value);
+    return intern(new ConstantExpression(value));
   }
 
   @NotNull
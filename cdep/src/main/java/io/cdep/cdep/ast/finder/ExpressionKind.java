@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.ast.finder;
+
+/*
+ * One kind per concrete Expression class. Visitors switch on Expression.kind rather than testing
+ * the class of the expression against each expression type in turn.
+ */
+public enum ExpressionKind {
+  ABORT,
+  ARRAY,
+  ASSIGNMENT,
+  ASSIGNMENT_BLOCK,
+  ASSIGNMENT_REFERENCE,
+  CONSTANT,
+  EXAMPLE,
+  EXTERNAL_FUNCTION,
+  FIND_MODULE,
+  FUNCTION_TABLE,
+  GLOBAL_BUILD_ENVIRONMENT,
+  IF_SWITCH,
+  INVOKE_FUNCTION,
+  MODULE,
+  MODULE_ARCHIVE,
+  MULTI_STATEMENT,
+  NOP,
+  PARAMETER,
+  PARAMETER_ASSIGNMENT
+}
@@ -99,6 +99,7 @@ public class ExternalFunctionExpression extends Expression {
   final public Method method;
 
   private ExternalFunctionExpression(@NotNull Class clazz, @NotNull String functionName, @NotNull Class<?>... parameterTypes) {
+    super(ExpressionKind.EXTERNAL_FUNCTION);
     this.method = getMethod(clazz, functionName, parameterTypes);
   }
 
@@ -32,6 +32,7 @@ public class FindModuleExpression extends StatementExpression {
       @Nullable String headerArchive,
       @Nullable String include,
       @NotNull StatementExpression body) {
+    super(ExpressionKind.FIND_MODULE);
     this.globals = globals;
     this.coordinate = coordinate;
     this.headerArchive = headerArchive;
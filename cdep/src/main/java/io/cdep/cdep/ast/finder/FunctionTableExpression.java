@@ -35,6 +35,7 @@ public class FunctionTableExpression extends Expression {
                                  @NotNull List<Coordinate> orderOfReferences,
                                  @NotNull Map<Coordinate, StatementExpression> findFunctions,
                                  @NotNull Map<Coordinate, ExampleExpression> examples) {
+    super(ExpressionKind.FUNCTION_TABLE);
     assert orderOfReferences.size() == findFunctions.size();
     assert orderOfReferences.size() >= examples.size();
 
@@ -31,6 +31,7 @@ public class GlobalBuildEnvironmentExpression extends Expression {
   @NotNull final public ParameterExpression buildSystemCxxCompilerStandard;
 
   public GlobalBuildEnvironmentExpression() {
+    super(ExpressionKind.GLOBAL_BUILD_ENVIRONMENT);
     // UPPER_CASE names are build system (CMake or ndk-build) toolchain variables.
     // lower_case names are CDep temporaries.
     this.cdepExplodedRoot = new ParameterExpression("cdep_exploded_root");
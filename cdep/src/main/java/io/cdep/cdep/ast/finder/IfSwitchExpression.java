@@ -27,6 +27,7 @@ public class IfSwitchExpression extends StatementExpression {
   final public Expression elseExpression;
 
   IfSwitchExpression(@NotNull Expression conditions[], @NotNull Expression expressions[], @NotNull Expression elseExpression) {
+    super(ExpressionKind.IF_SWITCH);
     this.conditions = conditions;
     this.expressions = expressions;
     this.elseExpression = elseExpression;
@@ -16,6 +16,7 @@
 package io.cdep.cdep.ast.finder;
 
 import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
 
 import java.lang.reflect.Modifier;
 
@@ -28,7 +29,10 @@ public class InvokeFunctionExpression extends StatementExpression {
   @NotNull
   final public Expression parameters[];
 
+  final private int hash;
+
   InvokeFunctionExpression(@NotNull ExternalFunctionExpression function, @NotNull Expression parameters[]) {
+    super(ExpressionKind.INVOKE_FUNCTION);
     this.function = function;
     this.parameters = parameters;
     int expectedParameters = function.method.getParameterTypes().length;
@@ -40,5 +44,20 @@ public class InvokeFunctionExpression extends StatementExpression {
         function.method,
         expectedParameters,
         parameters.length);
+    this.hash = hashElements(System.identityHashCode(function), parameters);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (!(obj instanceof InvokeFunctionExpression)) {
+      return false;
+    }
+    InvokeFunctionExpression other = (InvokeFunctionExpression) obj;
+    return hash == other.hash && function == other.function && sameElements(parameters, other.parameters);
   }
 }
@@ -44,6 +44,7 @@ public class ModuleArchiveExpression extends StatementExpression {
       @NotNull Expression libraryPaths[],
       @NotNull Expression completionSentinel,
       @NotNull CxxLanguageFeatures requires[]) {
+    super(ExpressionKind.MODULE_ARCHIVE);
     require(libs.length == libraryPaths.length);
     this.file = file;
     this.sha256 = sha256;
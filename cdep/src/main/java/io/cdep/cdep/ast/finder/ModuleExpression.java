@@ -27,6 +27,7 @@ public class ModuleExpression extends StatementExpression {
   final public Set<Coordinate> dependencies;
 
   public ModuleExpression(@NotNull ModuleArchiveExpression archive, @NotNull Set<Coordinate> dependencies) {
+    super(ExpressionKind.MODULE);
     for(Coordinate coordinate : dependencies) {
       assert coordinate != null;
     }
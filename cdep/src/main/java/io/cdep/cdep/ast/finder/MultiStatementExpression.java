@@ -19,6 +19,7 @@ public class MultiStatementExpression extends StatementExpression {
   final public StatementExpression statements[];
 
   public MultiStatementExpression(StatementExpression statements[]) {
+    super(ExpressionKind.MULTI_STATEMENT);
     this.statements = statements;
   }
 }
@@ -16,4 +16,7 @@
 package io.cdep.cdep.ast.finder;
 
 public class NopExpression extends StatementExpression {
+  public NopExpression() {
+    super(ExpressionKind.NOP);
+  }
 }
@@ -25,6 +25,7 @@ public class ParameterAssignmentExpression extends Expression {
   final public Expression expression;
 
   public ParameterAssignmentExpression(@NotNull ParameterExpression parameter, @NotNull Expression expression) {
+    super(ExpressionKind.PARAMETER_ASSIGNMENT);
     this.parameter = parameter;
     this.expression = expression;
   }
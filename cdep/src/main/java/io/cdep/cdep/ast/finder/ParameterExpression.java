@@ -22,6 +22,11 @@ public class ParameterExpression extends Expression {
   final public String name;
 
   ParameterExpression(@NotNull String name) {
+    this(ExpressionKind.PARAMETER, name);
+  }
+
+  ParameterExpression(@NotNull ExpressionKind kind, @NotNull String name) {
+    super(kind);
     this.name = name;
   }
 }
@@ -15,8 +15,13 @@
 */
 package io.cdep.cdep.ast.finder;
 
+import io.cdep.annotations.NotNull;
+
 /*
  * A statement rather than a function
  */
 abstract public class StatementExpression extends Expression {
+  StatementExpression(@NotNull ExpressionKind kind) {
+    super(kind);
+  }
 }
@@ -20,7 +20,6 @@ import io.cdep.annotations.Nullable;
 import io.cdep.cdep.generator.GeneratorEnvironment;
 import io.cdep.cdep.resolver.ResolvedManifest;
 import io.cdep.cdep.resolver.Resolver;
-import io.cdep.cdep.utils.HashUtils;
 import io.cdep.cdep.yml.cdep.SoftNameDependency;
 import io.cdep.cdep.yml.cdepmanifest.CDepManifestYmlRewriter;
 import io.cdep.cdep.yml.cdepmanifest.HardNameDependency;
@@ -71,7 +70,7 @@ public class DependencyHashRewriter extends CDepManifestYmlRewriter {
         assert manifest != null;
         return new HardNameDependency(
             resolved.cdepManifestYml.coordinate.toString(),
-            HashUtils.getSHA256OfFile(manifest));
+            environment.getSHA256OfDownloadedFile(manifest));
       } catch (@NotNull IOException | NoSuchAlgorithmException e) {
         throw new RuntimeException(e);
       }
@@ -19,6 +19,7 @@ import static io.cdep.cdep.utils.Invariant.failIf;
 
 import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
+import io.cdep.cdep.utils.FileHashIndex;
 import io.cdep.cdep.utils.HashUtils;
 import io.cdep.cdep.yml.cdepmanifest.AndroidArchive;
 import io.cdep.cdep.yml.cdepmanifest.Archive;
@@ -30,9 +31,27 @@ import java.security.NoSuchAlgorithmException;
 
 public class FileHashAndSizeRewriter extends CDepManifestYmlRewriter {
   private final File layoutFolder;
+  @Nullable
+  private final FileHashIndex hashIndex;
 
   FileHashAndSizeRewriter(File layoutFolder) {
+    this(layoutFolder, null);
+  }
+
+  FileHashAndSizeRewriter(File layoutFolder, @Nullable FileHashIndex hashIndex) {
     this.layoutFolder = layoutFolder;
+    this.hashIndex = hashIndex;
+  }
+
+  /*
+   * Hash the file, using the index if there is one so that unchanged files aren't read again.
+   */
+  @NotNull
+  private String getSHA256OfFile(@NotNull File file) throws IOException, NoSuchAlgorithmException {
+    if (hashIndex == null) {
+      return HashUtils.getSHA256OfFile(file);
+    }
+    return hashIndex.getSHA256OfFile(file);
   }
 
   @Nullable
@@ -51,7 +70,7 @@ public class FileHashAndSizeRewriter extends CDepManifestYmlRewriter {
       try {
         return new Archive(
             archive.file,
-            HashUtils.getSHA256OfFile(file),
+            getSHA256OfFile(file),
             file.length(),
             archive.include,
             archive.requires);
@@ -75,7 +94,7 @@ public class FileHashAndSizeRewriter extends CDepManifestYmlRewriter {
       try {
         return new AndroidArchive(
             archive.file,
-            HashUtils.getSHA256OfFile(file),
+            getSHA256OfFile(file),
             file.length(),
             archive.ndk,
             archive.compiler,
@@ -105,7 +124,7 @@ public class FileHashAndSizeRewriter extends CDepManifestYmlRewriter {
       try {
         return new LinuxArchive(
             archive.file,
-            HashUtils.getSHA256OfFile(file),
+            getSHA256OfFile(file),
             file.length(),
             archive.libs,
             archive.include);
@@ -106,7 +106,7 @@ public class Fullfill {
         return result;
       }
 
-      FileHashAndSizeRewriter hasher = new FileHashAndSizeRewriter(layout);
+      FileHashAndSizeRewriter hasher = new FileHashAndSizeRewriter(layout, environment.hashIndex);
       infoln("  computing hashes and file sizes of archives in %s", coordinate);
       manifests[i] = hasher.visitCDepManifestYml(manifests[i]);
       if (errorsInScope() > 0) {
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.generator;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.ast.finder.Expression;
+import io.cdep.cdep.ast.finder.ModuleArchiveExpression;
+import io.cdep.cdep.utils.ConcurrencyUtils;
+import io.cdep.cdep.utils.ErrorScopedTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.cdep.cdep.io.IO.info;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/*
+ * Downloads, verifies and explodes archives concurrently.
+ *
+ * Downloads run on a pool of downloadThreads. As each download completes its archive is handed to
+ * a pool sized to the number of cores to be hashed and unzipped. An archive is only downloaded
+ * once even when several module expressions refer to it. Archives with identical content that
+ * appear under several coordinates are downloaded once and then linked from the download store.
+ */
+class ArchiveDownloadPipeline {
+  @NotNull
+  final private GeneratorEnvironment environment;
+  final private int downloadThreads;
+  final private AtomicLong downloadNanos = new AtomicLong();
+  final private AtomicLong linkNanos = new AtomicLong();
+  final private AtomicLong verifyNanos = new AtomicLong();
+  final private AtomicLong explodeNanos = new AtomicLong();
+  final private AtomicInteger shared = new AtomicInteger();
+
+  ArchiveDownloadPipeline(@NotNull GeneratorEnvironment environment, int downloadThreads) {
+    this.environment = environment;
+    this.downloadThreads = downloadThreads;
+  }
+
+  void download(@NotNull Map<Coordinate, List<Expression>> foundModules)
+      throws IOException, NoSuchAlgorithmException {
+    long start = System.nanoTime();
+    long explodedBytes = environment.getExplodedBytes();
+
+    // Several module expressions, for example one per ABI, may refer to the same local archive.
+    Map<File, PendingArchive> distinct = new LinkedHashMap<>();
+    for (Coordinate coordinate : foundModules.keySet()) {
+      for (ModuleArchiveExpression archive : GeneratorEnvironmentUtils.getArchives(foundModules.get(coordinate))) {
+        File local = environment.getLocalDownloadFilename(coordinate, archive.file);
+        if (!distinct.containsKey(local)) {
+          distinct.put(local, new PendingArchive(coordinate, archive.file, local, archive.size, archive.sha256));
+        }
+      }
+    }
+
+    // Archives with the same content under different coordinates only need to be downloaded once.
+    Map<String, List<PendingArchive>> sameContent = new LinkedHashMap<>();
+    for (PendingArchive archive : distinct.values()) {
+      String key = archive.sha256 + ":" + archive.size;
+      List<PendingArchive> group = sameContent.get(key);
+      if (group == null) {
+        group = new ArrayList<>();
+        sameContent.put(key, group);
+      }
+      group.add(archive);
+    }
+
+    ExecutorService downloads = null;
+    ExecutorService explodes = null;
+    try {
+      downloads = ConcurrencyUtils.newDaemonThreadPool("cdep-download", downloadThreads);
+      explodes = ConcurrencyUtils.newDaemonThreadPool("cdep-explode", Runtime.getRuntime().availableProcessors());
+      List<Future<ErrorScopedTask.Result<List<Future<ErrorScopedTask.Result<Void>>>>>> groups = new ArrayList<>();
+      for (List<PendingArchive> group : sameContent.values()) {
+        groups.add(downloads.submit(new DownloadGroupTask(group, explodes)));
+      }
+
+      // Wait in submission order so that errors are reported in a stable order.
+      for (Future<ErrorScopedTask.Result<List<Future<ErrorScopedTask.Result<Void>>>>> group : groups) {
+        List<Future<ErrorScopedTask.Result<Void>>> explodesForGroup = ConcurrencyUtils.await(group);
+        assert explodesForGroup != null;
+        for (Future<ErrorScopedTask.Result<Void>> explode : explodesForGroup) {
+          ConcurrencyUtils.await(explode);
+        }
+      }
+    } finally {
+      ConcurrencyUtils.shutdown(downloads);
+      ConcurrencyUtils.shutdown(explodes);
+    }
+
+    info("Fetched %s archives (%s shared with identical archives) with %s download threads in %s ms\n",
+        distinct.size(),
+        shared.get(),
+        downloadThreads,
+        NANOSECONDS.toMillis(System.nanoTime() - start));
+    info("  download %s ms, link %s ms, verify %s ms, explode %s ms (summed over threads)\n",
+        NANOSECONDS.toMillis(downloadNanos.get()),
+        NANOSECONDS.toMillis(linkNanos.get()),
+        NANOSECONDS.toMillis(verifyNanos.get()),
+        NANOSECONDS.toMillis(explodeNanos.get()));
+    info("  %s bytes written by explode\n", environment.getExplodedBytes() - explodedBytes);
+  }
+
+  /*
+   * Downloads and verifies the first archive in a group of archives with identical content, links
+   * it to the local file of each of the others, and then queues them all to be exploded.
+   */
+  private class DownloadGroupTask extends ErrorScopedTask<List<Future<ErrorScopedTask.Result<Void>>>> {
+    @NotNull
+    final private List<PendingArchive> group;
+    @NotNull
+    final private ExecutorService explodes;
+
+    DownloadGroupTask(@NotNull List<PendingArchive> group, @NotNull ExecutorService explodes) {
+      this.group = group;
+      this.explodes = explodes;
+    }
+
+    @NotNull
+    @Override
+    protected List<Future<Result<Void>>> run() throws Exception {
+      List<Future<Result<Void>>> result = new ArrayList<>();
+      PendingArchive primary = group.get(0);
+      long start = System.nanoTime();
+      boolean refetched = GeneratorEnvironmentUtils.fetchSingleArchive(
+          environment,
+          primary.coordinate,
+          primary.remote,
+          primary.size,
+          primary.sha256);
+      downloadNanos.addAndGet(System.nanoTime() - start);
+
+      // Verifying here adds the archive to the download store before the others look for it.
+      start = System.nanoTime();
+      GeneratorEnvironmentUtils.verifySingleArchive(environment, primary.remote, primary.local, primary.sha256);
+      verifyNanos.addAndGet(System.nanoTime() - start);
+      result.add(explodes.submit(new ExplodeTask(primary, environment.forceRedownload || refetched)));
+
+      for (int i = 1; i < group.size(); ++i) {
+        PendingArchive duplicate = group.get(i);
+        start = System.nanoTime();
+        refetched = GeneratorEnvironmentUtils.fetchSingleArchive(
+            environment,
+            duplicate.coordinate,
+            duplicate.remote,
+            duplicate.size,
+            duplicate.sha256);
+        linkNanos.addAndGet(System.nanoTime() - start);
+        shared.incrementAndGet();
+        result.add(explodes.submit(new ExplodeTask(duplicate, environment.forceRedownload || refetched)));
+      }
+      return result;
+    }
+  }
+
+  /*
+   * Verifies the SHA256 of a single local archive and explodes it.
+   */
+  private class ExplodeTask extends ErrorScopedTask<Void> {
+    @NotNull
+    final private PendingArchive archive;
+    final private boolean forceUnzip;
+
+    ExplodeTask(@NotNull PendingArchive archive, boolean forceUnzip) {
+      this.archive = archive;
+      this.forceUnzip = forceUnzip;
+    }
+
+    @Override
+    protected Void run() throws Exception {
+      long start = System.nanoTime();
+      GeneratorEnvironmentUtils.verifySingleArchive(environment, archive.remote, archive.local, archive.sha256);
+      verifyNanos.addAndGet(System.nanoTime() - start);
+      start = System.nanoTime();
+      GeneratorEnvironmentUtils.explodeSingleArchive(
+          environment,
+          archive.coordinate,
+          archive.remote,
+          archive.local,
+          archive.size,
+          archive.sha256,
+          forceUnzip);
+      explodeNanos.addAndGet(System.nanoTime() - start);
+      return null;
+    }
+  }
+
+  private static class PendingArchive {
+    @NotNull
+    final Coordinate coordinate;
+    @NotNull
+    final URL remote;
+    @NotNull
+    final File local;
+    final long size;
+    @NotNull
+    final String sha256;
+
+    PendingArchive(@NotNull Coordinate coordinate, @NotNull URL remote, @NotNull File local, long size,
+        @NotNull String sha256) {
+      this.coordinate = coordinate;
+      this.remote = remote;
+      this.local = local;
+      this.size = size;
+      this.sha256 = sha256;
+    }
+  }
+}
@@ -52,7 +52,7 @@ public class CMakeExamplesGenerator {
       String sourceName = artifact + ".cpp";
       File exampleSourceFile = new File(exampleFolder, sourceName);
       info("Generating %s\n", exampleSourceFile);
-      FileUtils.writeTextToFile(exampleSourceFile, example.sourceCode);
+      FileUtils.writeTextToFileIfChanged(exampleSourceFile, example.sourceCode);
       File exampleCMakeListsFile = new File(exampleFolder, "CMakeLists.txt");
       String cmakeLists = "cmake_minimum_required(VERSION 3.0.2)\n"
           + "project({ARTIFACTID}_example_project)\n"
@@ -62,12 +62,12 @@ public class CMakeExamplesGenerator {
       cmakeLists = cmakeLists.replace("{MODULE}", cmake.getCMakeConfigurationFile().getAbsolutePath()).replace("{ARTIFACTID}",
           artifact).replace("{SOURCE}", sourceName).replace("{ADDFUNCTION}", cmake.getAddDependencyFunctionName(coordinate));
       info("Generating %s\n", exampleCMakeListsFile);
-      FileUtils.writeTextToFile(exampleCMakeListsFile, cmakeLists);
+      FileUtils.writeTextToFileIfChanged(exampleCMakeListsFile, cmakeLists);
       root.append(String.format("add_subdirectory(\"%s\")\r\n", exampleCMakeListsFile.getParentFile().getAbsolutePath()));
     }
     File rootFile = new File(getExampleRootFolder(), "CMakeLists.txt");
     info("Generating %s\n", rootFile);
-    FileUtils.writeTextToFile(rootFile, root.toString());
+    FileUtils.writeTextToFileIfChanged(rootFile, root.toString());
 
   }
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.generator;
+
+import io.cdep.BuildInfo;
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.FunctionTableSnapshot;
+import io.cdep.cdep.Version;
+import io.cdep.cdep.ast.finder.FunctionTableExpression;
+import io.cdep.cdep.utils.FileUtils;
+import io.cdep.cdep.utils.HashUtils;
+import io.cdep.cdep.yml.cdep.SoftNameDependency;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Snapshots of built function tables kept in the downloads folder. A snapshot is found by the
+ * dependencies it was built for and is only used while every manifest that was read to build it
+ * still has the same SHA256. Loading one replaces resolution, manifest parsing and the passes in
+ * BuildFindModuleFunctionTable with a single file read.
+ *
+ * The manifest hashes are replayed into the environment so cdep.sha256 is still checked and
+ * written as if the manifests had been read.
+ *
+ * The downloads folder is shared by every version of cdep on the machine. The version that wrote
+ * a snapshot is part of both its key and its header because another version may build a
+ * different table from the same manifests.
+ */
+public class FunctionTableCache {
+  final private static int FORMAT_VERSION = 2;
+  // Snapshots already read by this process. A daemon serving many commands reads each just once.
+  final private static Map<File, Snapshot> loaded = new ConcurrentHashMap<>();
+
+  @NotNull
+  final private GeneratorEnvironment environment;
+  @NotNull
+  final private File snapshotFile;
+
+  public FunctionTableCache(@NotNull GeneratorEnvironment environment, @NotNull SoftNameDependency dependencies[])
+      throws IOException, NoSuchAlgorithmException {
+    this.environment = environment;
+    StringBuilder key = new StringBuilder();
+    key.append(FORMAT_VERSION).append("\n");
+    key.append(BuildInfo.PROJECT_VERSION).append("\n");
+    for (SoftNameDependency dependency : dependencies) {
+      // Local paths are relative to the current folder so the absolute path is part of the key
+      key.append(dependency.compile).append("\n");
+      key.append(new File(String.valueOf(dependency.compile)).getAbsolutePath()).append("\n");
+    }
+    this.snapshotFile = new File(environment.downloadFolder,
+        ".function-tables/" + HashUtils.getSHA256OfString(key.toString()) + ".bin");
+  }
+
+  /*
+   * Return the cached table or null if there isn't one or a manifest it was built from changed.
+   */
+  @Nullable
+  public FunctionTableExpression tryLoad() throws IOException, NoSuchAlgorithmException {
+    if (environment.forceRedownload || !snapshotFile.isFile()) {
+      return null;
+    }
+    Snapshot snapshot = loaded.get(snapshotFile);
+    if (snapshot == null || !snapshot.isCurrent(snapshotFile)) {
+      snapshot = read(snapshotFile);
+      if (snapshot == null) {
+        return null;
+      }
+      loaded.put(snapshotFile, snapshot);
+    }
+    for (int i = 0; i < snapshot.manifests.size(); ++i) {
+      File manifest = snapshot.manifests.get(i);
+      if (!manifest.isFile() || !environment.getSHA256OfDownloadedFile(manifest).equals(snapshot.sha256s.get(i))) {
+        return null;
+      }
+    }
+    for (int i = 0; i < snapshot.manifests.size(); ++i) {
+      File manifest = snapshot.manifests.get(i);
+      environment.recordManifestFile(manifest);
+      if (snapshot.coordinates.get(i) != null) {
+        environment.recordManifestSha256(manifest, snapshot.coordinates.get(i), snapshot.sha256s.get(i));
+      }
+    }
+    return snapshot.table;
+  }
+
+  @Nullable
+  private static Snapshot read(@NotNull File snapshotFile) throws IOException {
+    long lastModified = snapshotFile.lastModified();
+    byte bytes[] = Files.readAllBytes(snapshotFile.toPath());
+    Snapshot snapshot = new Snapshot(lastModified, bytes.length);
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(BuildInfo.PROJECT_VERSION)) {
+        return null;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        snapshot.manifests.add(new File(in.readUTF()));
+        snapshot.sha256s.add(in.readUTF());
+        Coordinate coordinate = null;
+        if (in.readBoolean()) {
+          coordinate = new Coordinate(in.readUTF(), in.readUTF(), new Version(in.readUTF()));
+        }
+        snapshot.coordinates.add(coordinate);
+      }
+      snapshot.table = FunctionTableSnapshot.read(in);
+    } catch (IOException e) {
+      // Truncated or from another version of cdep
+      return null;
+    }
+    return snapshot;
+  }
+
+  /*
+   * Save a table along with the manifests the environment read while building it.
+   */
+  public void save(@NotNull FunctionTableExpression table) throws IOException, NoSuchAlgorithmException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(BuildInfo.PROJECT_VERSION);
+      List<File> manifests = environment.getManifestFiles();
+      out.writeInt(manifests.size());
+      for (File manifest : manifests) {
+        out.writeUTF(manifest.getAbsolutePath());
+        out.writeUTF(environment.getSHA256OfDownloadedFile(manifest));
+        Coordinate coordinate = environment.getManifestCoordinate(manifest);
+        out.writeBoolean(coordinate != null);
+        if (coordinate != null) {
+          out.writeUTF(coordinate.groupId);
+          out.writeUTF(coordinate.artifactId);
+          out.writeUTF(coordinate.version.value);
+        }
+      }
+      FunctionTableSnapshot.write(table, out);
+    }
+    FileUtils.writeBytesToFileAtomically(snapshotFile, bytes.toByteArray());
+    loaded.remove(snapshotFile);
+  }
+
+  private static class Snapshot {
+    final private long lastModified;
+    final private long length;
+    @NotNull
+    final private List<File> manifests = new ArrayList<>();
+    @NotNull
+    final private List<String> sha256s = new ArrayList<>();
+    @NotNull
+    final private List<Coordinate> coordinates = new ArrayList<>();
+    private FunctionTableExpression table;
+
+    Snapshot(long lastModified, long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    boolean isCurrent(@NotNull File snapshotFile) {
+      return snapshotFile.lastModified() == lastModified && snapshotFile.length() == length;
+    }
+  }
+}
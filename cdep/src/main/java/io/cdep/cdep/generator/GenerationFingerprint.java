@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.generator;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.utils.FileUtils;
+import io.cdep.cdep.utils.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Records what generated build modules were made from: a digest of the inputs (cdep version,
+ * cdep.yml and any options that change output), the SHA256 of each resolved manifest and of
+ * cdep.sha256, and the list of generated files. If none of these changed since the last run then generating
+ * again would produce the same files so the work can be skipped without resolving anything.
+ *
+ * The file looks like:
+ *
+ *   # cdep generation fingerprint v1
+ *   inputs 7d865e95...
+ *   manifest 3a7bd3e2... /path/to/cdep-manifest.yml
+ *   generated /path/to/.cdep/modules/cdep-dependencies-config.cmake
+ */
+public class GenerationFingerprint {
+  final private static String HEADER = "# cdep generation fingerprint v1";
+  final private static String INPUTS = "inputs ";
+  final private static String MANIFEST = "manifest ";
+  final private static String GENERATED = "generated ";
+
+  @NotNull
+  final private File file;
+  @NotNull
+  final private String inputsSha256;
+
+  public GenerationFingerprint(@NotNull File file, @NotNull String inputs)
+      throws IOException, NoSuchAlgorithmException {
+    this.file = file;
+    this.inputsSha256 = HashUtils.getSHA256OfString(inputs);
+  }
+
+  /*
+   * Return true if the last successful generation used the same inputs and manifests and all of
+   * the files it generated are still there.
+   */
+  public boolean isUpToDate() throws IOException, NoSuchAlgorithmException {
+    if (!file.isFile()) {
+      return false;
+    }
+    String lines[] = FileUtils.readAllText(file).split("\n");
+    if (lines.length < 2 || !lines[0].equals(HEADER) || !lines[1].equals(INPUTS + inputsSha256)) {
+      return false;
+    }
+    for (int i = 2; i < lines.length; ++i) {
+      String line = lines[i];
+      if (line.startsWith(MANIFEST)) {
+        int space = line.indexOf(' ', MANIFEST.length());
+        if (space == -1) {
+          return false;
+        }
+        File manifest = new File(line.substring(space + 1));
+        if (!manifest.isFile()
+            || !HashUtils.getSHA256OfFile(manifest).equals(line.substring(MANIFEST.length(), space))) {
+          return false;
+        }
+      } else if (line.startsWith(GENERATED)) {
+        if (!new File(line.substring(GENERATED.length())).isFile()) {
+          return false;
+        }
+      } else if (!line.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Record the manifests and generated files of a successful generation.
+   */
+  public void write(@NotNull Collection<File> manifests, @NotNull Collection<File> generated)
+      throws IOException, NoSuchAlgorithmException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append("\n");
+    sb.append(INPUTS).append(inputsSha256).append("\n");
+    for (File manifest : manifests) {
+      sb.append(MANIFEST)
+          .append(HashUtils.getSHA256OfFile(manifest))
+          .append(" ")
+          .append(manifest.getAbsolutePath())
+          .append("\n");
+    }
+    for (File output : generated) {
+      if (!output.equals(file)) {
+        sb.append(GENERATED).append(output.getAbsolutePath()).append("\n");
+      }
+    }
+    FileUtils.writeTextToFileAtomically(file, sb.toString());
+  }
+
+  /*
+   * Forget the last generation. Called before generating so that a failed run isn't mistaken for
+   * an up-to-date one.
+   */
+  public void delete() {
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+  @NotNull
+  public static List<File> listGeneratedFiles(@NotNull GeneratorEnvironment environment) {
+    List<File> result = new ArrayList<>();
+    result.addAll(FileUtils.listFileTree(environment.modulesFolder));
+    result.addAll(FileUtils.listFileTree(environment.examplesFolder));
+    return result;
+  }
+}
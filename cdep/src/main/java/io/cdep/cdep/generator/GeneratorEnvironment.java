@@ -19,6 +19,7 @@ import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
 import io.cdep.cdep.Coordinate;
 import io.cdep.cdep.resolver.ManifestProvider;
+import io.cdep.cdep.resolver.ManifestResolutionCache;
 import io.cdep.cdep.utils.*;
 import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
 import io.cdep.cdep.yml.cdepsha25.CDepSHA256;
@@ -26,16 +27,13 @@ import io.cdep.cdep.yml.cdepsha25.HashEntry;
 
 import java.io.*;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.cdep.cdep.io.IO.*;
 import static io.cdep.cdep.utils.Invariant.*;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class GeneratorEnvironment implements ManifestProvider {
   @NotNull
@@ -47,10 +45,34 @@ public class GeneratorEnvironment implements ManifestProvider {
   @NotNull
   final public File examplesFolder;
   final public boolean forceRedownload;
+  // When offline, files are only taken from the local cache and the network is never used.
+  final public boolean offline;
   public final File workingFolder;
+  // SHA256 of downloaded archives and manifests. Shared by cdep processes using the same downloads.
+  @NotNull
+  public final FileHashIndex hashIndex;
+  // Verified archives and their exploded content stored by SHA256. The usual per-coordinate
+  // download and unzip locations are views onto these.
+  @NotNull
+  public final ContentAddressedStore downloadStore;
+  @NotNull
+  public final ContentAddressedStore explodedStore;
+  // Manifests may be fetched from several resolver threads at once so shared state is guarded.
   private final Map<String, String> cdepSha256Hashes = new LinkedHashMap<>();
+  private final Set<String> cdepSha256FileCoordinates = new HashSet<>();
   private final boolean ignoreManifestHashes;
-  private final Set<File> alreadyDownloaded = new LinkedHashSet<>();
+  // Remembers manifests that were found in this session and manifest URLs that didn't exist.
+  private final ManifestResolutionCache manifestCache;
+  private final Set<File> alreadyDownloaded = Collections.synchronizedSet(new LinkedHashSet<File>());
+  private final Set<String> alreadyDownloadedContent = Collections.synchronizedSet(new HashSet<String>());
+  private final Set<String> alreadyExplodedContent = Collections.synchronizedSet(new HashSet<String>());
+  private final ConcurrentHashMap<File, Object> downloadLocks = new ConcurrentHashMap<>();
+  private final AtomicLong explodedBytes = new AtomicLong();
+  // Remote files that were needed while offline but weren't in the local cache.
+  private final Set<String> offlineMisses = Collections.synchronizedSet(new LinkedHashSet<String>());
+  // Local copies of the manifests that were read. Generated modules depend on their content.
+  private final Set<File> manifestFiles = Collections.synchronizedSet(new LinkedHashSet<File>());
+  private final Map<File, Coordinate> manifestCoordinates = new ConcurrentHashMap<>();
 
   public GeneratorEnvironment(
       @NotNull File workingFolder,
@@ -59,6 +81,23 @@ public class GeneratorEnvironment implements ManifestProvider {
       @Nullable String generatedModulesFolder,
       boolean forceRedownload,
       boolean ignoreManifestHashes) {
+    this(workingFolder,
+        userFolder,
+        downloadedPackagesFolder,
+        generatedModulesFolder,
+        forceRedownload,
+        ignoreManifestHashes,
+        false);
+  }
+
+  public GeneratorEnvironment(
+      @NotNull File workingFolder,
+      @NotNull File userFolder,
+      @Nullable String downloadedPackagesFolder,
+      @Nullable String generatedModulesFolder,
+      boolean forceRedownload,
+      boolean ignoreManifestHashes,
+      boolean offline) {
     if (userFolder == null) {
       userFolder = new File(System.getProperty("user.home"));
     }
@@ -88,40 +127,79 @@ public class GeneratorEnvironment implements ManifestProvider {
       this.examplesFolder = new File(generatedModules, "examples").getAbsoluteFile();
     }
 
+    this.hashIndex = FileHashIndex.forFile(new File(downloadFolder, ".sha256-index"));
+    this.downloadStore = new ContentAddressedStore(new File(downloadFolder, ".cas"));
+    this.explodedStore = new ContentAddressedStore(new File(unzippedArchivesFolder, ".cas"));
+    this.manifestCache = new ManifestResolutionCache(
+        new ManifestProvider() {
+          @Nullable
+          @Override
+          public CDepManifestYml tryGetManifest(Coordinate coordinate, @NotNull URL remoteArchive)
+              throws IOException, NoSuchAlgorithmException {
+            return fetchManifest(coordinate, remoteArchive);
+          }
+        },
+        new File(downloadFolder, ".missing-manifests"),
+        Long.getLong("cdep.manifest.missingTtlMillis", ManifestResolutionCache.DEFAULT_MISSING_TTL_MILLIS),
+        forceRedownload,
+        // A manifest that isn't cached while offline may still exist at the remote
+        !offline);
     this.ignoreManifestHashes = ignoreManifestHashes;
     this.forceRedownload = forceRedownload;
+    this.offline = offline;
   }
 
-  private static InputStream tryGetUrlInputStream(@NotNull URL url) throws IOException {
-    URLConnection con = url.openConnection();
-    con.connect();
-    int retriesRemaining = 3;
-    IOException lastException = null;
-    while (retriesRemaining > 0) {
-      try {
-        return con.getInputStream();
-      } catch (FileNotFoundException e) {
-        // If the file wasn't found we may want to look for it in other places. Continue by
-        // returning null;
-        return null;
-      } catch (IOException e) {
-        lastException = e;
+  /*
+   * Return the SHA256 of a downloaded file. The file isn't read again if it hasn't changed since
+   * it was last hashed.
+   */
+  @NotNull
+  public String getSHA256OfDownloadedFile(@NotNull File local) throws IOException, NoSuchAlgorithmException {
+    return hashIndex.getSHA256OfFile(local);
+  }
+
+  /*
+   * Remember a manifest file that resolution read.
+   */
+  public void recordManifestFile(@NotNull File manifest) {
+    manifestFiles.add(manifest.getAbsoluteFile());
+  }
+
+  /*
+   * Record the SHA256 of the manifest for a coordinate so that it's written to cdep.sha256. It's an
+   * error if cdep.sha256 already has a different SHA256 for that coordinate.
+   */
+  public void recordManifestSha256(@NotNull File manifest, @NotNull Coordinate coordinate, @NotNull String sha256) {
+    if (ignoreManifestHashes || coordinate.toString().isEmpty()) {
+      return;
+    }
+    recordManifestFile(manifest);
+    manifestCoordinates.put(manifest.getAbsoluteFile(), coordinate);
+    String priorSha256;
+    synchronized (cdepSha256Hashes) {
+      priorSha256 = this.cdepSha256Hashes.get(coordinate.toString());
+      if (priorSha256 == null) {
+        this.cdepSha256Hashes.put(coordinate.toString(), sha256);
       }
-      --retriesRemaining;
-      infoln("Retrying %s", url);
     }
-    throw lastException;
+    require(priorSha256 == null || priorSha256.equals(sha256),
+        "SHA256 of cdep-manifest.yml for package '%s' does not agree with constant in cdep.sha256. Something changed.",
+        coordinate);
   }
 
-  private static void copyInputStreamToLocalFile(@NotNull InputStream input, @NotNull File localFile) throws IOException {
-    byte[] buffer = new byte[4096];
-    int n;
+  /*
+   * Return the coordinate whose SHA256 was recorded from the given manifest file, if any.
+   */
+  @Nullable
+  public Coordinate getManifestCoordinate(@NotNull File manifest) {
+    return manifestCoordinates.get(manifest.getAbsoluteFile());
+  }
 
-    OutputStream output = new FileOutputStream(localFile);
-    while ((n = input.read(buffer)) != -1) {
-      output.write(buffer, 0, n);
+  @NotNull
+  public List<File> getManifestFiles() {
+    synchronized (manifestFiles) {
+      return new ArrayList<>(manifestFiles);
     }
-    output.close();
   }
 
   @NotNull
@@ -134,13 +212,130 @@ public class GeneratorEnvironment implements ManifestProvider {
     return local;
   }
 
+  /*
+   * Return an object to lock on while downloading to the given file. Two coordinates resolved
+   * on different threads may refer to the same local file.
+   */
+  @NotNull
+  private Object getDownloadLock(@NotNull File local) {
+    Object lock = new Object();
+    Object prior = downloadLocks.putIfAbsent(local, lock);
+    return prior == null ? lock : prior;
+  }
+
   @Nullable
-  public File tryGetLocalDownloadedFile(Coordinate coordinate, @NotNull URL remoteArchive) throws IOException {
+  public File tryGetLocalDownloadedFile(Coordinate coordinate, @NotNull URL remoteArchive)
+      throws IOException, NoSuchAlgorithmException {
     File local = getLocalDownloadFilename(coordinate, remoteArchive);
+    synchronized (getDownloadLock(local)) {
+      // Manifests are small so on redownload they are revalidated rather than transferred again
+      return tryGetLocalDownloadedFile(local, remoteArchive, true);
+    }
+  }
+
+  /*
+   * Like tryGetLocalDownloadedFile but for an archive whose size and SHA256 are known from the
+   * manifest. If an archive with the same content was already downloaded, for this or any other
+   * coordinate, then it is linked into place rather than downloaded again.
+   */
+  @Nullable
+  public File tryGetLocalDownloadedArchive(
+      @NotNull Coordinate coordinate,
+      @NotNull URL remoteArchive,
+      long size,
+      @NotNull String sha256) throws IOException, NoSuchAlgorithmException {
+    File local = getLocalDownloadFilename(coordinate, remoteArchive);
+    synchronized (getDownloadLock(local)) {
+      boolean reuse = forceRedownload ? alreadyDownloadedContent.contains(sha256) : !local.isFile();
+      if (reuse && downloadStore.tryLinkFile(sha256, size, local)) {
+        hashIndex.record(local, sha256);
+        return local;
+      }
+      return tryGetLocalDownloadedFile(local, remoteArchive, false);
+    }
+  }
 
-    if (local.isFile() && !forceRedownload) {
+  /*
+   * Add a local archive whose SHA256 has been verified against the manifest to the download store
+   * so that archives with the same content under other coordinates can share it.
+   */
+  public void addVerifiedArchive(@NotNull File local, @NotNull String sha256) throws IOException {
+    synchronized (getDownloadLock(local)) {
+      if (downloadStore.addFile(sha256, local)) {
+        // The local file is now a link to the stored copy so its file key changed.
+        hashIndex.record(local, sha256);
+      }
+      if (alreadyDownloaded.contains(local)) {
+        alreadyDownloadedContent.add(sha256);
+      }
+    }
+  }
+
+  /*
+   * Return the exploded content of a verified archive. The archive is only unzipped if no archive
+   * with the same content has been exploded yet or, when forceUnzip is set, if it hasn't already
+   * been unzipped in this session.
+   */
+  @NotNull
+  public File getExplodedArchive(@NotNull File local, @NotNull String sha256, boolean forceUnzip)
+      throws IOException {
+    File exploded = explodedStore.getEntry(sha256);
+    synchronized (getDownloadLock(exploded)) {
+      if (exploded.isDirectory() && (!forceUnzip || alreadyExplodedContent.contains(sha256))) {
+        return exploded;
+      }
+      File temp = explodedStore.newTemporaryFolder(sha256);
+      explodedBytes.addAndGet(ArchiveUtils.unzip(local, temp));
+      alreadyExplodedContent.add(sha256);
+      return explodedStore.addFolder(sha256, temp);
+    }
+  }
+
+  /*
+   * Return the number of bytes written so far when exploding archives.
+   */
+  public long getExplodedBytes() {
+    return explodedBytes.get();
+  }
+
+  /*
+   * Delete stored archives and exploded content that no longer back any download or unzip folder.
+   * Returns the number of entries deleted.
+   */
+  public int collectGarbage() throws IOException {
+    int deleted = downloadStore.collectGarbage(downloadFolder) + explodedStore.collectGarbage(unzippedArchivesFolder);
+    hashIndex.prune();
+    return deleted;
+  }
+
+  /*
+   * Return true if the archive is in the local cache, either in its download location or in the
+   * download store, so that it can be fetched without the network.
+   */
+  public boolean isArchiveCached(@NotNull Coordinate coordinate, @NotNull URL remoteArchive, @NotNull String sha256) {
+    return getLocalDownloadFilename(coordinate, remoteArchive).isFile() || downloadStore.getEntry(sha256).isFile();
+  }
+
+  /*
+   * Return the remote files that were needed while offline but weren't in the local cache.
+   */
+  @NotNull
+  public List<String> getOfflineMisses() {
+    synchronized (offlineMisses) {
+      return new ArrayList<>(offlineMisses);
+    }
+  }
+
+  @Nullable
+  private File tryGetLocalDownloadedFile(@NotNull File local, @NotNull URL remoteArchive, boolean revalidate)
+      throws IOException, NoSuchAlgorithmException {
+    if (local.isFile() && (!forceRedownload || offline)) {
       return local;
     }
+    if (offline) {
+      offlineMisses.add(remoteArchive.toString());
+      return null;
+    }
 
     // Has the file already been downloaded in this session?
     if (alreadyDownloaded.contains(local)) {
@@ -159,16 +354,21 @@ public class GeneratorEnvironment implements ManifestProvider {
       infogreen("Downloading %s\n", remoteArchive);
     }
 
-    // Try to get the content at the remote. If it doesn't exist return null.
-    InputStream input = tryGetUrlInputStream(remoteArchive);
-    if (input == null) {
-      info("  didn't exist, skipping.\n");
-      return null;
+    // Try to get the content at the remote. If it doesn't exist return null. An interrupted
+    // download is resumed from where it stopped.
+    DownloadUtils.Result result = DownloadUtils.download(remoteArchive, local, revalidate);
+    switch (result.status) {
+      case MISSING:
+        info("  didn't exist, skipping.\n");
+        return null;
+      case NOT_MODIFIED:
+        info("  not modified.\n");
+        break;
+      case DOWNLOADED:
+        assert result.sha256 != null;
+        hashIndex.record(local, result.sha256);
+        break;
     }
-
-    //noinspection ResultOfMethodCallIgnored
-    local.getParentFile().mkdirs();
-    copyInputStreamToLocalFile(input, local);
     alreadyDownloaded.add(local);
 
     require(local.exists(), "Did not write to %s", local);
@@ -179,12 +379,19 @@ public class GeneratorEnvironment implements ManifestProvider {
   @Override
   public CDepManifestYml tryGetManifest(Coordinate coordinate, @NotNull URL remoteArchive)
       throws IOException, NoSuchAlgorithmException {
+    return manifestCache.tryGetManifest(coordinate, remoteArchive);
+  }
+
+  @Nullable
+  private CDepManifestYml fetchManifest(Coordinate coordinate, @NotNull URL remoteArchive)
+      throws IOException, NoSuchAlgorithmException {
     File file = tryGetLocalDownloadedFile(coordinate, remoteArchive);
     if (file == null) {
       // The remote didn't exist. Return null;
       return null;
     }
     Invariant.registerYamlFile(file.getAbsolutePath());
+    recordManifestFile(file);
     String text = FileUtils.readAllText(file);
     CDepManifestYml cdepManifestYml = CDepManifestYmlUtils.convertStringToManifest(file.getAbsolutePath(), text);
     // If there were any errors reading the manifest then quit before recording any SHA256 (because it may not be valid).
@@ -192,12 +399,7 @@ public class GeneratorEnvironment implements ManifestProvider {
       return cdepManifestYml;
     }
     if (!ignoreManifestHashes && !cdepManifestYml.coordinate.toString().isEmpty()) {
-      String sha256 = HashUtils.getSHA256OfFile(file);
-      String priorSha256 = this.cdepSha256Hashes.get(cdepManifestYml.coordinate.toString());
-      require(priorSha256 == null || priorSha256.equals(sha256),
-          "SHA256 of cdep-manifest.yml for package '%s' does not agree with constant in cdep.sha256. Something changed.",
-          cdepManifestYml.coordinate);
-      this.cdepSha256Hashes.put(cdepManifestYml.coordinate.toString(), sha256);
+      recordManifestSha256(file, cdepManifestYml.coordinate, getSHA256OfDownloadedFile(file));
     }
     return cdepManifestYml;
   }
@@ -219,23 +421,42 @@ public class GeneratorEnvironment implements ManifestProvider {
     }
     String text = FileUtils.readAllText(file);
     CDepSHA256 cdepSha256 = CDepSHA256Utils.convertStringToCDepSHA256(text);
-    for (HashEntry entry : cdepSha256.hashes) {
-      this.cdepSha256Hashes.put(entry.coordinate, entry.sha256);
+    synchronized (cdepSha256Hashes) {
+      for (HashEntry entry : cdepSha256.hashes) {
+        this.cdepSha256Hashes.put(entry.coordinate, entry.sha256);
+        this.cdepSha256FileCoordinates.add(entry.coordinate);
+      }
     }
   }
 
-  public void writeCDepSHA256File() throws FileNotFoundException {
+  public void writeCDepSHA256File() throws IOException {
     if (errorsInScope() > 0) {
       // Don't write SHA256 if there have been errors. We don't want invalid value to be written.
       return;
     }
 
     File file = new File(workingFolder, "cdep.sha256");
-    HashEntry entries[] = new HashEntry[cdepSha256Hashes.size()];
-    int i = 0;
-    for (String coordinate : cdepSha256Hashes.keySet()) {
-      entries[i] = new HashEntry(coordinate, cdepSha256Hashes.get(coordinate));
-      ++i;
+    HashEntry entries[];
+    synchronized (cdepSha256Hashes) {
+      // Coordinates already in cdep.sha256 keep their place. Newly discovered coordinates may have
+      // been recorded by concurrent resolution so they're sorted to keep the file stable.
+      List<String> coordinates = new ArrayList<>();
+      List<String> discovered = new ArrayList<>();
+      for (String coordinate : cdepSha256Hashes.keySet()) {
+        if (cdepSha256FileCoordinates.contains(coordinate)) {
+          coordinates.add(coordinate);
+        } else {
+          discovered.add(coordinate);
+        }
+      }
+      Collections.sort(discovered);
+      coordinates.addAll(discovered);
+      entries = new HashEntry[coordinates.size()];
+      int i = 0;
+      for (String coordinate : coordinates) {
+        entries[i] = new HashEntry(coordinate, cdepSha256Hashes.get(coordinate));
+        ++i;
+      }
     }
     StringBuilder sb = new StringBuilder();
     sb.append("# This file is automatically maintained by CDep.\n#\n#     MANUAL EDITS WILL BE LOST ON THE NEXT "  +
@@ -246,11 +467,8 @@ public class GeneratorEnvironment implements ManifestProvider {
     sb.append("# The recommended best practice is to check this file into source control so that\n");
     sb.append("# anyone else who builds this project is guaranteed to get the same dependencies.\n\n");
     sb.append(new CDepSHA256(entries).toString());
-    try (PrintWriter out = new PrintWriter(file, UTF_8.name())) {
-      out.println(sb);
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
+    sb.append(System.lineSeparator());
+    FileUtils.writeTextToFileIfChanged(file, sb.toString());
   }
 
   private String getUrlBaseName(@NotNull URL url) {
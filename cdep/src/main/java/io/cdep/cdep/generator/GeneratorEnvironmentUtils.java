@@ -28,19 +28,22 @@ import io.cdep.cdep.resolver.ResolvedManifest;
 import io.cdep.cdep.resolver.Resolver;
 import io.cdep.cdep.utils.ArchiveUtils;
 import io.cdep.cdep.utils.FileUtils;
-import io.cdep.cdep.utils.HashUtils;
 import io.cdep.cdep.yml.cdep.SoftNameDependency;
 import io.cdep.cdep.yml.cdeparchive.CDepArchiveYml;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static io.cdep.cdep.utils.Invariant.errorsInScope;
+import static io.cdep.cdep.utils.Invariant.fail;
 import static io.cdep.cdep.utils.Invariant.require;
 
 /*
@@ -55,19 +58,30 @@ public class GeneratorEnvironmentUtils {
       @NotNull GeneratorEnvironment environment,
       @NotNull Map<Coordinate, List<Expression>> foundModules)
       throws IOException, NoSuchAlgorithmException {
+    downloadReferencedModules(environment, foundModules, 1);
+  }
+
+  /*
+   * Given a function table and generator environment, download all of the files referenced. If
+   * downloadThreads is more than one then archives are downloaded concurrently and verified and
+   * exploded on a separate pool as each download completes.
+   */
+  public static void downloadReferencedModules(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull Map<Coordinate, List<Expression>> foundModules,
+      int downloadThreads)
+      throws IOException, NoSuchAlgorithmException {
+    require(downloadThreads > 0, "Download thread count must be positive but was %s", downloadThreads);
+    if (downloadThreads > 1) {
+      new ArchiveDownloadPipeline(environment, downloadThreads).download(foundModules);
+      return;
+    }
 
     Set<File> alreadyExploded = new LinkedHashSet<>();
 
     // Download and unzip any modules.
     for (Coordinate coordinate : foundModules.keySet()) {
-      List<Expression> foundModuleExpressions = foundModules.get(coordinate);
-      for (Expression foundModule : foundModuleExpressions) {
-        ModuleArchiveExpression archive = null;
-        if (foundModule instanceof ModuleExpression) {
-          ModuleExpression specific = (ModuleExpression) foundModule;
-          archive = specific.archive;
-        }
-        assert archive != null;
+      for (ModuleArchiveExpression archive : getArchives(foundModules.get(coordinate))) {
         URL archiveURL = archive.file;
         Long size = archive.size;
         String sha256 = archive.sha256;
@@ -80,6 +94,58 @@ public class GeneratorEnvironmentUtils {
     }
   }
 
+  /*
+   * When offline, check that everything needed is in the local cache. Manifests that weren't cached
+   * are only reported if resolution failed because some other URL may have satisfied the
+   * coordinate. Reports a single error listing what is missing and returns false if anything is.
+   */
+  public static boolean checkOfflineCache(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull Map<Coordinate, List<Expression>> foundModules) {
+    if (!environment.offline) {
+      return true;
+    }
+    Set<String> missing = new LinkedHashSet<>();
+    if (errorsInScope() > 0) {
+      missing.addAll(environment.getOfflineMisses());
+    }
+    for (Coordinate coordinate : foundModules.keySet()) {
+      for (ModuleArchiveExpression archive : getArchives(foundModules.get(coordinate))) {
+        if (!environment.isArchiveCached(coordinate, archive.file, archive.sha256)) {
+          missing.add(archive.file.toString());
+        }
+      }
+    }
+    if (missing.isEmpty()) {
+      return true;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String url : missing) {
+      sb.append("\n  ").append(url);
+    }
+    fail("cdep is offline and %s files are not in the local cache. Run 'cdep prefetch' while online to " +
+        "download them:%s", missing.size(), sb);
+    return false;
+  }
+
+  /*
+   * Return the archive of each found module expression.
+   */
+  @NotNull
+  static List<ModuleArchiveExpression> getArchives(@NotNull List<Expression> foundModuleExpressions) {
+    List<ModuleArchiveExpression> archives = new ArrayList<>();
+    for (Expression foundModule : foundModuleExpressions) {
+      ModuleArchiveExpression archive = null;
+      if (foundModule instanceof ModuleExpression) {
+        ModuleExpression specific = (ModuleExpression) foundModule;
+        archive = specific.archive;
+      }
+      assert archive != null;
+      archives.add(archive);
+    }
+    return archives;
+  }
+
   @Nullable
   public static File downloadSingleArchive(
       @NotNull GeneratorEnvironment environment,
@@ -88,19 +154,42 @@ public class GeneratorEnvironmentUtils {
       long size,
       @NotNull String sha256,
       boolean forceUnzip) throws IOException, NoSuchAlgorithmException {
-    File local = environment.tryGetLocalDownloadedFile(coordinate, archiveURL);
-    File unzipFolder = environment.getLocalUnzipFolder(coordinate, archiveURL);
-    File completionSentinel = new File(unzipFolder, "completion_sentinel");
-    File cdepArchive = new File(unzipFolder, "cdep-archive.yml");
-    require(local != null, "Resolved archive '%s' didn't exist", archiveURL);
+    if (fetchSingleArchive(environment, coordinate, archiveURL, size, sha256)) {
+      forceUnzip = true;
+    }
+    File local = environment.getLocalDownloadFilename(coordinate, archiveURL);
+    verifySingleArchive(environment, archiveURL, local, sha256);
+    explodeSingleArchive(environment, coordinate, archiveURL, local, size, sha256, forceUnzip);
+    return local;
+  }
+
+  /*
+   * Download a single archive, if it isn't already local, and check its size. An archive with the
+   * same content that was downloaded before is linked rather than downloaded. Returns true if the
+   * local archive was the wrong size and had to be downloaded again. In that case, any prior
+   * exploded copy can't be trusted.
+   */
+  static boolean fetchSingleArchive(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull Coordinate coordinate,
+      @NotNull URL archiveURL,
+      long size,
+      @NotNull String sha256) throws IOException, NoSuchAlgorithmException {
+    boolean refetched = false;
+    File local = environment.tryGetLocalDownloadedArchive(coordinate, archiveURL, size, sha256);
+    if (environment.offline) {
+      require(local != null, "Archive '%s' is not in the local cache and cdep is offline", archiveURL);
+    } else {
+      require(local != null, "Resolved archive '%s' didn't exist", archiveURL);
+    }
     assert local != null;
     if (size != local.length()) {
-      // It may have been an interrupted download. Try again.
-      if (!environment.forceRedownload) {
-        forceUnzip = true;
+      // The remote may have changed since it was downloaded. Try again unless offline.
+      if (!environment.forceRedownload && !environment.offline) {
+        refetched = true;
         //noinspection ResultOfMethodCallIgnored
         local.delete();
-        local = environment.tryGetLocalDownloadedFile(coordinate, archiveURL);
+        local = environment.tryGetLocalDownloadedArchive(coordinate, archiveURL, size, sha256);
         require(local != null, "Resolved archive '%s' didn't exist", archiveURL);
       }
       assert local != null;
@@ -110,14 +199,50 @@ public class GeneratorEnvironmentUtils {
           local.length(),
           size);
     }
+    return refetched;
+  }
 
-    String localSha256String = HashUtils.getSHA256OfFile(local);
+  /*
+   * Check that the SHA256 of a local archive matches the one from the manifest. A matching archive
+   * is added to the download store.
+   */
+  static void verifySingleArchive(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull URL archiveURL,
+      @NotNull File local,
+      @NotNull String sha256) throws IOException, NoSuchAlgorithmException {
+    String localSha256String = environment.getSHA256OfDownloadedFile(local);
     require(localSha256String.equals(sha256), "SHA256 for %s did not match constant from manifest", archiveURL);
+    if (localSha256String.equals(sha256)) {
+      environment.addVerifiedArchive(local, sha256);
+    }
+  }
+
+  /*
+   * Unzip a local archive into its exploded folder unless that was already done. A verified
+   * archive is exploded once into the exploded store and its unzip folder links to that.
+   */
+  static void explodeSingleArchive(
+      @NotNull GeneratorEnvironment environment,
+      @NotNull Coordinate coordinate,
+      @NotNull URL archiveURL,
+      @NotNull File local,
+      long size,
+      @NotNull String sha256,
+      boolean forceUnzip) throws IOException, NoSuchAlgorithmException {
+    File unzipFolder = environment.getLocalUnzipFolder(coordinate, archiveURL);
+    File completionSentinel = new File(unzipFolder, "completion_sentinel");
+    File cdepArchive = new File(unzipFolder, "cdep-archive.yml");
 
     if (!unzipFolder.exists() || forceUnzip || !completionSentinel.isFile()) {
       //noinspection ResultOfMethodCallIgnored
       unzipFolder.mkdirs();
-      ArchiveUtils.unzip(local, unzipFolder);
+      if (environment.getSHA256OfDownloadedFile(local).equals(sha256)) {
+        environment.getExplodedArchive(local, sha256, forceUnzip);
+        environment.explodedStore.linkFolder(sha256, unzipFolder);
+      } else {
+        ArchiveUtils.unzip(local, unzipFolder);
+      }
       FileUtils.writeTextToFile(completionSentinel, "done");
     }
 
@@ -126,7 +251,6 @@ public class GeneratorEnvironmentUtils {
       String archiveText = archive.toString();
       FileUtils.writeTextToFile(cdepArchive, archiveText);
     }
-    return local;
   }
 
   /*
@@ -150,9 +274,29 @@ public class GeneratorEnvironmentUtils {
       @NotNull GeneratorEnvironment environment,
       @NotNull SoftNameDependency dependencies[])
       throws IOException, NoSuchAlgorithmException {
+    FunctionTableCache cache = new FunctionTableCache(environment, dependencies);
+    FunctionTableExpression cached = cache.tryLoad();
+    if (cached != null) {
+      return cached;
+    }
     BuildFindModuleFunctionTable table = new BuildFindModuleFunctionTable();
     ResolutionScope scope = new Resolver(environment).resolveAll(dependencies);
+    for (String name : scope.getResolutions()) {
+      // Manifests referenced by local path are read directly rather than through the environment
+      URL remote = scope.getResolution(name).remote;
+      if ("file".equals(remote.getProtocol())) {
+        try {
+          environment.recordManifestFile(new File(remote.toURI()));
+        } catch (URISyntaxException e) {
+          fail("Manifest path '%s' could not be converted to a file", remote);
+        }
+      }
+    }
     addAllResolvedToTable(table, scope);
-    return table.build();
+    FunctionTableExpression result = table.build();
+    if (errorsInScope() == 0) {
+      cache.save(result);
+    }
+    return result;
   }
 }
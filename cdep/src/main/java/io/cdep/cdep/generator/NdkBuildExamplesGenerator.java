@@ -46,7 +46,7 @@ public class NdkBuildExamplesGenerator {
       String sourceName = artifact + ".cpp";
       File exampleSourceFile = new File(exampleFolder, sourceName);
       info("Generating %s\n", exampleSourceFile);
-      FileUtils.writeTextToFile(exampleSourceFile, example.sourceCode);
+      FileUtils.writeTextToFileIfChanged(exampleSourceFile, example.sourceCode);
       File exampleAndroidMkFile = new File(exampleFolder, "Android.mk");
       String androidMk =
           "LOCAL_PATH := $(call my-dir)\r\n" +
@@ -61,14 +61,14 @@ public class NdkBuildExamplesGenerator {
           .replace("{ARTIFACTID}", artifact)
           .replace("{SOURCE}", sourceName);
       info("Generating %s\n", exampleAndroidMkFile);
-      FileUtils.writeTextToFile(exampleAndroidMkFile, androidMk);
+      FileUtils.writeTextToFileIfChanged(exampleAndroidMkFile, androidMk);
       root.append(String.format("include %s\r\n", exampleAndroidMkFile.getAbsoluteFile()));
     }
     // Generate root Android.mk
     File rootAndroidMkFile = new File(getExampleRootFolder(), "jni");
     rootAndroidMkFile = new File(rootAndroidMkFile, "Android.mk");
     info("Generating %s\n", rootAndroidMkFile);
-    FileUtils.writeTextToFile(rootAndroidMkFile, root.toString());
+    FileUtils.writeTextToFileIfChanged(rootAndroidMkFile, root.toString());
 
     // Generate root Application.mk
     File moduleFolder = new File(environment.modulesFolder, "ndk-build");
@@ -85,7 +85,7 @@ public class NdkBuildExamplesGenerator {
         "APP_CPPFLAGS := -frtti -fexceptions\r\n";
     applicationMk = applicationMk
         .replace("{MODULESFOLDER}", environment.modulesFolder.getAbsolutePath());
-    FileUtils.writeTextToFile(rootApplicationMkFile, applicationMk);
+    FileUtils.writeTextToFileIfChanged(rootApplicationMkFile, applicationMk);
   }
 
   @NotNull
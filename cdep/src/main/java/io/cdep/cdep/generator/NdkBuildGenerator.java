@@ -151,7 +151,7 @@ public class NdkBuildGenerator extends AbstractNdkBuildGenerator {
     }
     // Write the dependency fetch commands
     try {
-      FileUtils.writeTextToFile(androidMk, sb.get(0).toString());
+      FileUtils.writeTextToFileIfChanged(androidMk, sb.get(0).toString());
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
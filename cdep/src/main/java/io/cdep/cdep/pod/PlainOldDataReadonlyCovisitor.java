@@ -115,9 +115,12 @@ public class PlainOldDataReadonlyCovisitor {
     if (left == null && right == null) {
       return;
     }
-    String methodName = getVisitorName(type);
     push(name);
     try {
+      if (covisitKnownType(name, left, right, type)) {
+        return;
+      }
+      String methodName = getVisitorName(type);
       Method method = getMethod(getClass(), methodName, String.class, type, type);
       invoke(method, this, name, left, right);
     } finally {
@@ -125,6 +128,44 @@ public class PlainOldDataReadonlyCovisitor {
     }
   }
 
+  /*
+   * Call the covisit method for type directly rather than finding it by reflection. Returns false
+   * for types that aren't known here. Subclasses that know their own types override this and call
+   * super for the rest.
+   */
+  protected boolean covisitKnownType(String name, @Nullable Object left, @Nullable Object right, @NotNull Class<?> type) {
+    if (type == String.class) {
+      covisitString(name, (String) left, (String) right);
+      return true;
+    }
+    if (type == Long.class) {
+      covisitLong(name, (Long) left, (Long) right);
+      return true;
+    }
+    if (type == Integer.class) {
+      covisitInteger(name, (Integer) left, (Integer) right);
+      return true;
+    }
+    if (type == String[].class) {
+      covisitStringArray(name, (String[]) left, (String[]) right);
+      return true;
+    }
+    if (type == Long[].class) {
+      covisitLongArray(name, (Long[]) left, (Long[]) right);
+      return true;
+    }
+    if (type == Object.class) {
+      covisitObject(name, left, right);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Covisit every public field of left and right, including null ones. Subclasses may override this
+   * with a hand-written walk for the classes they know about as long as fields are covisited in
+   * declaration order.
+   */
   protected void covisitFields(@Nullable Object left, @Nullable Object right) {
     require(left != null || right != null);
     Object representative = right;
@@ -51,12 +51,40 @@ abstract public class PlainOldDataReadonlyVisitor {
   }
 
   public void visit(Object element, @NotNull Class<?> elementClass) {
+    if (visitKnownType(element, elementClass)) {
+      return;
+    }
     String methodName = getVisitorName(elementClass);
     Method method = getMethod(getClass(), methodName, String.class, elementClass);
     invoke(method, this, null, element);
   }
 
-  private void visitFields(@NotNull Object node) {
+  /*
+   * Call the visit method for elementClass directly rather than finding it by reflection. Returns
+   * false for classes that aren't known here. Subclasses that know their own types override this
+   * and call super for the rest.
+   */
+  protected boolean visitKnownType(Object element, @NotNull Class<?> elementClass) {
+    if (elementClass == String.class) {
+      visitString(null, (String) element);
+      return true;
+    }
+    if (elementClass == Long.class) {
+      visitLong(null, (Long) element);
+      return true;
+    }
+    if (elementClass == String[].class) {
+      visitStringArray(null, (String[]) element);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Visit each non-null public field of node. Subclasses may override this with a hand-written walk
+   * for the classes they know about as long as fields are visited in declaration order.
+   */
+  protected void visitFields(@NotNull Object node) {
     if (node.getClass().isEnum()) {
       return;
     }
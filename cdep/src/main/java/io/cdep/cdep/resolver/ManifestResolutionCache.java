@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.resolver;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.utils.FileUtils;
+import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.cdep.cdep.utils.Invariant.errorsInScope;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * Sits in front of a ManifestProvider and remembers what it returned for each manifest URL.
+ *
+ * Manifests that were found are remembered for the life of the cache. Several resolvers may map
+ * different coordinates to the same URL and this way it is only fetched and parsed once. Across
+ * runs, found manifests are already kept in the downloads folder by GeneratorEnvironment, with
+ * their SHA256 in the hash index, so they don't need the network again.
+ *
+ * URLs that didn't exist are remembered across runs, until a time-to-live expires, in a file that
+ * is shared by cdep processes using the same downloads folder. Repeated cdep runs, for example from
+ * a build, then don't probe them again.
+ */
+public class ManifestResolutionCache implements ManifestProvider {
+  final public static long DEFAULT_MISSING_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  final private static String HEADER = "# cdep missing manifests v1";
+
+  @NotNull
+  final private ManifestProvider provider;
+  @NotNull
+  final private File missingFile;
+  @NotNull
+  final private File lockFile;
+  final private long missingTtlMillis;
+  final private boolean ignoreMissing;
+  final private boolean recordMissing;
+  final private Map<String, CDepManifestYml> found = new ConcurrentHashMap<>();
+  final private ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+  // Expiry time of each URL known not to exist
+  @Nullable
+  private Map<String, Long> missing = null;
+
+  /*
+   * If ignoreMissing is true then URLs remembered as missing are checked again. They are still
+   * remembered if they are still missing.
+   */
+  public ManifestResolutionCache(
+      @NotNull ManifestProvider provider,
+      @NotNull File missingFile,
+      long missingTtlMillis,
+      boolean ignoreMissing) {
+    this(provider, missingFile, missingTtlMillis, ignoreMissing, true);
+  }
+
+  /*
+   * If recordMissing is false then URLs that the provider didn't find aren't remembered. This is
+   * for providers, like an offline one, that can't tell whether a URL exists.
+   */
+  public ManifestResolutionCache(
+      @NotNull ManifestProvider provider,
+      @NotNull File missingFile,
+      long missingTtlMillis,
+      boolean ignoreMissing,
+      boolean recordMissing) {
+    this.provider = provider;
+    this.missingFile = missingFile.getAbsoluteFile();
+    this.lockFile = new File(this.missingFile.getPath() + ".lock");
+    this.missingTtlMillis = missingTtlMillis;
+    this.ignoreMissing = ignoreMissing;
+    this.recordMissing = recordMissing;
+  }
+
+  @Nullable
+  @Override
+  public CDepManifestYml tryGetManifest(Coordinate coordinate, @NotNull URL remoteArchive)
+      throws IOException, NoSuchAlgorithmException {
+    String url = remoteArchive.toString();
+    synchronized (getLock(url)) {
+      CDepManifestYml manifest = found.get(url);
+      if (manifest != null) {
+        return manifest;
+      }
+      if (!ignoreMissing && isKnownMissing(url)) {
+        return null;
+      }
+      int errors = errorsInScope();
+      manifest = provider.tryGetManifest(coordinate, remoteArchive);
+      if (manifest == null) {
+        if (recordMissing) {
+          recordMissing(url);
+        }
+      } else if (errorsInScope() == errors) {
+        // A manifest with errors isn't remembered so that the errors are reported each time.
+        found.put(url, manifest);
+      }
+      return manifest;
+    }
+  }
+
+  @NotNull
+  private Object getLock(@NotNull String url) {
+    Object lock = new Object();
+    Object prior = locks.putIfAbsent(url, lock);
+    return prior == null ? lock : prior;
+  }
+
+  private synchronized boolean isKnownMissing(@NotNull String url) throws IOException {
+    if (missing == null) {
+      missing = read();
+    }
+    Long expires = missing.get(url);
+    return expires != null && expires > System.currentTimeMillis();
+  }
+
+  /*
+   * Remember that the URL didn't exist. Other processes may have remembered URLs since this one
+   * read the file so it is read again, under a lock, and merged.
+   */
+  private synchronized void recordMissing(@NotNull String url) throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    missingFile.getParentFile().mkdirs();
+    try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+         FileChannel channel = lockAccess.getChannel();
+         FileLock ignored = channel.lock()) {
+      long now = System.currentTimeMillis();
+      Map<String, Long> merged = read();
+      merged.put(url, now + missingTtlMillis);
+      StringBuilder sb = new StringBuilder();
+      sb.append(HEADER).append("\n");
+      for (Map.Entry<String, Long> entry : merged.entrySet()) {
+        // Drop entries that expired
+        if (entry.getValue() > now) {
+          sb.append(entry.getValue()).append(" ").append(entry.getKey()).append("\n");
+        }
+      }
+      FileUtils.writeTextToFileAtomically(missingFile, sb.toString());
+      missing = merged;
+    }
+  }
+
+  // Each line is the time the entry expires followed by the URL.
+  @NotNull
+  private Map<String, Long> read() throws IOException {
+    Map<String, Long> result = new TreeMap<>();
+    String text;
+    try {
+      text = new String(Files.readAllBytes(missingFile.toPath()), UTF_8);
+    } catch (NoSuchFileException e) {
+      return result;
+    }
+    for (String line : text.split("\n")) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String fields[] = line.split(" ", 2);
+      if (fields.length != 2) {
+        continue;
+      }
+      try {
+        result.put(fields[1], Long.parseLong(fields[0]));
+      } catch (NumberFormatException e) {
+        // Skip a damaged line
+      }
+    }
+    return result;
+  }
+}
@@ -231,80 +231,101 @@ public class ResolutionScope {
 
   /*
    * Return the set of resolved names (coordinates or soft names).
+   *
+   * Names come out in the order of repeated passes over the resolved manifests where each pass
+   * writes, in order, every manifest whose dependencies have all been written. This is computed
+   * in one go with Kahn's algorithm over integer ids. A manifest's pass is the latest pass of its
+   * dependencies, plus one for a dependency that comes after it, and ready manifests are taken in
+   * (pass, id) order.
    */
   @NotNull
   public Collection<String> getResolutions() {
-    Set<Coordinate> seen = new LinkedHashSet<>();
-    List<String> result = new ArrayList<>();
-
-    // In case of bugs, don't loop forever. Choose a number that would be a ridiculous
-    // dependency depth but not so many it would take long.
-    int maximumDepth = 200;
+    List<String> names = new ArrayList<>(versionlessKeyedManifests.keySet());
+    int count = names.size();
+    Map<String, Integer> ids = new HashMap<>();
+    for (int i = 0; i < count; ++i) {
+      ids.put(names.get(i), i);
+    }
 
-    for (int loop = 0; loop < maximumDepth; ++loop) {
-      int resolutionsInLoop = 0;
-      for (String name : versionlessKeyedManifests.keySet()) {
-        ResolvedManifest resolved = getResolution(name);
-        Coordinate resolvedVersionless = CoordinateUtils.getVersionless(resolved.cdepManifestYml.coordinate);
-        if (seen.contains(resolvedVersionless)) {
-          continue;
+    // Number of dependencies not yet written, which includes any that weren't resolved, and the
+    // dependants of each manifest stored as ranges of a single array.
+    int remaining[] = new int[count];
+    int dependantStart[] = new int[count + 1];
+    int dependencyIds[][] = new int[count][];
+    for (int i = 0; i < count; ++i) {
+      List<Coordinate> dependencies = forwardEdges.get(getResolution(names.get(i)).cdepManifestYml.coordinate);
+      if (dependencies == null) {
+        dependencyIds[i] = new int[0];
+        continue;
+      }
+      dependencyIds[i] = new int[dependencies.size()];
+      for (int j = 0; j < dependencies.size(); ++j) {
+        Integer id = ids.get(CoordinateUtils.getVersionless(dependencies.get(j)).toString());
+        dependencyIds[i][j] = id == null ? -1 : id;
+        ++remaining[i];
+        if (id != null) {
+          ++dependantStart[id + 1];
         }
-
-        List<Coordinate> dependencies = forwardEdges.get(resolved.cdepManifestYml.coordinate);
-        boolean missingDependencies = false;
-        if (dependencies != null) {
-          for (Coordinate dependency : dependencies) {
-            if (seen.contains(CoordinateUtils.getVersionless(dependency))) {
-              continue;
-            }
-            missingDependencies = true;
-            break;
-          }
+      }
+    }
+    for (int i = 0; i < count; ++i) {
+      dependantStart[i + 1] += dependantStart[i];
+    }
+    int dependants[] = new int[dependantStart[count]];
+    int filled[] = Arrays.copyOf(dependantStart, count);
+    for (int i = 0; i < count; ++i) {
+      for (int id : dependencyIds[i]) {
+        if (id >= 0) {
+          dependants[filled[id]++] = i;
         }
+      }
+    }
 
-        // Some dependencies of this resolution have not been written yet.
-        if (missingDependencies) {
-          continue;
+    // Ready manifests keyed by pass * count + id
+    long pass[] = new long[count];
+    PriorityQueue<Long> ready = new PriorityQueue<>();
+    for (int i = 0; i < count; ++i) {
+      if (remaining[i] == 0) {
+        ready.add((long) i);
+      }
+    }
+    boolean written[] = new boolean[count];
+    List<String> result = new ArrayList<>();
+    while (!ready.isEmpty()) {
+      int id = (int) (ready.poll() % count);
+      written[id] = true;
+      result.add(names.get(id));
+      for (int edge = dependantStart[id]; edge < dependantStart[id + 1]; ++edge) {
+        int dependant = dependants[edge];
+        pass[dependant] = Math.max(pass[dependant], dependant < id ? pass[id] + 1 : pass[id]);
+        if (--remaining[dependant] == 0) {
+          ready.add(pass[dependant] * count + dependant);
         }
-
-        // All dependencies present so write this dependency.
-        result.add(name);
-        seen.add(resolvedVersionless);
-        ++resolutionsInLoop;
       }
+    }
 
-      if (result.size() == versionlessKeyedManifests.keySet().size()) {
-        return result;
-      }
+    if (result.size() == count) {
+      return result;
+    }
 
-      if (resolutionsInLoop == 0) {
-        // Transited the whole list and there were no resolutions. This means there was a missing dependency.
-        // Issue an error for unresolved dependencies.
-        for (String name : versionlessKeyedManifests.keySet()) {
-          ResolvedManifest resolved = getResolution(name);
-          Coordinate resolvedVersionless = CoordinateUtils.getVersionless(resolved.cdepManifestYml.coordinate);
-          if (seen.contains(resolvedVersionless)) {
-            continue;
-          }
-
-          List<Coordinate> dependencies = forwardEdges.get(resolved.cdepManifestYml.coordinate);
-          boolean missingDependencies = false;
-          String missing = "";
-          for (Coordinate dependency : dependencies) {
-            if (seen.contains(CoordinateUtils.getVersionless(dependency))) {
-              continue;
-            }
-            missing += " " + dependency.toString();
-          }
-
-          Invariant.fail("Reference %s has unresolved dependency%s", resolved.cdepManifestYml.coordinate, missing);
+    // There was a missing dependency. Issue an error for unresolved dependencies.
+    for (int i = 0; i < count; ++i) {
+      if (written[i]) {
+        continue;
+      }
+      ResolvedManifest resolved = getResolution(names.get(i));
+      List<Coordinate> dependencies = forwardEdges.get(resolved.cdepManifestYml.coordinate);
+      String missing = "";
+      for (int j = 0; j < dependencies.size(); ++j) {
+        int id = dependencyIds[i][j];
+        if (id >= 0 && written[id]) {
+          continue;
         }
-        return versionlessKeyedManifests.keySet();
+        missing += " " + dependencies.get(j).toString();
       }
-    }
 
-    // Unreachable outside of bugs in resolution logic
-    Invariant.fail("Exceeded maximum dependency depth %s", maximumDepth);
+      Invariant.fail("Reference %s has unresolved dependency%s", resolved.cdepManifestYml.coordinate, missing);
+    }
     return versionlessKeyedManifests.keySet();
   }
 
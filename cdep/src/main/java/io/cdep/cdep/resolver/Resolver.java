@@ -19,12 +19,17 @@ import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
 import io.cdep.cdep.resolver.ResolutionScope.Unresolvable;
 import io.cdep.cdep.utils.CDepManifestYmlUtils;
+import io.cdep.cdep.utils.ConcurrencyUtils;
+import io.cdep.cdep.utils.ErrorScopedTask;
 import io.cdep.cdep.yml.cdep.SoftNameDependency;
 import io.cdep.cdep.yml.cdepmanifest.HardNameDependency;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static io.cdep.cdep.utils.Invariant.fail;
 import static io.cdep.cdep.utils.Invariant.require;
@@ -47,9 +52,17 @@ import static io.cdep.cdep.utils.Invariant.require;
  *   http://[host]/[subhost]/[artifact]/releases/download/[version]/cdep-manifest.yml
  *
  * If this URL exists then it is used. Otherwise, it is a failure.
+ *
+ * Resolution proceeds breadth-first. All of the unresolved references at the current frontier are
+ * resolved concurrently and then recorded into the scope in frontier order, so the result is the
+ * same as resolving them one at a time.
  */
 public class Resolver {
 
+  // Number of references that may be resolved at the same time. Resolution is mostly waiting on
+  // the network so this can be more than the number of cores.
+  final static int DEFAULT_RESOLUTION_THREADS = 8;
+
   final private static CoordinateResolver RESOLVERS[] = new CoordinateResolver[] {
       new GithubStyleUrlCoordinateResolver(),
       new GithubReleasesCoordinateResolver(),
@@ -60,14 +73,21 @@ public class Resolver {
 
   final private ManifestProvider manifestProvider;
   final private CoordinateResolver resolvers[];
+  final private int threads;
 
   public Resolver(ManifestProvider manifestProvider) {
     this(manifestProvider, RESOLVERS);
   }
 
   Resolver(ManifestProvider manifestProvider, CoordinateResolver resolvers[]) {
+    this(manifestProvider, resolvers, DEFAULT_RESOLUTION_THREADS);
+  }
+
+  Resolver(ManifestProvider manifestProvider, CoordinateResolver resolvers[], int threads) {
+    require(threads > 0, "Resolution thread count must be positive but was %s", threads);
     this.manifestProvider = manifestProvider;
     this.resolvers = resolvers;
+    this.threads = threads;
   }
 
   /*
@@ -86,18 +106,38 @@ public class Resolver {
    */
   public void resolveAll(@NotNull ResolutionScope scope)
       throws IOException, NoSuchAlgorithmException {
-    // Progressively resolve dependencies
-    while (!scope.isResolutionComplete()) {
-      for (SoftNameDependency softname : scope.getUnresolvedReferences()) {
-        ResolvedManifest resolved = resolveAny(softname);
-        if (resolved == null) {
-          scope.recordUnresolvable(softname);
-        } else {
-          List<HardNameDependency> transitive =
-              CDepManifestYmlUtils.getTransitiveDependencies(resolved.cdepManifestYml);
-          scope.recordResolved(softname, resolved, transitive);
+    ExecutorService executor = null;
+    try {
+      // Progressively resolve dependencies one frontier at a time
+      while (!scope.isResolutionComplete()) {
+        List<SoftNameDependency> frontier = new ArrayList<>(scope.getUnresolvedReferences());
+        if (executor == null && threads > 1 && frontier.size() > 1) {
+          executor = ConcurrencyUtils.newDaemonThreadPool("cdep-resolver", threads);
+        }
+        if (executor == null) {
+          for (SoftNameDependency softname : frontier) {
+            record(scope, softname, resolveAny(softname));
+          }
+          continue;
+        }
+        List<Future<ErrorScopedTask.Result<ResolvedManifest>>> futures = new ArrayList<>();
+        for (final SoftNameDependency softname : frontier) {
+          futures.add(executor.submit(new ErrorScopedTask<ResolvedManifest>() {
+            @Override
+            protected ResolvedManifest run() throws Exception {
+              return resolveAny(softname);
+            }
+          }));
+        }
+
+        // Record into the scope in frontier order so that edges and unification winners come out
+        // the same as they would from a serial resolution.
+        for (int i = 0; i < frontier.size(); ++i) {
+          record(scope, frontier.get(i), ConcurrencyUtils.await(futures.get(i)));
         }
       }
+    } finally {
+      ConcurrencyUtils.shutdown(executor);
     }
 
     // Throw some exceptions if we didn't resolve something.
@@ -136,4 +176,20 @@ public class Resolver {
     }
     return resolved;
   }
+
+  /*
+   * Record the result of resolving a single reference into the scope.
+   */
+  private static void record(
+      @NotNull ResolutionScope scope,
+      @NotNull SoftNameDependency softname,
+      @Nullable ResolvedManifest resolved) {
+    if (resolved == null) {
+      scope.recordUnresolvable(softname);
+    } else {
+      List<HardNameDependency> transitive =
+          CDepManifestYmlUtils.getTransitiveDependencies(resolved.cdepManifestYml);
+      scope.recordResolved(softname, resolved, transitive);
+    }
+  }
 }
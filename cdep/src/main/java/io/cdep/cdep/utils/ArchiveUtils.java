@@ -17,61 +17,282 @@ package io.cdep.cdep.utils;
 
 import io.cdep.annotations.NotNull;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Enumeration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
 public class ArchiveUtils {
+  // Archives with fewer files than this are unzipped on the calling thread
+  final private static int PARALLEL_UNZIP_MIN_FILES = 64;
+  final private static int UNZIP_BUFFER_SIZE = 256 * 1024;
+  final private static int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  final private static int LOCAL_HEADER_SIZE = 30;
+  final private static int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  final private static int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  final private static int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  final private static int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
 
   /*
-   * Unzip the given file.
+   * Unzip the given file using one thread per core. Returns the number of bytes written.
    */
-  public static void unzip(@NotNull File localArchive, @NotNull File localUnzipFolder) throws IOException {
-    ZipFile zipFile = new ZipFile(localArchive.getPath());
-    Enumeration<?> enu = zipFile.entries();
-    while (enu.hasMoreElements()) {
-      ZipEntry zipEntry = (ZipEntry) enu.nextElement();
+  public static long unzip(@NotNull File localArchive, @NotNull File localUnzipFolder) throws IOException {
+    return unzip(localArchive, localUnzipFolder, Runtime.getRuntime().availableProcessors());
+  }
 
-      String name = zipEntry.getName();
-      //            long size = zipEntry.getSize();
-      //            long compressedSize = zipEntry.getCompressedSize();
-      //            System.out.printf("name: %-20s | size: %6d | compressed size: %6d\n",
-      //                name, size, compressedSize);
+  /*
+   * Unzip the given file. Folders are all created first and then files are split across up to the
+   * given number of threads, largest first. Each thread opens the archive itself so that entries
+   * are read and inflated independently. Returns only after every file has been written, so a
+   * completion sentinel written afterward is trustworthy.
+   *
+   * Entries that are stored without compression aren't read through ZipFile. Their bytes are
+   * copied straight from the archive with FileChannel.transferTo. Returns the number of bytes
+   * written.
+   */
+  public static long unzip(@NotNull final File localArchive, @NotNull final File localUnzipFolder, int threads)
+      throws IOException {
+    // Read the central directory once. A later entry with the same name wins as it would when
+    // entries are written in order.
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    Set<File> folders = new TreeSet<>();
+    try (ZipFile zipFile = new ZipFile(localArchive)) {
+      Enumeration<? extends ZipEntry> enu = zipFile.entries();
+      while (enu.hasMoreElements()) {
+        ZipEntry zipEntry = enu.nextElement();
+        String name = zipEntry.getName();
+        File file = new File(localUnzipFolder, name);
+        if (name.endsWith("/")) {
+          folders.add(file);
+          continue;
+        }
+        File parent = file.getParentFile();
+        if (parent != null) {
+          folders.add(parent);
+        }
+        sizes.remove(name);
+        sizes.put(name, zipEntry.getSize());
+      }
+    }
 
-      File file = new File(localUnzipFolder, name);
-      if (name.endsWith("/")) {
+    // Create all folders up front so that writers never race to create them. Folders are sorted so
+    // a parent comes before its children and usually only the leaf needs to be created.
+    for (File folder : folders) {
+      if (!folder.isDirectory()) {
         //noinspection ResultOfMethodCallIgnored
-        file.mkdirs();
-        continue;
+        folder.mkdirs();
+      }
+    }
+
+    final Map<String, Long> storedOffsets = getStoredEntryOffsets(localArchive);
+    final List<String> names = new ArrayList<>(sizes.keySet());
+    final Map<String, Long> entrySizes = sizes;
+    final AtomicLong written = new AtomicLong();
+    if (names.size() < PARALLEL_UNZIP_MIN_FILES || threads < 2) {
+      writeEntries(localArchive, localUnzipFolder, names, entrySizes, storedOffsets, new AtomicInteger(), written);
+      return written.get();
+    }
+
+    // Largest files first so that one big library doesn't end up last on a single thread.
+    Collections.sort(names, new Comparator<String>() {
+      @Override
+      public int compare(String left, String right) {
+        return Long.compare(entrySizes.get(right), entrySizes.get(left));
+      }
+    });
+    final AtomicInteger next = new AtomicInteger();
+    int workers = Math.min(threads, names.size() / (PARALLEL_UNZIP_MIN_FILES / 2));
+    ExecutorService executor = ConcurrencyUtils.newDaemonThreadPool("cdep-unzip", workers);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; ++i) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            writeEntries(localArchive, localUnzipFolder, names, entrySizes, storedOffsets, next, written);
+            return null;
+          }
+        }));
       }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while unzipping " + localArchive, e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      ConcurrencyUtils.shutdown(executor);
+    }
+    return written.get();
+  }
 
-      File parent = file.getParentFile();
-      if (parent != null) {
+  /*
+   * Write files from the archive, taking the next unclaimed name each time, until there are none
+   * left. Their folders must already exist.
+   */
+  private static void writeEntries(
+      @NotNull File localArchive,
+      @NotNull File localUnzipFolder,
+      @NotNull List<String> names,
+      @NotNull Map<String, Long> sizes,
+      @NotNull Map<String, Long> storedOffsets,
+      @NotNull AtomicInteger next,
+      @NotNull AtomicLong written) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(UNZIP_BUFFER_SIZE);
+    try (ZipFile zipFile = new ZipFile(localArchive);
+         FileChannel in = FileChannel.open(localArchive.toPath(), READ)) {
+      for (int i = next.getAndIncrement(); i < names.size(); i = next.getAndIncrement()) {
+        String name = names.get(i);
+        File file = new File(localUnzipFolder, name);
+        // The file may be a link to content shared with other folders so replace it rather than
+        // writing through it.
         //noinspection ResultOfMethodCallIgnored
-        parent.mkdirs();
+        file.delete();
+        try (FileChannel out = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+          Long offset = storedOffsets.get(name);
+          if (offset != null) {
+            long size = sizes.get(name);
+            long position = 0;
+            while (position < size) {
+              long transferred = in.transferTo(offset + position, size - position, out);
+              if (transferred <= 0) {
+                throw new IOException(String.format("Archive %s ended inside of %s", localArchive, name));
+              }
+              position += transferred;
+            }
+            written.addAndGet(size);
+            continue;
+          }
+          try (InputStream is = zipFile.getInputStream(zipFile.getEntry(name))) {
+            int length;
+            while ((length = is.read(buffer.array())) >= 0) {
+              buffer.clear();
+              buffer.limit(length);
+              while (buffer.hasRemaining()) {
+                out.write(buffer);
+              }
+              written.addAndGet(length);
+            }
+          }
+        }
       }
+    }
+  }
+
+  /*
+   * Return the offset of the data of each entry that is stored without compression. Offsets are
+   * read from the central directory and each entry's local header. Archives that need Zip64 or
+   * that don't parse return no offsets and all of their entries are read through ZipFile. So do
+   * names that appear more than once, because ZipFile may pick a different one of the entries.
+   */
+  @NotNull
+  static Map<String, Long> getStoredEntryOffsets(@NotNull File localArchive) throws IOException {
+    Map<String, Long> result = new HashMap<>();
+    Set<String> seen = new HashSet<>();
+    Set<String> duplicates = new HashSet<>();
+    try (FileChannel channel = FileChannel.open(localArchive.toPath(), READ)) {
+      // The end of central directory record is the last 22 bytes unless there's a trailing comment
+      long length = channel.size();
+      int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+      ByteBuffer tail = readFully(channel, length - tailLength, tailLength);
+      int end = -1;
+      for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+        if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) {
+        return result;
+      }
+      long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+      long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+      if (directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL
+          || directoryOffset + directorySize > length) {
+        return result;
+      }
+      ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+      int position = 0;
+      while (position + CENTRAL_DIRECTORY_HEADER_SIZE <= directorySize
+          && directory.getInt(position) == CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+        int flags = directory.getShort(position + 8) & 0xFFFF;
+        int method = directory.getShort(position + 10) & 0xFFFF;
+        long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+        long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+        int nameLength = directory.getShort(position + 28) & 0xFFFF;
+        int extraLength = directory.getShort(position + 30) & 0xFFFF;
+        int commentLength = directory.getShort(position + 32) & 0xFFFF;
+        long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+        if (position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength > directorySize) {
+          break;
+        }
+        byte nameBytes[] = new byte[nameLength];
+        directory.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+        directory.get(nameBytes);
+        // ZipFile decodes names as UTF-8 too
+        String name = new String(nameBytes, UTF_8);
+        if (!seen.add(name)) {
+          duplicates.add(name);
+        }
+        // Encrypted entries and sizes that need Zip64 are left to ZipFile
+        boolean encrypted = (flags & 1) != 0;
+        if (method == ZipEntry.STORED && !encrypted && compressedSize == size && size != 0xFFFFFFFFL
+            && localHeaderOffset + LOCAL_HEADER_SIZE <= length) {
+          ByteBuffer local = readFully(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+          if (local.getInt(0) == LOCAL_HEADER_SIGNATURE) {
+            long offset = localHeaderOffset + LOCAL_HEADER_SIZE
+                + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+            if (offset + size <= length) {
+              result.put(name, offset);
+            }
+          }
+        }
+        position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+    }
+    result.keySet().removeAll(duplicates);
+    return result;
+  }
 
-      InputStream is = zipFile.getInputStream(zipEntry);
-      FileOutputStream fos = new FileOutputStream(file);
-      byte[] bytes = new byte[1024];
-      int length;
-      while ((length = is.read(bytes)) >= 0) {
-        fos.write(bytes, 0, length);
+  @NotNull
+  private static ByteBuffer readFully(@NotNull FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException();
       }
-      is.close();
-      fos.close();
     }
-    zipFile.close();
+    buffer.clear();
+    return buffer;
   }
 
   public static void pack(@NotNull final Path folder, @NotNull final Path zipFilePath) throws IOException {
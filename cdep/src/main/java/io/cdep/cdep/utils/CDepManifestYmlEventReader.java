@@ -0,0 +1,653 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.Version;
+import io.cdep.cdep.yml.cdepmanifest.*;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static io.cdep.cdep.Coordinate.EMPTY_COORDINATE;
+
+/*
+ * Read a cdep-manifest.yml of the current version straight from the YAML event stream, in the
+ * style of PrimitiveOnlyYamlParser for cdep.yml. The manifest and the location of each of its
+ * values come out of the same pass. Values are defaulted the same way ConvertNullToDefaultRewriter
+ * would default them.
+ *
+ * Anything outside the current format throws UnsupportedSyntax as soon as it is seen, so that the
+ * caller can fall back to the versioned readers. That includes keys of older manifest versions,
+ * anchors, aliases, explicit tags, null list elements and YAML syntax errors.
+ */
+final class CDepManifestYmlEventReader {
+  private static final Pattern NULL = Pattern.compile("~|null|Null|NULL| |");
+  private static final Pattern INTEGER = Pattern.compile("[-+]?(0|[1-9][0-9]*)");
+  @NotNull
+  private final Iterator<Event> events;
+  @NotNull
+  private final Map<Object, Mark> marks;
+
+  private CDepManifestYmlEventReader(@NotNull Iterator<Event> events, @NotNull Map<Object, Mark> marks) {
+    this.events = events;
+    this.marks = marks;
+  }
+
+  /*
+   * Read the manifest in content. The start of each value in the file is put in marks, keyed by
+   * the value, for error messages.
+   */
+  @NotNull
+  static CDepManifestYml read(@NotNull String content, @NotNull Map<Object, Mark> marks) {
+    Iterator<Event> events = new Yaml().parse(new StringReader(content)).iterator();
+    try {
+      return new CDepManifestYmlEventReader(events, marks).readStream();
+    } catch (YAMLException e) {
+      throw new UnsupportedSyntax(e.getMessage());
+    }
+  }
+
+  @NotNull
+  private CDepManifestYml readStream() {
+    expect(next(), StreamStartEvent.class);
+    // An empty stream has no document at all
+    expect(next(), DocumentStartEvent.class);
+    CDepManifestYml manifest = readManifest(next());
+    expect(next(), DocumentEndEvent.class);
+    expect(next(), StreamEndEvent.class);
+    return manifest;
+  }
+
+  @NotNull
+  private CDepManifestYml readManifest(@NotNull Event start) {
+    expectMapping(start);
+    Coordinate coordinate = new Coordinate("", "", new Version(""));
+    HardNameDependency dependencies[] = new HardNameDependency[0];
+    License license = new License();
+    Interfaces interfaces = null;
+    Android android = null;
+    iOS ios = null;
+    Linux linux = null;
+    String example = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "coordinate":
+          coordinate = isNull(value) ? EMPTY_COORDINATE : readCoordinate(value);
+          mark(coordinate, value);
+          break;
+        case "dependencies":
+          dependencies = isNull(value) ? new HardNameDependency[0] : readHardNameDependencies(value);
+          mark(dependencies, value);
+          break;
+        case "license":
+          license = isNull(value) ? new License() : readLicense(value);
+          mark(license, value);
+          break;
+        case "interfaces":
+          interfaces = isNull(value) ? null : readInterfaces(value);
+          mark(interfaces, value);
+          break;
+        case "android":
+          android = isNull(value) ? null : readAndroid(value);
+          mark(android, value);
+          break;
+        case "iOS":
+          ios = isNull(value) ? null : readiOS(value);
+          mark(ios, value);
+          break;
+        case "linux":
+          linux = isNull(value) ? null : readLinux(value);
+          mark(linux, value);
+          break;
+        case "example":
+          example = mark(readString(value, ""), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    CDepManifestYml manifest = new CDepManifestYml(
+        CDepManifestYmlVersion.vlatest,
+        coordinate,
+        dependencies,
+        license,
+        interfaces,
+        android,
+        ios,
+        linux,
+        example);
+    mark(manifest, start);
+    return manifest;
+  }
+
+  @NotNull
+  private Coordinate readCoordinate(@NotNull Event start) {
+    expectMapping(start);
+    String groupId = "";
+    String artifactId = "";
+    Version version = new Version("");
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "groupId":
+          groupId = mark(readString(value, ""), value);
+          break;
+        case "artifactId":
+          artifactId = mark(readString(value, ""), value);
+          break;
+        case "version":
+          version = mark(new Version(readString(value, "")), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new Coordinate(groupId, artifactId, version);
+  }
+
+  @NotNull
+  private HardNameDependency[] readHardNameDependencies(@NotNull Event start) {
+    List<HardNameDependency> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      result.add(mark(readHardNameDependency(element), element));
+    }
+    return result.toArray(new HardNameDependency[result.size()]);
+  }
+
+  @NotNull
+  private HardNameDependency readHardNameDependency(@NotNull Event start) {
+    expectMapping(start);
+    String compile = "";
+    String sha256 = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "compile":
+          compile = mark(readString(value, ""), value);
+          break;
+        case "sha256":
+          sha256 = mark(readString(value, ""), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new HardNameDependency(compile, sha256);
+  }
+
+  @NotNull
+  private License readLicense(@NotNull Event start) {
+    expectMapping(start);
+    String name = "";
+    String url = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "name":
+          name = mark(readString(value, null), value);
+          break;
+        case "url":
+          url = mark(readString(value, null), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new License(name, url);
+  }
+
+  @NotNull
+  private Interfaces readInterfaces(@NotNull Event start) {
+    expectMapping(start);
+    Archive headers = null;
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "headers":
+          headers = isNull(value) ? null : readArchive(value);
+          mark(headers, value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new Interfaces(headers);
+  }
+
+  @NotNull
+  private Archive readArchive(@NotNull Event start) {
+    expectMapping(start);
+    String file = "";
+    String sha256 = "";
+    Long size = 0L;
+    String include = "";
+    CxxLanguageFeatures requires[] = new CxxLanguageFeatures[0];
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "file":
+          file = mark(readString(value, ""), value);
+          break;
+        case "sha256":
+          sha256 = mark(readString(value, ""), value);
+          break;
+        case "size":
+          size = mark(readLong(value), value);
+          break;
+        case "include":
+          include = mark(readString(value, ""), value);
+          break;
+        case "requires":
+          requires = isNull(value) ? new CxxLanguageFeatures[0] : readRequires(value);
+          mark(requires, value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new Archive(file, sha256, size, include, requires);
+  }
+
+  @NotNull
+  private CxxLanguageFeatures[] readRequires(@NotNull Event start) {
+    List<CxxLanguageFeatures> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      CxxLanguageFeatures feature = readEnum(element, CxxLanguageFeatures.class);
+      if (feature == null) {
+        throw new UnsupportedSyntax(element);
+      }
+      result.add(mark(feature, element));
+    }
+    return result.toArray(new CxxLanguageFeatures[result.size()]);
+  }
+
+  @NotNull
+  private Android readAndroid(@NotNull Event start) {
+    expectMapping(start);
+    HardNameDependency dependencies[] = new HardNameDependency[0];
+    AndroidArchive archives[] = new AndroidArchive[0];
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "dependencies":
+          dependencies = isNull(value) ? null : readHardNameDependencies(value);
+          mark(dependencies, value);
+          break;
+        case "archives":
+          archives = isNull(value) ? null : readAndroidArchives(value);
+          mark(archives, value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new Android(dependencies, archives);
+  }
+
+  @NotNull
+  private AndroidArchive[] readAndroidArchives(@NotNull Event start) {
+    List<AndroidArchive> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      result.add(mark(readAndroidArchive(element), element));
+    }
+    return result.toArray(new AndroidArchive[result.size()]);
+  }
+
+  @NotNull
+  private AndroidArchive readAndroidArchive(@NotNull Event start) {
+    expectMapping(start);
+    String file = "";
+    String sha256 = "";
+    long size = 0L;
+    String ndk = "";
+    String compiler = "";
+    String runtime = "";
+    String platform = "";
+    String builder = "";
+    AndroidABI abi = new AndroidABI("");
+    String include = "";
+    String libs[] = new String[0];
+    String flavor = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "file":
+          file = mark(readString(value, ""), value);
+          break;
+        case "sha256":
+          sha256 = mark(readString(value, ""), value);
+          break;
+        case "size":
+          size = mark(readLong(value), value);
+          break;
+        case "ndk":
+          ndk = mark(readString(value, ""), value);
+          break;
+        case "compiler":
+          compiler = mark(readString(value, ""), value);
+          break;
+        case "runtime":
+          runtime = mark(readString(value, ""), value);
+          break;
+        case "platform":
+          platform = mark(readString(value, ""), value);
+          break;
+        case "builder":
+          builder = mark(readString(value, ""), value);
+          break;
+        case "abi":
+          abi = mark(new AndroidABI(readString(value, "")), value);
+          break;
+        case "include":
+          include = mark(readString(value, ""), value);
+          break;
+        case "libs":
+          libs = mark(readStrings(value), value);
+          break;
+        case "flavor":
+          flavor = mark(readString(value, ""), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new AndroidArchive(file, sha256, size, ndk, compiler, runtime, platform, builder, abi, include, libs,
+        flavor);
+  }
+
+  @NotNull
+  private iOS readiOS(@NotNull Event start) {
+    expectMapping(start);
+    HardNameDependency dependencies[] = null;
+    iOSArchive archives[] = null;
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "dependencies":
+          dependencies = isNull(value) ? null : readHardNameDependencies(value);
+          mark(dependencies, value);
+          break;
+        case "archives":
+          archives = isNull(value) ? null : readiOSArchives(value);
+          mark(archives, value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new iOS(dependencies, archives);
+  }
+
+  @NotNull
+  private iOSArchive[] readiOSArchives(@NotNull Event start) {
+    List<iOSArchive> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      result.add(mark(readiOSArchive(element), element));
+    }
+    return result.toArray(new iOSArchive[result.size()]);
+  }
+
+  @NotNull
+  private iOSArchive readiOSArchive(@NotNull Event start) {
+    expectMapping(start);
+    String file = "";
+    String sha256 = "";
+    Long size = 0L;
+    iOSPlatform platform = null;
+    iOSArchitecture architecture = null;
+    String sdk = "";
+    String include = "";
+    String libs[] = new String[0];
+    String flavor = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "file":
+          file = mark(readString(value, ""), value);
+          break;
+        case "sha256":
+          sha256 = mark(readString(value, ""), value);
+          break;
+        case "size":
+          size = mark(readLong(value), value);
+          break;
+        case "platform":
+          platform = mark(readEnum(value, iOSPlatform.class), value);
+          break;
+        case "architecture":
+          architecture = mark(readEnum(value, iOSArchitecture.class), value);
+          break;
+        case "sdk":
+          sdk = mark(readString(value, ""), value);
+          break;
+        case "include":
+          include = mark(readString(value, ""), value);
+          break;
+        case "libs":
+          libs = mark(readStrings(value), value);
+          break;
+        case "flavor":
+          flavor = mark(readString(value, ""), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new iOSArchive(file, sha256, size, platform, architecture, sdk, include, libs, flavor);
+  }
+
+  @NotNull
+  private Linux readLinux(@NotNull Event start) {
+    expectMapping(start);
+    LinuxArchive archives[] = new LinuxArchive[0];
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "archives":
+          archives = isNull(value) ? new LinuxArchive[0] : readLinuxArchives(value);
+          mark(archives, value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new Linux(archives);
+  }
+
+  @NotNull
+  private LinuxArchive[] readLinuxArchives(@NotNull Event start) {
+    List<LinuxArchive> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      result.add(mark(readLinuxArchive(element), element));
+    }
+    return result.toArray(new LinuxArchive[result.size()]);
+  }
+
+  @NotNull
+  private LinuxArchive readLinuxArchive(@NotNull Event start) {
+    expectMapping(start);
+    String file = "";
+    String sha256 = "";
+    Long size = 0L;
+    String libs[] = new String[0];
+    String include = "";
+    for (Event key = next(); !(key instanceof MappingEndEvent); key = next()) {
+      Event value = next();
+      switch (readKey(key)) {
+        case "file":
+          file = mark(readString(value, ""), value);
+          break;
+        case "sha256":
+          sha256 = mark(readString(value, ""), value);
+          break;
+        case "size":
+          size = mark(readLong(value), value);
+          break;
+        case "libs":
+          libs = mark(readStrings(value), value);
+          break;
+        case "include":
+          include = mark(readString(value, ""), value);
+          break;
+        default:
+          throw new UnsupportedSyntax(key);
+      }
+    }
+    return new LinuxArchive(file, sha256, size, libs, include);
+  }
+
+  @NotNull
+  private String[] readStrings(@NotNull Event start) {
+    if (isNull(start)) {
+      return new String[0];
+    }
+    List<String> result = new ArrayList<>();
+    expectSequence(start);
+    for (Event element = next(); !(element instanceof SequenceEndEvent); element = next()) {
+      String string = readString(element, null);
+      if (string == null) {
+        throw new UnsupportedSyntax(element);
+      }
+      result.add(mark(string, element));
+    }
+    return result.toArray(new String[result.size()]);
+  }
+
+  /*
+   * A scalar as text. Plain scalars that YAML reads as numbers or booleans are kept as they were
+   * written, the same as a String field read by SnakeYAML.
+   */
+  @Nullable
+  private String readString(@NotNull Event event, @Nullable String whenNull) {
+    if (isNull(event)) {
+      return whenNull;
+    }
+    return expectScalar(event).getValue();
+  }
+
+  @NotNull
+  private Long readLong(@NotNull Event event) {
+    if (isNull(event)) {
+      return 0L;
+    }
+    ScalarEvent scalar = expectScalar(event);
+    if (!scalar.isPlain() || !INTEGER.matcher(scalar.getValue()).matches()) {
+      throw new UnsupportedSyntax(event);
+    }
+    try {
+      return Long.parseLong(scalar.getValue());
+    } catch (NumberFormatException e) {
+      throw new UnsupportedSyntax(event);
+    }
+  }
+
+  @Nullable
+  private <T extends Enum<T>> T readEnum(@NotNull Event event, @NotNull Class<T> type) {
+    if (isNull(event)) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(type, expectScalar(event).getValue());
+    } catch (IllegalArgumentException e) {
+      throw new UnsupportedSyntax(event);
+    }
+  }
+
+  @NotNull
+  private String readKey(@NotNull Event event) {
+    return expectScalar(event).getValue();
+  }
+
+  private boolean isNull(@NotNull Event event) {
+    if (!(event instanceof ScalarEvent)) {
+      return false;
+    }
+    ScalarEvent scalar = expectScalar(event);
+    return scalar.isPlain() && NULL.matcher(scalar.getValue()).matches();
+  }
+
+  @NotNull
+  private ScalarEvent expectScalar(@NotNull Event event) {
+    ScalarEvent scalar = expect(event, ScalarEvent.class);
+    if (scalar.getAnchor() != null || scalar.getTag() != null) {
+      throw new UnsupportedSyntax(event);
+    }
+    return scalar;
+  }
+
+  private void expectMapping(@NotNull Event event) {
+    MappingStartEvent mapping = expect(event, MappingStartEvent.class);
+    if (mapping.getAnchor() != null || mapping.getTag() != null) {
+      throw new UnsupportedSyntax(event);
+    }
+  }
+
+  private void expectSequence(@NotNull Event event) {
+    SequenceStartEvent sequence = expect(event, SequenceStartEvent.class);
+    if (sequence.getAnchor() != null || sequence.getTag() != null) {
+      throw new UnsupportedSyntax(event);
+    }
+  }
+
+  @NotNull
+  private static <T extends Event> T expect(@NotNull Event event, @NotNull Class<T> type) {
+    if (!type.isInstance(event)) {
+      throw new UnsupportedSyntax(event);
+    }
+    return type.cast(event);
+  }
+
+  @NotNull
+  private Event next() {
+    return events.next();
+  }
+
+  private <T> T mark(T value, @NotNull Event event) {
+    marks.put(value, event.getStartMark());
+    return value;
+  }
+
+  /*
+   * The manifest uses something this reader doesn't handle. It should be read by the versioned
+   * readers instead.
+   */
+  static class UnsupportedSyntax extends RuntimeException {
+    UnsupportedSyntax(@NotNull Event event) {
+      super(event.toString());
+    }
+
+    UnsupportedSyntax(@NotNull String message) {
+      super(message);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import io.cdep.cdep.yml.cdepmanifest.*;
 import io.cdep.cdep.yml.cdepmanifest.v3.V3Reader;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.error.Mark;
 import org.yaml.snakeyaml.error.YAMLException;
 import org.yaml.snakeyaml.nodes.Node;
 
@@ -43,6 +44,20 @@ public class CDepManifestYmlUtils {
   @NotNull
   public static CDepManifestYml convertStringToManifest(@NotNull String url, @NotNull String content) {
     Invariant.registerYamlFile(url);
+    Map<Object, Mark> marks = new LinkedHashMap<>();
+    CDepManifestYml manifest;
+    try {
+      manifest = CDepManifestYmlEventReader.read(content, marks);
+    } catch (CDepManifestYmlEventReader.UnsupportedSyntax e) {
+      // Older manifest versions, and YAML the event reader doesn't handle, go through the versioned readers
+      return convertStringToManifestWithVersionedReaders(url, content);
+    }
+    Invariant.registerYamlMarks(url, marks);
+    return manifest;
+  }
+
+  @NotNull
+  static CDepManifestYml convertStringToManifestWithVersionedReaders(@NotNull String url, @NotNull String content) {
     Yaml yaml = new Yaml(new Constructor(CDepManifestYml.class));
     CDepManifestYml manifest;
     byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Methods for running work on background threads.
+ */
+public class ConcurrencyUtils {
+
+  /*
+   * Create a fixed size thread pool. Threads are daemons so that a pool that wasn't shut down
+   * won't keep the process alive.
+   */
+  @NotNull
+  public static ExecutorService newDaemonThreadPool(@NotNull final String name, int threads) {
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /*
+   * Wait for an ErrorScopedTask to finish and return its value. Errors it collected are reported
+   * into the current error collection scope.
+   */
+  @Nullable
+  public static <T> T await(@NotNull Future<ErrorScopedTask.Result<T>> future)
+      throws IOException, NoSuchAlgorithmException {
+    ErrorScopedTask.Result<T> result;
+    try {
+      result = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for background work", e);
+    } catch (ExecutionException e) {
+      // ErrorScopedTask catches everything so this is unreachable outside of bugs
+      throw new RuntimeException(e.getCause());
+    }
+    return result.get();
+  }
+
+  /*
+   * Shut down an executor that may be null.
+   */
+  public static void shutdown(@Nullable ExecutorService executor) {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/*
+ * Files and folders stored by the SHA256 of the archive they came from. Identical archives
+ * published under several coordinates are then only stored once.
+ *
+ * The usual per-coordinate files are views onto the store. A view is a hard link where the file
+ * system supports it, a symbolic link otherwise and a copy as a last resort. Entries are written
+ * under a temporary name and renamed into place so a partially written entry is never visible.
+ * Entries that no longer back any view are removed by collectGarbage.
+ */
+public class ContentAddressedStore {
+  @NotNull
+  final public File root;
+
+  public ContentAddressedStore(@NotNull File root) {
+    this.root = root.getAbsoluteFile();
+  }
+
+  /*
+   * Return the location of the entry for the given SHA256. It may not exist.
+   */
+  @NotNull
+  public File getEntry(@NotNull String sha256) {
+    return new File(new File(root, sha256.substring(0, Math.min(2, sha256.length()))), sha256);
+  }
+
+  /*
+   * Make the given file a view of the file entry for sha256 if there is one with the expected
+   * size. Returns false if the store has no such entry.
+   */
+  public boolean tryLinkFile(@NotNull String sha256, long size, @NotNull File view) throws IOException {
+    File entry = getEntry(sha256);
+    if (!entry.isFile() || entry.length() != size) {
+      return false;
+    }
+    if (!isSameFile(entry, view)) {
+      //noinspection ResultOfMethodCallIgnored
+      view.getAbsoluteFile().getParentFile().mkdirs();
+      replaceWithView(entry, view, true);
+    }
+    return true;
+  }
+
+  /*
+   * Add a file whose content is known to have the given SHA256 to the store. If the store already
+   * has that content then the file is replaced with a view of it and true is returned. Otherwise
+   * the file becomes the store's copy.
+   */
+  public boolean addFile(@NotNull String sha256, @NotNull File file) throws IOException {
+    File entry = getEntry(sha256);
+    if (!entry.isFile()) {
+      //noinspection ResultOfMethodCallIgnored
+      entry.getParentFile().mkdirs();
+      // If another process stores the same content at the same time then either copy may win. The
+      // store's copy can't be a symbolic link because the file it points to may be deleted.
+      replaceWithView(file, entry, false);
+      return false;
+    }
+    if (isSameFile(entry, file)) {
+      return false;
+    }
+    replaceWithView(entry, file, true);
+    return true;
+  }
+
+  /*
+   * Add a folder, for example an exploded archive, to the store. The folder is moved into the
+   * store. If the store already had that content then the folder is deleted instead. An existing
+   * entry is only replaced when it is damaged, that is when its files or their sizes differ from
+   * the folder's, because views onto it from other folders may be symbolic links.
+   */
+  @NotNull
+  public File addFolder(@NotNull String sha256, @NotNull File folder) throws IOException {
+    File entry = getEntry(sha256);
+    //noinspection ResultOfMethodCallIgnored
+    entry.getParentFile().mkdirs();
+    if (entry.isDirectory()) {
+      if (getFileSizes(entry).equals(getFileSizes(folder))) {
+        deleteTree(folder);
+        return entry;
+      }
+      // Move the damaged entry aside first because a non-empty folder can't be replaced atomically.
+      File prior = newTemporary(entry);
+      Files.move(entry.toPath(), prior.toPath(), ATOMIC_MOVE);
+      deleteTree(prior);
+    }
+    try {
+      Files.move(folder.toPath(), entry.toPath(), ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+      // Another process stored the same content first.
+      deleteTree(folder);
+    }
+    return entry;
+  }
+
+  @NotNull
+  private static Map<String, Long> getFileSizes(@NotNull File folder) {
+    Map<String, Long> sizes = new HashMap<>();
+    Path root = folder.toPath();
+    for (File file : FileUtils.listFileTree(folder)) {
+      sizes.put(root.relativize(file.toPath()).toString(), file.length());
+    }
+    return sizes;
+  }
+
+  /*
+   * Return a new empty folder in the store that can be filled and then passed to addFolder.
+   */
+  @NotNull
+  public File newTemporaryFolder(@NotNull String sha256) throws IOException {
+    File entry = getEntry(sha256);
+    //noinspection ResultOfMethodCallIgnored
+    entry.getParentFile().mkdirs();
+    return Files.createTempDirectory(entry.getParentFile().toPath(), entry.getName() + ".").toFile();
+  }
+
+  /*
+   * Make each file under the folder entry for sha256 a view at the same relative location under
+   * the given folder. Files already in the view folder that aren't in the entry are left alone.
+   */
+  public void linkFolder(@NotNull String sha256, @NotNull File view) throws IOException {
+    File entry = getEntry(sha256);
+    Path entryPath = entry.toPath();
+    for (File file : FileUtils.listFileTree(entry)) {
+      File target = new File(view, entryPath.relativize(file.toPath()).toString());
+      if (!isSameFile(file, target)) {
+        //noinspection ResultOfMethodCallIgnored
+        target.getParentFile().mkdirs();
+        replaceWithView(file, target, true);
+      }
+    }
+  }
+
+  /*
+   * Delete entries that no longer back any view under the given folders. Returns the number of
+   * entries deleted. An entry is kept if it can't be determined whether it backs a view.
+   */
+  public int collectGarbage(@NotNull File... viewFolders) throws IOException {
+    Set<Object> fileKeys = new HashSet<>();
+    Set<Path> linkTargets = new HashSet<>();
+    for (File viewFolder : viewFolders) {
+      collectViews(viewFolder.getAbsoluteFile(), fileKeys, linkTargets);
+    }
+    int deleted = 0;
+    File shards[] = root.listFiles();
+    if (shards == null) {
+      return 0;
+    }
+    for (File shard : shards) {
+      File entries[] = shard.listFiles();
+      if (entries == null) {
+        continue;
+      }
+      for (File entry : entries) {
+        if (!backsView(entry, fileKeys, linkTargets)) {
+          deleteTree(entry);
+          ++deleted;
+        }
+      }
+    }
+    return deleted;
+  }
+
+  private void collectViews(@NotNull File folder, @NotNull Set<Object> fileKeys, @NotNull Set<Path> linkTargets)
+      throws IOException {
+    File files[] = folder.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.equals(root)) {
+        continue;
+      }
+      Path path = file.toPath();
+      if (Files.isSymbolicLink(path)) {
+        try {
+          linkTargets.add(path.toRealPath());
+        } catch (NoSuchFileException e) {
+          // A dangling link doesn't keep anything alive
+        }
+      } else if (file.isDirectory()) {
+        collectViews(file, fileKeys, linkTargets);
+      } else {
+        Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        if (fileKey != null) {
+          fileKeys.add(fileKey);
+        }
+      }
+    }
+  }
+
+  private static boolean backsView(@NotNull File entry, @NotNull Set<Object> fileKeys,
+      @NotNull Set<Path> linkTargets) throws IOException {
+    if (entry.getName().contains(".")) {
+      // A temporary entry. It may belong to a cdep process that is still running.
+      return true;
+    }
+    Collection<File> files = entry.isDirectory() ? FileUtils.listFileTree(entry) : Collections.singleton(entry);
+    for (File file : files) {
+      Path path = file.toPath();
+      Object fileKey = Files.readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS).fileKey();
+      if (fileKey == null || fileKeys.contains(fileKey) || linkTargets.contains(path.toRealPath())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isSameFile(@NotNull File entry, @NotNull File view) throws IOException {
+    return view.exists() && Files.isSameFile(entry.toPath(), view.toPath());
+  }
+
+  /*
+   * Replace whatever is at location with a view of existing. The view is created under a
+   * temporary name and renamed over the original so readers never see a missing file.
+   */
+  private static void replaceWithView(@NotNull File existing, @NotNull File location, boolean allowSymbolicLink)
+      throws IOException {
+    File temp = newTemporary(location);
+    try {
+      createView(existing, temp, allowSymbolicLink);
+      Files.move(temp.toPath(), location.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+    }
+  }
+
+  private static void createView(@NotNull File existing, @NotNull File location, boolean allowSymbolicLink)
+      throws IOException {
+    try {
+      Files.createLink(location.toPath(), existing.toPath());
+      return;
+    } catch (UnsupportedOperationException | IOException e) {
+      // For example, the store and the view are on different devices
+    }
+    if (allowSymbolicLink) {
+      try {
+        Files.createSymbolicLink(location.toPath(), existing.toPath());
+        return;
+      } catch (UnsupportedOperationException | IOException e) {
+        // For example, the user doesn't have permission to create symbolic links
+      }
+    }
+    FileUtils.copyFile(existing, location);
+  }
+
+  @NotNull
+  private static File newTemporary(@NotNull File file) {
+    return new File(file.getParentFile(), String.format("%s.%s.tmp", file.getName(), UUID.randomUUID()));
+  }
+
+  private static void deleteTree(@NotNull File file) {
+    if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+      File children[] = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          deleteTree(child);
+        }
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
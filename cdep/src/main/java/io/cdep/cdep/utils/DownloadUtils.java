@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+import io.cdep.fetch.FetchClient;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.cdep.cdep.io.IO.infoln;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/*
+ * Download remote files to local files.
+ *
+ * Bytes are written to a sibling .part file that is renamed over the local file when complete so
+ * the local file is never partially written. If a download is interrupted then the .part file is
+ * kept and, for HTTP, the next attempt requests only the remaining bytes with a Range request.
+ *
+ * The ETag and Last-Modified validators sent by the server are kept in a sibling .validators file.
+ * A resumed download uses them in If-Range so that the remaining bytes are only appended if the
+ * remote hasn't changed. A revalidating download uses them in If-None-Match and If-Modified-Since
+ * so that the local file is kept, without transferring it again, if the remote hasn't changed.
+ *
+ * Requests go through a FetchClient shared with the bootstrap so connections are pooled and
+ * failed attempts are retried with backoff.
+ *
+ * The .part file is shared by every cdep process that downloads to the same local file, for
+ * example when builds for several ABIs fetch the same archive at once. A download holds an
+ * exclusive lock on a sibling .part.lock file from the first request to the final rename.
+ */
+public class DownloadUtils {
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+  // A FileLock is held by the whole process so threads downloading the same file also take this
+  private static final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+  private static final FetchClient client = FetchClient.fromSystemProperties(new FetchClient.RetryListener() {
+    @Override
+    public void retrying(URL url, int attempt, long delayMillis, IOException cause) {
+      infoln("Retrying %s in %s ms", url, delayMillis);
+    }
+  });
+
+  public enum Status {
+    // The remote didn't exist
+    MISSING,
+    // The local file was revalidated and the remote hadn't changed
+    NOT_MODIFIED,
+    // The local file was written
+    DOWNLOADED
+  }
+
+  public static class Result {
+    @NotNull
+    final public Status status;
+    // The SHA256 of the local file when it was downloaded.
+    @Nullable
+    final public String sha256;
+
+    Result(@NotNull Status status, @Nullable String sha256) {
+      this.status = status;
+      this.sha256 = sha256;
+    }
+  }
+
+  /*
+   * Download remote to local. If revalidate is true and local already exists then it is only
+   * replaced if the remote has changed since it was downloaded. If local didn't exist and another
+   * process or thread downloads it while this one waits for the lock then it is kept as it is.
+   */
+  @NotNull
+  public static Result download(@NotNull final URL remote, @NotNull final File local, final boolean revalidate)
+      throws IOException {
+    boolean existed = local.isFile();
+    File lockFile = new File(getPartFile(local).getPath() + ".lock");
+    //noinspection ResultOfMethodCallIgnored
+    lockFile.getAbsoluteFile().getParentFile().mkdirs();
+    synchronized (getLock(lockFile)) {
+      try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+           FileChannel channel = lockAccess.getChannel();
+           FileLock ignored = channel.lock()) {
+        if (!existed && local.isFile()) {
+          return new Result(Status.NOT_MODIFIED, null);
+        }
+        // Whatever a failed attempt received is kept in the .part file for the next attempt
+        return client.fetch(remote, new FetchClient.Exchange<Result>() {
+          @Override
+          public Result exchange(URLConnection connection) throws IOException {
+            try {
+              return tryDownload(connection, remote, local, revalidate);
+            } catch (NoSuchAlgorithmException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  @NotNull
+  private static Object getLock(@NotNull File lockFile) {
+    Object lock = new Object();
+    Object prior = locks.putIfAbsent(lockFile.getAbsolutePath(), lock);
+    return prior == null ? lock : prior;
+  }
+
+  @NotNull
+  private static File getPartFile(@NotNull File local) {
+    return new File(local.getPath() + ".part");
+  }
+
+  @NotNull
+  private static File getValidatorsFile(@NotNull File file) {
+    return new File(file.getPath() + ".validators");
+  }
+
+  @NotNull
+  private static Result tryDownload(
+      @NotNull URLConnection connection,
+      @NotNull URL remote,
+      @NotNull File local,
+      boolean revalidate) throws IOException, NoSuchAlgorithmException {
+    File part = getPartFile(local);
+    File partValidators = getValidatorsFile(part);
+    long offset = 0;
+    if (connection instanceof HttpURLConnection) {
+      HttpURLConnection http = (HttpURLConnection) connection;
+      Validators resume = Validators.read(partValidators);
+      String ifRange = resume == null ? null : resume.getIfRange();
+      if (part.isFile() && part.length() > 0 && ifRange != null) {
+        offset = part.length();
+        http.setRequestProperty("Range", String.format("bytes=%s-", offset));
+        http.setRequestProperty("If-Range", ifRange);
+      } else if (revalidate && local.isFile()) {
+        Validators known = Validators.read(getValidatorsFile(local));
+        if (known != null) {
+          known.setConditions(http);
+        }
+      }
+      int code = http.getResponseCode();
+      switch (code) {
+        case HttpURLConnection.HTTP_NOT_FOUND:
+          return new Result(Status.MISSING, null);
+        case HttpURLConnection.HTTP_NOT_MODIFIED:
+          return new Result(Status.NOT_MODIFIED, null);
+        case HttpURLConnection.HTTP_PARTIAL:
+          String contentRange = http.getHeaderField("Content-Range");
+          if (contentRange == null || !contentRange.startsWith(String.format("bytes %s-", offset))) {
+            deletePart(part);
+            throw new IOException(String.format("Unexpected Content-Range '%s' from %s", contentRange, remote));
+          }
+          break;
+        case HttpURLConnection.HTTP_OK:
+          // Either a fresh download or the server chose to send the whole file.
+          offset = 0;
+          Validators.from(http).write(partValidators);
+          break;
+        case HTTP_RANGE_NOT_SATISFIABLE:
+          deletePart(part);
+          throw new IOException(String.format("Could not resume download of %s", remote));
+        default:
+          throw new IOException(String.format("Server returned %s for %s", code, remote));
+      }
+    }
+
+    InputStream input;
+    try {
+      input = connection.getInputStream();
+    } catch (FileNotFoundException e) {
+      return new Result(Status.MISSING, null);
+    }
+    MessageDigest digest = offset > 0
+        ? HashUtils.getSHA256DigestOfFile(part)
+        : MessageDigest.getInstance("SHA-256");
+    String sha256;
+    //noinspection ResultOfMethodCallIgnored
+    local.getAbsoluteFile().getParentFile().mkdirs();
+    try (InputStream in = input; OutputStream out = new FileOutputStream(part, offset > 0)) {
+      sha256 = HashUtils.copyAndGetSHA256(in, out, digest);
+    }
+    long expected = connection.getContentLengthLong();
+    if (expected >= 0 && part.length() != offset + expected) {
+      throw new IOException(String.format("Download of %s ended after %s of %s bytes",
+          remote, part.length(), offset + expected));
+    }
+
+    // Renaming rather than writing in place also means a local file that is a link to shared
+    // content is replaced rather than written through.
+    Files.move(part.toPath(), local.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    File validators = getValidatorsFile(local);
+    if (partValidators.isFile()) {
+      Files.move(partValidators.toPath(), validators.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } else {
+      //noinspection ResultOfMethodCallIgnored
+      validators.delete();
+    }
+    return new Result(Status.DOWNLOADED, sha256);
+  }
+
+  private static void deletePart(@NotNull File part) {
+    //noinspection ResultOfMethodCallIgnored
+    part.delete();
+    //noinspection ResultOfMethodCallIgnored
+    getValidatorsFile(part).delete();
+  }
+
+  /*
+   * The HTTP validators of a downloaded file.
+   */
+  private static class Validators {
+    @Nullable
+    final String etag;
+    @Nullable
+    final String lastModified;
+
+    Validators(@Nullable String etag, @Nullable String lastModified) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+    @NotNull
+    static Validators from(@NotNull HttpURLConnection connection) {
+      return new Validators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+    }
+
+    @Nullable
+    static Validators read(@NotNull File file) throws IOException {
+      if (!file.isFile()) {
+        return null;
+      }
+      String etag = null;
+      String lastModified = null;
+      for (String line : FileUtils.readAllText(file).split("\n")) {
+        if (line.startsWith("ETag: ")) {
+          etag = line.substring("ETag: ".length());
+        } else if (line.startsWith("Last-Modified: ")) {
+          lastModified = line.substring("Last-Modified: ".length());
+        }
+      }
+      return new Validators(etag, lastModified);
+    }
+
+    void write(@NotNull File file) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      if (etag != null) {
+        sb.append("ETag: ").append(etag).append("\n");
+      }
+      if (lastModified != null) {
+        sb.append("Last-Modified: ").append(lastModified).append("\n");
+      }
+      FileUtils.writeTextToFile(file, sb.toString());
+    }
+
+    // If-Range only accepts a strong ETag
+    @Nullable
+    String getIfRange() {
+      if (etag != null && !etag.startsWith("W/")) {
+        return etag;
+      }
+      return lastModified;
+    }
+
+    void setConditions(@NotNull HttpURLConnection connection) {
+      if (etag != null) {
+        connection.setRequestProperty("If-None-Match", etag);
+      }
+      if (lastModified != null) {
+        connection.setRequestProperty("If-Modified-Since", lastModified);
+      }
+    }
+  }
+}
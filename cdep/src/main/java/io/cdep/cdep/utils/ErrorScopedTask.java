@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/*
+ * A unit of work that runs on a worker thread inside its own error collection scope. Errors and
+ * exceptions are captured in the Result so that they can be reported, in a deterministic order,
+ * on the thread that is waiting for the work.
+ */
+abstract public class ErrorScopedTask<T> implements Callable<ErrorScopedTask.Result<T>> {
+
+  @Nullable
+  abstract protected T run() throws Exception;
+
+  @NotNull
+  @Override
+  final public Result<T> call() {
+    Invariant.pushErrorCollectionScope(false);
+    T value = null;
+    Throwable exception = null;
+    try {
+      value = run();
+    } catch (Throwable e) {
+      exception = e;
+    }
+    List<CDepRuntimeException> errors = Invariant.popErrorCollectionScope();
+    return new Result<>(value, errors, exception);
+  }
+
+  /*
+   * The outcome of running an ErrorScopedTask.
+   */
+  public static class Result<T> {
+    @Nullable
+    final private T value;
+    @NotNull
+    final private List<CDepRuntimeException> errors;
+    @Nullable
+    final private Throwable exception;
+
+    private Result(@Nullable T value, @NotNull List<CDepRuntimeException> errors, @Nullable Throwable exception) {
+      this.value = value;
+      this.errors = errors;
+      this.exception = exception;
+    }
+
+    /*
+     * Report any errors into the current thread's error collection scope, rethrow any exception
+     * with its original type, and otherwise return the value.
+     */
+    @Nullable
+    public T get() throws IOException, NoSuchAlgorithmException {
+      Invariant.reportAll(errors);
+      if (exception == null) {
+        return value;
+      }
+      if (exception instanceof IOException) {
+        throw (IOException) exception;
+      }
+      if (exception instanceof NoSuchAlgorithmException) {
+        throw (NoSuchAlgorithmException) exception;
+      }
+      if (exception instanceof RuntimeException) {
+        throw (RuntimeException) exception;
+      }
+      if (exception instanceof Error) {
+        throw (Error) exception;
+      }
+      throw new RuntimeException(exception);
+    }
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+ * A persistent index of the SHA256 of local files. An entry is trusted only while the file's
+ * path, size, last-modified time and file key (the inode on platforms that have one) are all
+ * unchanged. This lets cdep skip hashing large archives that haven't changed since the last run.
+ *
+ * The index is shared by all cdep processes that use the same downloads folder. It is a log where
+ * a later line for a path replaces earlier ones. Updates are made under an exclusive lock on a
+ * sibling .lock file: the lines other processes appended since this process last looked are read
+ * and then the new entry is appended, so recording an entry doesn't depend on the size of the
+ * index. When loading finds that most lines have been replaced, the index is compacted by
+ * atomically renaming a new copy into place. Entries for files that no longer exist are dropped
+ * then and by prune().
+ */
+public class FileHashIndex {
+  final private static String HEADER = "# cdep sha256 index v1";
+  final private static Map<File, FileHashIndex> indexes = new HashMap<>();
+
+  @NotNull
+  final private File indexFile;
+  @NotNull
+  final private File lockFile;
+  @Nullable
+  private Map<String, Entry> entries = null;
+  // How much of the index file has been read into entries and the identity of the file read
+  private long readLength = 0;
+  @Nullable
+  private Object readFileIdentity = null;
+
+  private FileHashIndex(@NotNull File indexFile) {
+    this.indexFile = indexFile;
+    this.lockFile = new File(indexFile.getPath() + ".lock");
+  }
+
+  /*
+   * Return the index stored in the given file. There is one instance per index file in a process
+   * because file locks are held on behalf of the whole process.
+   */
+  @NotNull
+  public static FileHashIndex forFile(@NotNull File indexFile) {
+    synchronized (indexes) {
+      File key = indexFile.getAbsoluteFile();
+      FileHashIndex index = indexes.get(key);
+      if (index == null) {
+        index = new FileHashIndex(key);
+        indexes.put(key, index);
+      }
+      return index;
+    }
+  }
+
+  /*
+   * Return the SHA256 of the given file. The file is only read if the index has no entry that
+   * matches its current size, last-modified time and file key.
+   */
+  @NotNull
+  public String getSHA256OfFile(@NotNull File file) throws IOException, NoSuchAlgorithmException {
+    Entry current = stat(file, "");
+    synchronized (this) {
+      Entry known = getEntries().get(current.path);
+      if (known != null && known.sameFileAs(current)) {
+        return known.sha256;
+      }
+    }
+    String sha256 = HashUtils.getSHA256OfFile(file);
+    record(file, sha256);
+    return sha256;
+  }
+
+  /*
+   * Record the SHA256 of a file whose content is known. For example, because it was hashed as it
+   * was written.
+   */
+  public void record(@NotNull File file, @NotNull String sha256) throws IOException {
+    Entry entry = stat(file, sha256);
+    synchronized (this) {
+      update(entry);
+    }
+  }
+
+  @NotNull
+  private static Entry stat(@NotNull File file, @NotNull String sha256) throws IOException {
+    File absolute = file.getAbsoluteFile();
+    BasicFileAttributes attributes = Files.readAttributes(absolute.toPath(), BasicFileAttributes.class);
+    Object fileKey = attributes.fileKey();
+    return new Entry(
+        sha256,
+        attributes.size(),
+        attributes.lastModifiedTime().toMillis(),
+        fileKey == null ? "-" : fileKey.toString().replace(' ', '_'),
+        absolute.getPath());
+  }
+
+  @NotNull
+  private Map<String, Entry> getEntries() throws IOException {
+    if (entries == null) {
+      load();
+    }
+    return entries;
+  }
+
+  /*
+   * Read the whole index and compact it if most of its lines have been replaced by later ones.
+   */
+  private void load() throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    indexFile.getParentFile().mkdirs();
+    try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+         FileChannel channel = lockAccess.getChannel();
+         FileLock ignored = channel.lock()) {
+      entries = new TreeMap<>();
+      readLength = 0;
+      readFileIdentity = null;
+      int lines = readAppended();
+      if (lines > 2 * entries.size() + 100) {
+        compact();
+      }
+    }
+  }
+
+  /*
+   * Drop entries for files that no longer exist.
+   */
+  public synchronized void prune() throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    indexFile.getParentFile().mkdirs();
+    try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+         FileChannel channel = lockAccess.getChannel();
+         FileLock ignored = channel.lock()) {
+      if (entries == null) {
+        entries = new TreeMap<>();
+      }
+      readAppended();
+      compact();
+    }
+  }
+
+  /*
+   * Merge an entry into the index on disk. Other processes may have appended entries since this
+   * process last read the index so those are read first under the lock.
+   */
+  private void update(@NotNull Entry entry) throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    indexFile.getParentFile().mkdirs();
+    try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+         FileChannel channel = lockAccess.getChannel();
+         FileLock ignored = channel.lock()) {
+      if (entries == null) {
+        entries = new TreeMap<>();
+      }
+      readAppended();
+      StringBuilder sb = new StringBuilder();
+      long length = indexFile.length();
+      if (length == 0) {
+        sb.append(HEADER).append("\n");
+      } else if (length > readLength) {
+        // A process stopped part way through a line. End it so this entry starts on its own line.
+        sb.append("\n");
+      }
+      sb.append(entry.toString()).append("\n");
+      try (FileOutputStream out = new FileOutputStream(indexFile, true)) {
+        out.write(sb.toString().getBytes(UTF_8));
+      }
+      readLength = indexFile.length();
+      readFileIdentity = getFileIdentity();
+      entries.put(entry.path, entry);
+    }
+  }
+
+  /*
+   * Read the complete lines that were appended since the last read. If the index was replaced by
+   * a compacted copy then it is read from the start. Returns the number of lines read.
+   */
+  private int readAppended() throws IOException {
+    assert entries != null;
+    if (!indexFile.isFile()) {
+      entries.clear();
+      readLength = 0;
+      readFileIdentity = null;
+      return 0;
+    }
+    Object identity = getFileIdentity();
+    long length = indexFile.length();
+    if (length < readLength || (identity != null && !identity.equals(readFileIdentity))) {
+      entries.clear();
+      readLength = 0;
+    }
+    readFileIdentity = identity;
+    if (length == readLength) {
+      return 0;
+    }
+    byte bytes[] = new byte[(int) (length - readLength)];
+    try (RandomAccessFile in = new RandomAccessFile(indexFile, "r")) {
+      in.seek(readLength);
+      in.readFully(bytes);
+    }
+    // A line without its newline is still being written or was left by a process that stopped
+    int end = bytes.length;
+    while (end > 0 && bytes[end - 1] != '\n') {
+      --end;
+    }
+    readLength += end;
+    int lines = 0;
+    for (String line : new String(bytes, 0, end, UTF_8).split("\n")) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      ++lines;
+      Entry entry = Entry.tryParse(line);
+      if (entry != null) {
+        entries.put(entry.path, entry);
+      }
+    }
+    return lines;
+  }
+
+  /*
+   * Replace the index with one line for each entry whose file still exists.
+   */
+  private void compact() throws IOException {
+    assert entries != null;
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append("\n");
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry existing = iterator.next();
+      if (new File(existing.path).isFile()) {
+        sb.append(existing.toString()).append("\n");
+      } else {
+        iterator.remove();
+      }
+    }
+    FileUtils.writeTextToFileAtomically(indexFile, sb.toString());
+    readLength = indexFile.length();
+    readFileIdentity = getFileIdentity();
+  }
+
+  /*
+   * Something that changes when the index is replaced by a compacted copy. This is the file key
+   * where there is one and otherwise the creation time.
+   */
+  @Nullable
+  private Object getFileIdentity() throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(indexFile.toPath(), BasicFileAttributes.class);
+      return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static class Entry {
+    @NotNull
+    final String sha256;
+    final long size;
+    final long lastModified;
+    @NotNull
+    final String fileKey;
+    @NotNull
+    final String path;
+
+    Entry(@NotNull String sha256, long size, long lastModified, @NotNull String fileKey, @NotNull String path) {
+      this.sha256 = sha256;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+      this.path = path;
+    }
+
+    boolean sameFileAs(@NotNull Entry other) {
+      return size == other.size
+          && lastModified == other.lastModified
+          && fileKey.equals(other.fileKey)
+          && path.equals(other.path);
+    }
+
+    // Entries are sha256, size, last-modified, file key and then path. The path is last because
+    // it may contain spaces.
+    @Nullable
+    static Entry tryParse(@NotNull String line) {
+      String fields[] = line.split(" ", 5);
+      if (fields.length != 5) {
+        return null;
+      }
+      try {
+        return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4]);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+      return String.format("%s %s %s %s %s", sha256, size, lastModified, fileKey, path);
+    }
+  }
+}
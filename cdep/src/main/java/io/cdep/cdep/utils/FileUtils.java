@@ -21,12 +21,17 @@ import io.cdep.annotations.Nullable;
 import java.io.*;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class FileUtils {
 
@@ -74,6 +79,69 @@ public class FileUtils {
     }
   }
 
+  /*
+   * Write the file only if its content would change. Generated build files are left untouched,
+   * timestamp included, so build systems that watch them don't reconfigure for nothing. Returns
+   * true if the file was written.
+   */
+  public static boolean writeTextToFileIfChanged(@NotNull File file, @NotNull String body) throws IOException {
+    if (file.isFile() && readAllText(file).equals(body)) {
+      return false;
+    }
+    writeTextToFile(file, body);
+    return true;
+  }
+
+  /*
+   * Write the file by writing a temporary file next to it and renaming that over the original.
+   * Readers see either the old or the new content but never a partially written file.
+   */
+  public static void writeTextToFileAtomically(@NotNull File file, @NotNull String body) throws IOException {
+    writeBytesToFileAtomically(file, body.getBytes(UTF_8));
+  }
+
+  public static void writeBytesToFileAtomically(@NotNull File file, @NotNull byte body[]) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    parent.mkdirs();
+    File temp = File.createTempFile(file.getName(), ".tmp", parent);
+    try {
+      Files.write(temp.toPath(), body);
+      Files.move(temp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+    }
+  }
+
+  /*
+   * Like writeTextToFileAtomically but the file can only be read and written by the current user.
+   * The temporary file is created with those permissions before anything is written to it so
+   * the content is never visible to other users. Fails if the file system can't restrict access.
+   */
+  public static void writeTextToOwnerOnlyFileAtomically(@NotNull File file, @NotNull String body) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    parent.mkdirs();
+    Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rw-------");
+    Path temp;
+    try {
+      temp = Files.createTempFile(parent.toPath(), file.getName(), ".tmp",
+          PosixFilePermissions.asFileAttribute(ownerOnly));
+    } catch (UnsupportedOperationException e) {
+      throw new IOException(String.format("Could not make %s readable only by the current user", file), e);
+    }
+    try {
+      if (!Files.getPosixFilePermissions(temp).equals(ownerOnly)) {
+        throw new IOException(String.format("Could not make %s readable only by the current user", file));
+      }
+      Files.write(temp, body.getBytes(UTF_8));
+      Files.move(temp, file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
   @NotNull
   public static Collection<File> listFileTree(@Nullable File dir) {
     Set<File> fileTree = new LinkedHashSet<>();
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -29,6 +30,7 @@ import java.security.NoSuchAlgorithmException;
  * Cryptographic hashing utility findFunctions.
  */
 public class HashUtils {
+  private static final int BUFFER_SIZE = 64 * 1024;
 
   @NotNull
   private static String encodeHex(@NotNull byte[] digest) {
@@ -49,8 +51,47 @@ public class HashUtils {
   @NotNull
   public static String getSHA256OfFile(@NotNull File local) throws NoSuchAlgorithmException, IOException {
     MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    InputStream in = new FileInputStream(local);
-    return hashToHex(digest, in);
+    try (InputStream in = new FileInputStream(local)) {
+      return hashToHex(digest, in);
+    }
+  }
+
+  /*
+   * Copy the input stream to the output stream and return the SHA256 of the bytes that were
+   * copied. This avoids reading the data a second time just to hash it.
+   */
+  @NotNull
+  public static String copyAndGetSHA256(@NotNull InputStream in, @NotNull OutputStream out)
+      throws NoSuchAlgorithmException, IOException {
+    return copyAndGetSHA256(in, out, MessageDigest.getInstance("SHA-256"));
+  }
+
+  /*
+   * Like copyAndGetSHA256 but continues from a digest that already holds the bytes before the
+   * input stream. For example, the part of a download that was written before it was interrupted.
+   */
+  @NotNull
+  public static String copyAndGetSHA256(@NotNull InputStream in, @NotNull OutputStream out,
+      @NotNull MessageDigest digest) throws IOException {
+    byte[] block = new byte[BUFFER_SIZE];
+    int length;
+    while ((length = in.read(block)) != -1) {
+      digest.update(block, 0, length);
+      out.write(block, 0, length);
+    }
+    return encodeHex(digest.digest());
+  }
+
+  /*
+   * Return a SHA256 digest that has been updated with the content of the given file.
+   */
+  @NotNull
+  public static MessageDigest getSHA256DigestOfFile(@NotNull File local) throws NoSuchAlgorithmException, IOException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (InputStream in = new FileInputStream(local)) {
+      update(digest, in);
+    }
+    return digest;
   }
 
   @NotNull
@@ -61,11 +102,15 @@ public class HashUtils {
   }
 
   private static String hashToHex(MessageDigest digest, InputStream in) throws IOException {
-    byte[] block = new byte[4096];
+    update(digest, in);
+    return encodeHex(digest.digest());
+  }
+
+  private static void update(MessageDigest digest, InputStream in) throws IOException {
+    byte[] block = new byte[BUFFER_SIZE];
     int length;
     while ((length = in.read(block)) > 0) {
       digest.update(block, 0, length);
     }
-    return encodeHex(digest.digest());
   }
 }
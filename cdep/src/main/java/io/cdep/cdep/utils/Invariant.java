@@ -17,6 +17,7 @@ package io.cdep.cdep.utils;
 
 import io.cdep.annotations.NotNull;
 import io.cdep.annotations.Nullable;
+import org.yaml.snakeyaml.error.Mark;
 import org.yaml.snakeyaml.nodes.Node;
 
 import java.io.IOException;
@@ -30,57 +31,79 @@ import static io.cdep.cdep.utils.StringUtils.safeFormat;
  * Methods for ensuring state at runtime
  */
 abstract public class Invariant {
-  private static final LinkedList<List<CDepRuntimeException>> requirementFailures = new LinkedList<>();
-  private static final LinkedList<Boolean> showOutputs = new LinkedList<>();
-  private static final LinkedList<LinkedList<Node>> yamlExplictNode = new LinkedList<>();
-  private static final LinkedList<LinkedList<String>> yamlFiles = new LinkedList<>();
-  private static final LinkedList<LinkedList<Map<Object, Node>>> yamlNodes = new LinkedList<>();
+  // Error collection scopes are per-thread so that work done on a worker thread can't race with,
+  // or report into, the scope of the thread that started it.
+  private static final ThreadLocal<Scopes> scopes = new ThreadLocal<Scopes>() {
+    @Override
+    protected Scopes initialValue() {
+      return new Scopes();
+    }
+  };
 
   public static void registerYamlFile(String file) {
-    registerYamlNodes(file, new LinkedHashMap<Object, Node>());
+    registerYamlMarks(file, new LinkedHashMap<Object, Mark>());
   }
 
-  public static void registerYamlNodes(String file, Map<Object, Node> yamlNodes) {
-    if (Invariant.yamlFiles.size() == 0) {
+  /*
+   * Register where in file each of the given values was read from. Errors that mention one of the
+   * values report its line.
+   */
+  public static void registerYamlMarks(String file, Map<Object, Mark> yamlMarks) {
+    Scopes scopes = Invariant.scopes.get();
+    if (scopes.yamlFiles.size() == 0) {
       return;
     }
-    Invariant.yamlFiles.get(0).push(file);
-    Invariant.yamlNodes.get(0).push(yamlNodes);
+    scopes.yamlFiles.get(0).push(file);
+    scopes.yamlMarks.get(0).push(yamlMarks);
   }
 
   public static void pushErrorCollectionScope(boolean showOutput) {
-    yamlExplictNode.push(new LinkedList<Node>());
-    yamlFiles.push(new LinkedList<String>());
-    yamlNodes.push(new LinkedList<Map<Object, Node>>());
-    requirementFailures.push(new ArrayList<CDepRuntimeException>());
-    showOutputs.push(showOutput);
+    Scopes scopes = Invariant.scopes.get();
+    scopes.yamlExplictNode.push(new LinkedList<Node>());
+    scopes.yamlFiles.push(new LinkedList<String>());
+    scopes.yamlMarks.push(new LinkedList<Map<Object, Mark>>());
+    scopes.requirementFailures.push(new ArrayList<CDepRuntimeException>());
+    scopes.showOutputs.push(showOutput);
   }
 
   public static List<CDepRuntimeException> popErrorCollectionScope() {
-    List<CDepRuntimeException> errors = requirementFailures.get(0);
-    yamlExplictNode.pop();
-    yamlFiles.pop();
-    yamlNodes.pop();
-    requirementFailures.pop();
-    showOutputs.pop();
+    Scopes scopes = Invariant.scopes.get();
+    List<CDepRuntimeException> errors = scopes.requirementFailures.get(0);
+    scopes.yamlExplictNode.pop();
+    scopes.yamlFiles.pop();
+    scopes.yamlMarks.pop();
+    scopes.requirementFailures.pop();
+    scopes.showOutputs.pop();
     return errors;
   }
 
   public static int errorsInScope() {
-    if (requirementFailures.size() == 0) {
+    Scopes scopes = Invariant.scopes.get();
+    if (scopes.requirementFailures.size() == 0) {
       return 0;
     }
-    return requirementFailures.get(0).size();
+    return scopes.requirementFailures.get(0).size();
+  }
+
+  /*
+   * Report errors that were collected in a different error collection scope. For example, one
+   * that was pushed on a worker thread.
+   */
+  public static void reportAll(@NotNull List<CDepRuntimeException> errors) {
+    for (CDepRuntimeException e : errors) {
+      report(e);
+    }
   }
 
   private static void report(@NotNull CDepRuntimeException e) {
-    if (requirementFailures.size() == 0) {
+    Scopes scopes = Invariant.scopes.get();
+    if (scopes.requirementFailures.size() == 0) {
       throw e;
     }
-    if (showOutputs.get(0)) {
+    if (scopes.showOutputs.get(0)) {
       errorln(e.errorInfo, e.getMessage());
     }
-    requirementFailures.get(0).add(e);
+    scopes.requirementFailures.get(0).add(e);
   }
 
   public static void fail(@NotNull String format) {
@@ -127,22 +150,34 @@ abstract public class Invariant {
     }
 
 
-    if (yamlFiles.size() == 0 || yamlFiles.get(0).size() == 0) {
+    Scopes scopes = Invariant.scopes.get();
+    if (scopes.yamlFiles.size() == 0 || scopes.yamlFiles.get(0).size() == 0) {
       return new ErrorInfo(null, null, code);
     }
     if (parameters != null) {
-      for (int i = 0; i < yamlFiles.get(0).size(); ++i) {
-        Map<Object, Node> map = yamlNodes.get(0).get(i);
+      for (int i = 0; i < scopes.yamlFiles.get(0).size(); ++i) {
+        Map<Object, Mark> map = scopes.yamlMarks.get(0).get(i);
         for (int j = 0; j < parameters.length; ++j) {
-          Node node = map.get(parameters[j]);
-          if (node != null) {
-            return new ErrorInfo(yamlFiles.get(0).get(i), node.getStartMark().getLine() + 1, code);
+          Mark mark = map.get(parameters[j]);
+          if (mark != null) {
+            return new ErrorInfo(scopes.yamlFiles.get(0).get(i), mark.getLine() + 1, code);
           }
         }
       }
     }
 
     // If no objects matched then just return a file name
-    return new ErrorInfo(yamlFiles.get(0).get(0), null, code);
+    return new ErrorInfo(scopes.yamlFiles.get(0).get(0), null, code);
+  }
+
+  /*
+   * The stack of error collection scopes for a single thread.
+   */
+  private static class Scopes {
+    private final LinkedList<List<CDepRuntimeException>> requirementFailures = new LinkedList<>();
+    private final LinkedList<Boolean> showOutputs = new LinkedList<>();
+    private final LinkedList<LinkedList<Node>> yamlExplictNode = new LinkedList<>();
+    private final LinkedList<LinkedList<String>> yamlFiles = new LinkedList<>();
+    private final LinkedList<LinkedList<Map<Object, Mark>>> yamlMarks = new LinkedList<>();
   }
 }
@@ -16,6 +16,7 @@
 package io.cdep.cdep.utils;
 
 import io.cdep.annotations.NotNull;
+import org.yaml.snakeyaml.error.Mark;
 import org.yaml.snakeyaml.nodes.*;
 
 import java.lang.reflect.Field;
@@ -31,13 +32,13 @@ final class SnakeYmlUtils {
    * The purpose is to map data to line number for error message purposes.
    */
   public static <T> void mapAndRegisterNodes(@NotNull String url, @NotNull T object, @NotNull Node node) {
-    Map<Object, Node> nodeMap = new LinkedHashMap<>();
-    mapAndRegisterNodes(object, node, nodeMap);
-    Invariant.registerYamlNodes(url, nodeMap);
+    Map<Object, Mark> marks = new LinkedHashMap<>();
+    mapAndRegisterNodes(object, node, marks);
+    Invariant.registerYamlMarks(url, marks);
   }
 
-  private static void mapAndRegisterNodes(@NotNull Object object, @NotNull Node node, @NotNull Map<Object, Node> nodes) {
-    nodes.put(object, node);
+  private static void mapAndRegisterNodes(@NotNull Object object, @NotNull Node node, @NotNull Map<Object, Mark> nodes) {
+    nodes.put(object, node.getStartMark());
     if (node.getClass().isAssignableFrom(MappingNode.class)) {
       MappingNode concrete = (MappingNode) node;
       for (NodeTuple tuple : concrete.getValue()) {
@@ -15,6 +15,8 @@
 */
 package io.cdep.cdep.yml.cdepmanifest;
 
+import io.cdep.annotations.NotNull;
+import io.cdep.annotations.Nullable;
 import io.cdep.cdep.Coordinate;
 import io.cdep.cdep.Version;
 import io.cdep.cdep.pod.PlainOldDataEqualityCovisitor;
@@ -144,4 +146,172 @@ public class CDepManifestYmlEquality extends PlainOldDataEqualityCovisitor {
   public void covisitHardNameDependency(String name, HardNameDependency left, HardNameDependency right) {
     covisitFields(left, right);
   }
+
+  /*
+   * Statically dispatched replacement for the reflective lookup in PlainOldDataReadonlyCovisitor.
+   */
+  @Override
+  protected boolean covisitKnownType(String name, Object left, Object right, @NotNull Class<?> type) {
+    if (type == CDepManifestYml.class) {
+      covisitCDepManifestYml(name, (CDepManifestYml) left, (CDepManifestYml) right);
+    } else if (type == HardNameDependency.class) {
+      covisitHardNameDependency(name, (HardNameDependency) left, (HardNameDependency) right);
+    } else if (type == AndroidArchive.class) {
+      covisitAndroidArchive(name, (AndroidArchive) left, (AndroidArchive) right);
+    } else if (type == iOSArchive.class) {
+      covisitiOSArchive(name, (iOSArchive) left, (iOSArchive) right);
+    } else if (type == LinuxArchive.class) {
+      covisitLinuxArchive(name, (LinuxArchive) left, (LinuxArchive) right);
+    } else if (type == CxxLanguageFeatures.class) {
+      covisitCxxLanguageFeatures(name, (CxxLanguageFeatures) left, (CxxLanguageFeatures) right);
+    } else if (type == Coordinate.class) {
+      covisitCoordinate(name, (Coordinate) left, (Coordinate) right);
+    } else if (type == Version.class) {
+      covisitVersion(name, (Version) left, (Version) right);
+    } else if (type == License.class) {
+      covisitLicense(name, (License) left, (License) right);
+    } else if (type == Interfaces.class) {
+      covisitInterfaces(name, (Interfaces) left, (Interfaces) right);
+    } else if (type == Archive.class) {
+      covisitArchive(name, (Archive) left, (Archive) right);
+    } else if (type == Android.class) {
+      covisitAndroid(name, (Android) left, (Android) right);
+    } else if (type == iOS.class) {
+      covisitiOS(name, (iOS) left, (iOS) right);
+    } else if (type == Linux.class) {
+      covisitLinux(name, (Linux) left, (Linux) right);
+    } else if (type == AndroidABI.class) {
+      covisitAndroidABI(name, (AndroidABI) left, (AndroidABI) right);
+    } else if (type == iOSPlatform.class) {
+      covisitiOSPlatform(name, (iOSPlatform) left, (iOSPlatform) right);
+    } else if (type == iOSArchitecture.class) {
+      covisitiOSArchitecture(name, (iOSArchitecture) left, (iOSArchitecture) right);
+    } else if (type == CDepManifestYmlVersion.class) {
+      covisitCDepManifestYmlVersion(name, (CDepManifestYmlVersion) left, (CDepManifestYmlVersion) right);
+    } else if (type == HardNameDependency[].class) {
+      covisitHardNameDependencyArray(name, (HardNameDependency[]) left, (HardNameDependency[]) right);
+    } else if (type == AndroidArchive[].class) {
+      covisitAndroidArchiveArray(name, (AndroidArchive[]) left, (AndroidArchive[]) right);
+    } else if (type == iOSArchive[].class) {
+      covisitiOSArchiveArray(name, (iOSArchive[]) left, (iOSArchive[]) right);
+    } else if (type == LinuxArchive[].class) {
+      covisitLinuxArchiveArray(name, (LinuxArchive[]) left, (LinuxArchive[]) right);
+    } else if (type == CxxLanguageFeatures[].class) {
+      covisitCxxLanguageFeaturesArray(name, (CxxLanguageFeatures[]) left, (CxxLanguageFeatures[]) right);
+    } else {
+      return super.covisitKnownType(name, left, right, type);
+    }
+    return true;
+  }
+
+  /*
+   * Hand-written field walks for manifest classes. Fields are covisited in declaration order and
+   * null fields are included, the same as the reflective walk in PlainOldDataReadonlyCovisitor.
+   */
+  @Override
+  protected void covisitFields(@Nullable Object left, @Nullable Object right) {
+    require(left != null || right != null);
+    Class<?> type = right == null ? left.getClass() : right.getClass();
+    if (type == CDepManifestYml.class) {
+      CDepManifestYml l = (CDepManifestYml) left;
+      CDepManifestYml r = (CDepManifestYml) right;
+      covisit("coordinate", l == null ? null : l.coordinate, r == null ? null : r.coordinate, Coordinate.class);
+      covisit("dependencies", l == null ? null : l.dependencies, r == null ? null : r.dependencies, HardNameDependency[].class);
+      covisit("license", l == null ? null : l.license, r == null ? null : r.license, License.class);
+      covisit("interfaces", l == null ? null : l.interfaces, r == null ? null : r.interfaces, Interfaces.class);
+      covisit("android", l == null ? null : l.android, r == null ? null : r.android, Android.class);
+      covisit("linux", l == null ? null : l.linux, r == null ? null : r.linux, Linux.class);
+      covisit("iOS", l == null ? null : l.iOS, r == null ? null : r.iOS, iOS.class);
+      covisit("example", l == null ? null : l.example, r == null ? null : r.example, String.class);
+      covisit("sourceVersion", l == null ? null : l.sourceVersion, r == null ? null : r.sourceVersion, CDepManifestYmlVersion.class);
+    } else if (type == Coordinate.class) {
+      Coordinate l = (Coordinate) left;
+      Coordinate r = (Coordinate) right;
+      covisit("groupId", l == null ? null : l.groupId, r == null ? null : r.groupId, String.class);
+      covisit("artifactId", l == null ? null : l.artifactId, r == null ? null : r.artifactId, String.class);
+      covisit("version", l == null ? null : l.version, r == null ? null : r.version, Version.class);
+    } else if (type == Version.class) {
+      Version l = (Version) left;
+      Version r = (Version) right;
+      covisit("value", l == null ? null : l.value, r == null ? null : r.value, String.class);
+    } else if (type == HardNameDependency.class) {
+      HardNameDependency l = (HardNameDependency) left;
+      HardNameDependency r = (HardNameDependency) right;
+      covisit("compile", l == null ? null : l.compile, r == null ? null : r.compile, String.class);
+      covisit("sha256", l == null ? null : l.sha256, r == null ? null : r.sha256, String.class);
+    } else if (type == License.class) {
+      License l = (License) left;
+      License r = (License) right;
+      covisit("name", l == null ? null : l.name, r == null ? null : r.name, String.class);
+      covisit("url", l == null ? null : l.url, r == null ? null : r.url, String.class);
+    } else if (type == Interfaces.class) {
+      Interfaces l = (Interfaces) left;
+      Interfaces r = (Interfaces) right;
+      covisit("headers", l == null ? null : l.headers, r == null ? null : r.headers, Archive.class);
+    } else if (type == Archive.class) {
+      Archive l = (Archive) left;
+      Archive r = (Archive) right;
+      covisit("file", l == null ? null : l.file, r == null ? null : r.file, String.class);
+      covisit("sha256", l == null ? null : l.sha256, r == null ? null : r.sha256, String.class);
+      covisit("size", l == null ? null : l.size, r == null ? null : r.size, Long.class);
+      covisit("include", l == null ? null : l.include, r == null ? null : r.include, String.class);
+      covisit("requires", l == null ? null : l.requires, r == null ? null : r.requires, CxxLanguageFeatures[].class);
+    } else if (type == Android.class) {
+      Android l = (Android) left;
+      Android r = (Android) right;
+      covisit("dependencies", l == null ? null : l.dependencies, r == null ? null : r.dependencies, HardNameDependency[].class);
+      covisit("archives", l == null ? null : l.archives, r == null ? null : r.archives, AndroidArchive[].class);
+    } else if (type == AndroidArchive.class) {
+      AndroidArchive l = (AndroidArchive) left;
+      AndroidArchive r = (AndroidArchive) right;
+      covisit("file", l == null ? null : l.file, r == null ? null : r.file, String.class);
+      covisit("sha256", l == null ? null : l.sha256, r == null ? null : r.sha256, String.class);
+      covisit("size", l == null ? null : l.size, r == null ? null : r.size, Long.class);
+      covisit("ndk", l == null ? null : l.ndk, r == null ? null : r.ndk, String.class);
+      covisit("compiler", l == null ? null : l.compiler, r == null ? null : r.compiler, String.class);
+      covisit("runtime", l == null ? null : l.runtime, r == null ? null : r.runtime, String.class);
+      covisit("platform", l == null ? null : l.platform, r == null ? null : r.platform, String.class);
+      covisit("builder", l == null ? null : l.builder, r == null ? null : r.builder, String.class);
+      covisit("abi", l == null ? null : l.abi, r == null ? null : r.abi, AndroidABI.class);
+      covisit("include", l == null ? null : l.include, r == null ? null : r.include, String.class);
+      covisit("libs", l == null ? null : l.libs, r == null ? null : r.libs, String[].class);
+      covisit("flavor", l == null ? null : l.flavor, r == null ? null : r.flavor, String.class);
+      covisit("xxx", l == null ? null : l.xxx, r == null ? null : r.xxx, String.class);
+    } else if (type == AndroidABI.class) {
+      AndroidABI l = (AndroidABI) left;
+      AndroidABI r = (AndroidABI) right;
+      covisit("name", l == null ? null : l.name, r == null ? null : r.name, String.class);
+    } else if (type == iOS.class) {
+      iOS l = (iOS) left;
+      iOS r = (iOS) right;
+      covisit("dependencies", l == null ? null : l.dependencies, r == null ? null : r.dependencies, HardNameDependency[].class);
+      covisit("archives", l == null ? null : l.archives, r == null ? null : r.archives, iOSArchive[].class);
+    } else if (type == iOSArchive.class) {
+      iOSArchive l = (iOSArchive) left;
+      iOSArchive r = (iOSArchive) right;
+      covisit("file", l == null ? null : l.file, r == null ? null : r.file, String.class);
+      covisit("sha256", l == null ? null : l.sha256, r == null ? null : r.sha256, String.class);
+      covisit("size", l == null ? null : l.size, r == null ? null : r.size, Long.class);
+      covisit("platform", l == null ? null : l.platform, r == null ? null : r.platform, iOSPlatform.class);
+      covisit("architecture", l == null ? null : l.architecture, r == null ? null : r.architecture, iOSArchitecture.class);
+      covisit("sdk", l == null ? null : l.sdk, r == null ? null : r.sdk, String.class);
+      covisit("include", l == null ? null : l.include, r == null ? null : r.include, String.class);
+      covisit("libs", l == null ? null : l.libs, r == null ? null : r.libs, String[].class);
+      covisit("flavor", l == null ? null : l.flavor, r == null ? null : r.flavor, String.class);
+    } else if (type == Linux.class) {
+      Linux l = (Linux) left;
+      Linux r = (Linux) right;
+      covisit("archives", l == null ? null : l.archives, r == null ? null : r.archives, LinuxArchive[].class);
+    } else if (type == LinuxArchive.class) {
+      LinuxArchive l = (LinuxArchive) left;
+      LinuxArchive r = (LinuxArchive) right;
+      covisit("file", l == null ? null : l.file, r == null ? null : r.file, String.class);
+      covisit("sha256", l == null ? null : l.sha256, r == null ? null : r.sha256, String.class);
+      covisit("size", l == null ? null : l.size, r == null ? null : r.size, Long.class);
+      covisit("libs", l == null ? null : l.libs, r == null ? null : r.libs, String[].class);
+      covisit("include", l == null ? null : l.include, r == null ? null : r.include, String.class);
+    } else {
+      super.covisitFields(left, right);
+    }
+  }
 }
@@ -116,4 +116,262 @@ abstract public class CDepManifestYmlReadonlyVisitor extends PlainOldDataReadonl
   public void visitLinuxArchive(@Nullable String name, @NotNull LinuxArchive value) {
     visitPlainOldDataObject(name, value);
   }
+
+  /*
+   * Statically dispatched replacement for the reflective lookup in PlainOldDataReadonlyVisitor.
+   */
+  @Override
+  protected boolean visitKnownType(Object element, @NotNull Class<?> elementClass) {
+    if (elementClass == CDepManifestYml.class) {
+      visitCDepManifestYml(null, (CDepManifestYml) element);
+    } else if (elementClass == HardNameDependency.class) {
+      visitHardNameDependency(null, (HardNameDependency) element);
+    } else if (elementClass == AndroidArchive.class) {
+      visitAndroidArchive(null, (AndroidArchive) element);
+    } else if (elementClass == iOSArchive.class) {
+      visitiOSArchive(null, (iOSArchive) element);
+    } else if (elementClass == LinuxArchive.class) {
+      visitLinuxArchive(null, (LinuxArchive) element);
+    } else if (elementClass == CxxLanguageFeatures.class) {
+      visitCxxLanguageFeatures(null, (CxxLanguageFeatures) element);
+    } else if (elementClass == Coordinate.class) {
+      visitCoordinate(null, (Coordinate) element);
+    } else if (elementClass == Version.class) {
+      visitVersion(null, (Version) element);
+    } else if (elementClass == License.class) {
+      visitLicense(null, (License) element);
+    } else if (elementClass == Interfaces.class) {
+      visitInterfaces(null, (Interfaces) element);
+    } else if (elementClass == Archive.class) {
+      visitArchive(null, (Archive) element);
+    } else if (elementClass == Android.class) {
+      visitAndroid(null, (Android) element);
+    } else if (elementClass == iOS.class) {
+      visitiOS(null, (iOS) element);
+    } else if (elementClass == Linux.class) {
+      visitLinux(null, (Linux) element);
+    } else if (elementClass == AndroidABI.class) {
+      visitAndroidABI(null, (AndroidABI) element);
+    } else if (elementClass == iOSPlatform.class) {
+      visitiOSPlatform(null, (iOSPlatform) element);
+    } else if (elementClass == iOSArchitecture.class) {
+      visitiOSArchitecture(null, (iOSArchitecture) element);
+    } else if (elementClass == CDepManifestYmlVersion.class) {
+      visitCDepManifestYmlVersion(null, (CDepManifestYmlVersion) element);
+    } else {
+      return super.visitKnownType(element, elementClass);
+    }
+    return true;
+  }
+
+  /*
+   * Hand-written field walks for manifest classes. Fields are visited in declaration order and null
+   * fields are skipped, the same as the reflective walk in PlainOldDataReadonlyVisitor.
+   */
+  @Override
+  protected void visitFields(@NotNull Object node) {
+    Class<?> type = node.getClass();
+    if (type.isEnum()) {
+      return;
+    }
+    if (type == CDepManifestYml.class) {
+      CDepManifestYml value = (CDepManifestYml) node;
+      if (value.coordinate != null) {
+        visitCoordinate("coordinate", value.coordinate);
+      }
+      if (value.dependencies != null) {
+        visitHardNameDependencyArray("dependencies", value.dependencies);
+      }
+      if (value.license != null) {
+        visitLicense("license", value.license);
+      }
+      if (value.interfaces != null) {
+        visitInterfaces("interfaces", value.interfaces);
+      }
+      if (value.android != null) {
+        visitAndroid("android", value.android);
+      }
+      if (value.linux != null) {
+        visitLinux("linux", value.linux);
+      }
+      if (value.iOS != null) {
+        visitiOS("iOS", value.iOS);
+      }
+      if (value.example != null) {
+        visitString("example", value.example);
+      }
+      if (value.sourceVersion != null) {
+        visitCDepManifestYmlVersion("sourceVersion", value.sourceVersion);
+      }
+    } else if (type == Coordinate.class) {
+      Coordinate value = (Coordinate) node;
+      if (value.groupId != null) {
+        visitString("groupId", value.groupId);
+      }
+      if (value.artifactId != null) {
+        visitString("artifactId", value.artifactId);
+      }
+      if (value.version != null) {
+        visitVersion("version", value.version);
+      }
+    } else if (type == Version.class) {
+      Version value = (Version) node;
+      if (value.value != null) {
+        visitString("value", value.value);
+      }
+    } else if (type == HardNameDependency.class) {
+      HardNameDependency value = (HardNameDependency) node;
+      if (value.compile != null) {
+        visitString("compile", value.compile);
+      }
+      if (value.sha256 != null) {
+        visitString("sha256", value.sha256);
+      }
+    } else if (type == License.class) {
+      License value = (License) node;
+      if (value.name != null) {
+        visitString("name", value.name);
+      }
+      if (value.url != null) {
+        visitString("url", value.url);
+      }
+    } else if (type == Interfaces.class) {
+      Interfaces value = (Interfaces) node;
+      if (value.headers != null) {
+        visitArchive("headers", value.headers);
+      }
+    } else if (type == Archive.class) {
+      Archive value = (Archive) node;
+      if (value.file != null) {
+        visitString("file", value.file);
+      }
+      if (value.sha256 != null) {
+        visitString("sha256", value.sha256);
+      }
+      if (value.size != null) {
+        visitLong("size", value.size);
+      }
+      if (value.include != null) {
+        visitString("include", value.include);
+      }
+      if (value.requires != null) {
+        visitCxxLanguageFeaturesArray("requires", value.requires);
+      }
+    } else if (type == Android.class) {
+      Android value = (Android) node;
+      if (value.dependencies != null) {
+        visitHardNameDependencyArray("dependencies", value.dependencies);
+      }
+      if (value.archives != null) {
+        visitAndroidArchiveArray("archives", value.archives);
+      }
+    } else if (type == AndroidArchive.class) {
+      AndroidArchive value = (AndroidArchive) node;
+      if (value.file != null) {
+        visitString("file", value.file);
+      }
+      if (value.sha256 != null) {
+        visitString("sha256", value.sha256);
+      }
+      if (value.size != null) {
+        visitLong("size", value.size);
+      }
+      if (value.ndk != null) {
+        visitString("ndk", value.ndk);
+      }
+      if (value.compiler != null) {
+        visitString("compiler", value.compiler);
+      }
+      if (value.runtime != null) {
+        visitString("runtime", value.runtime);
+      }
+      if (value.platform != null) {
+        visitString("platform", value.platform);
+      }
+      if (value.builder != null) {
+        visitString("builder", value.builder);
+      }
+      if (value.abi != null) {
+        visitAndroidABI("abi", value.abi);
+      }
+      if (value.include != null) {
+        visitString("include", value.include);
+      }
+      if (value.libs != null) {
+        visitStringArray("libs", value.libs);
+      }
+      if (value.flavor != null) {
+        visitString("flavor", value.flavor);
+      }
+      if (value.xxx != null) {
+        visitString("xxx", value.xxx);
+      }
+    } else if (type == AndroidABI.class) {
+      AndroidABI value = (AndroidABI) node;
+      if (value.name != null) {
+        visitString("name", value.name);
+      }
+    } else if (type == iOS.class) {
+      iOS value = (iOS) node;
+      if (value.dependencies != null) {
+        visitHardNameDependencyArray("dependencies", value.dependencies);
+      }
+      if (value.archives != null) {
+        visitiOSArchiveArray("archives", value.archives);
+      }
+    } else if (type == iOSArchive.class) {
+      iOSArchive value = (iOSArchive) node;
+      if (value.file != null) {
+        visitString("file", value.file);
+      }
+      if (value.sha256 != null) {
+        visitString("sha256", value.sha256);
+      }
+      if (value.size != null) {
+        visitLong("size", value.size);
+      }
+      if (value.platform != null) {
+        visitiOSPlatform("platform", value.platform);
+      }
+      if (value.architecture != null) {
+        visitiOSArchitecture("architecture", value.architecture);
+      }
+      if (value.sdk != null) {
+        visitString("sdk", value.sdk);
+      }
+      if (value.include != null) {
+        visitString("include", value.include);
+      }
+      if (value.libs != null) {
+        visitStringArray("libs", value.libs);
+      }
+      if (value.flavor != null) {
+        visitString("flavor", value.flavor);
+      }
+    } else if (type == Linux.class) {
+      Linux value = (Linux) node;
+      if (value.archives != null) {
+        visitLinuxArchiveArray("archives", value.archives);
+      }
+    } else if (type == LinuxArchive.class) {
+      LinuxArchive value = (LinuxArchive) node;
+      if (value.file != null) {
+        visitString("file", value.file);
+      }
+      if (value.sha256 != null) {
+        visitString("sha256", value.sha256);
+      }
+      if (value.size != null) {
+        visitLong("size", value.size);
+      }
+      if (value.libs != null) {
+        visitStringArray("libs", value.libs);
+      }
+      if (value.include != null) {
+        visitString("include", value.include);
+      }
+    } else {
+      super.visitFields(node);
+    }
+  }
 }
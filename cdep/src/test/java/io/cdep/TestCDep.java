@@ -15,6 +15,7 @@
 */
 package io.cdep;
 
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import io.cdep.annotations.NotNull;
 import io.cdep.cdep.utils.CDepRuntimeException;
@@ -25,9 +26,12 @@ import org.yaml.snakeyaml.Yaml;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
@@ -714,6 +718,195 @@ public class TestCDep {
     assertThat(result).contains("low-level-statistics-android-platform-21-armeabi");
   }
 
+  @Test
+  public void offlineReportsMissingFiles() throws Exception {
+    File folder = new File(".test-files/offlineReportsMissingFiles");
+    deleteDirectory(folder);
+    File yaml = new File(folder, "cdep.yml");
+    File downloadFolder = new File(folder, "my-downloaded-packages");
+    yaml.getParentFile().mkdirs();
+    Files.write("builders: [cmake]\n" +
+            "downloadedPackagesFolder: my-downloaded-packages\n" +
+            "dependencies:\n" +
+            "- compile: com.github.jomof:low-level-statistics:0.0.16\n", yaml,
+        StandardCharsets.UTF_8);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(baos);
+    int result = new CDep(ps, ps, false).go(new String[]{"--offline", "-wf", folder.toString()}, false);
+    String output = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    System.out.printf(output);
+    assertThat(result).isEqualTo(1);
+    assertThat(output).doesNotContain("Downloading");
+    assertThat(output).contains("cdep is offline");
+    assertThat(output).contains(
+        "https://github.com/jomof/low-level-statistics/releases/download/0.0.16/cdep-manifest.yml");
+    // Nothing should be remembered as missing because the network wasn't consulted
+    assertThat(new File(downloadFolder, "downloads/.missing-manifests").exists()).isFalse();
+  }
+
+  @Test
+  public void offlineGeneratesFromCache() throws Exception {
+    File folder = new File(".test-files/offlineGeneratesFromCache").getAbsoluteFile();
+    deleteDirectory(folder);
+    File packageFolder = new File(folder, "my-downloaded-packages/downloads/com.github.jomof/offline-test/1.0.0");
+    packageFolder.mkdirs();
+
+    // Put a manifest and its headers archive where an earlier download would have left them.
+    File headers = new File(packageFolder, "offline-test-headers.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(headers))) {
+      zip.putNextEntry(new ZipEntry("include/offline-test.h"));
+      zip.write("#define OFFLINE_TEST 1\n".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    String sha256 = Files.hash(headers, Hashing.sha256()).toString();
+    Files.write("coordinate:\n" +
+        "  groupId: com.github.jomof\n" +
+        "  artifactId: offline-test\n" +
+        "  version: 1.0.0\n" +
+        "interfaces:\n" +
+        "  headers:\n" +
+        "    file: offline-test-headers.zip\n" +
+        "    sha256: " + sha256 + "\n" +
+        "    size: " + headers.length() + "\n" +
+        "    include: include\n", new File(packageFolder, "cdep-manifest.yml"), StandardCharsets.UTF_8);
+    File yaml = new File(folder, "cdep.yml");
+    Files.write("builders: [cmake, ndk-build]\n" +
+            "downloadedPackagesFolder: my-downloaded-packages\n" +
+            "dependencies:\n" +
+            "- compile: com.github.jomof:offline-test:1.0.0\n", yaml,
+        StandardCharsets.UTF_8);
+
+    String result = main("--offline", "-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).doesNotContain("Downloading");
+    assertThat(new File(folder, ".cdep/modules/cdep-dependencies-config.cmake").isFile()).isTrue();
+    assertThat(new File(folder, "cdep.sha256").isFile()).isTrue();
+
+    // Up-to-date modules are still checked against the local cache
+    result = main("--offline", "-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).contains("up to date");
+    File moved = new File(folder, "offline-test-headers.zip");
+    assertThat(headers.renameTo(moved)).isTrue();
+    try {
+      main("--offline", "-wf", folder.toString());
+      fail("Expected an exception");
+    } catch (CDepRuntimeException e) {
+      assertThat(e.getMessage()).contains("cdep is offline");
+    }
+    assertThat(moved.renameTo(headers)).isTrue();
+
+    // The archive fetch done by the generated build modules also works offline
+    result = main("--offline", "fetch-archive",
+        "com.github.jomof:offline-test:1.0.0",
+        "https://github.com/jomof/offline-test/releases/download/1.0.0/offline-test-headers.zip",
+        Long.toString(headers.length()),
+        sha256,
+        "-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).doesNotContain("Downloading");
+    assertThat(new File(folder, "my-downloaded-packages/exploded/com.github.jomof/offline-test/1.0.0/" +
+        "offline-test-headers.zip/include/offline-test.h").isFile()).isTrue();
+  }
+
+  @Test
+  public void generateIsSkippedWhenInputsUnchanged() throws Exception {
+    File folder = new File(".test-files/generateIsSkippedWhenInputsUnchanged").getAbsoluteFile();
+    deleteDirectory(folder);
+    folder.mkdirs();
+    File manifest = new File(folder, "cdep-manifest.yml");
+    String manifestText = "coordinate:\n" +
+        "  groupId: com.github.jomof\n" +
+        "  artifactId: incremental-test\n" +
+        "  version: 1.0.0\n" +
+        "interfaces:\n" +
+        "  headers:\n" +
+        "    file: incremental-test-headers.zip\n" +
+        "    sha256: 1234\n" +
+        "    size: 1\n" +
+        "    include: include\n";
+    Files.write(manifestText, manifest, StandardCharsets.UTF_8);
+    Files.write("builders: [cmake, ndk-build]\n" +
+            "downloadedPackagesFolder: my-downloaded-packages\n" +
+            "dependencies:\n" +
+            "- compile: " + manifest.getAbsolutePath() + "\n", new File(folder, "cdep.yml"),
+        StandardCharsets.UTF_8);
+    File cmake = new File(folder, ".cdep/modules/cdep-dependencies-config.cmake");
+
+    String result = main("-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).contains("Generating");
+    assertThat(cmake.isFile()).isTrue();
+    long lastModified = 1000000000000L;
+    assertThat(cmake.setLastModified(lastModified)).isTrue();
+
+    // Nothing changed so nothing is generated
+    result = main("-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).doesNotContain("Generating");
+    assertThat(result).contains("up to date");
+    assertThat(cmake.lastModified()).isEqualTo(lastModified);
+
+    // A changed manifest is noticed but identical output isn't written again
+    Files.write(manifestText + "# changed\n", manifest, StandardCharsets.UTF_8);
+    result = main("-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).contains("Generating");
+    assertThat(cmake.lastModified()).isEqualTo(lastModified);
+
+    // Generated files that went missing are generated again
+    assertThat(cmake.delete()).isTrue();
+    result = main("-wf", folder.toString());
+    System.out.printf(result);
+    assertThat(result).contains("Generating");
+    assertThat(cmake.isFile()).isTrue();
+
+    // Target options change what the offline check needs
+    result = main("-wf", folder.toString(), "-ts", "Android", "-abi", "x86");
+    System.out.printf(result);
+    assertThat(result).contains("Generating");
+  }
+
+  @Test
+  public void functionTableSnapshotFollowsManifestChanges() throws Exception {
+    File folder = new File(".test-files/functionTableSnapshotFollowsManifestChanges").getAbsoluteFile();
+    deleteDirectory(folder);
+    folder.mkdirs();
+    File manifest = new File(folder, "cdep-manifest.yml");
+    String manifestText = "coordinate:\n" +
+        "  groupId: com.github.jomof\n" +
+        "  artifactId: snapshot-test\n" +
+        "  version: 1.0.0\n" +
+        "interfaces:\n" +
+        "  headers:\n" +
+        "    file: snapshot-test-headers.zip\n" +
+        "    sha256: 1234\n" +
+        "    size: 1\n" +
+        "    include: %s\n";
+    Files.write(String.format(manifestText, "first-include"), manifest, StandardCharsets.UTF_8);
+    File yaml = new File(folder, "cdep.yml");
+    String yamlText = "builders: [%s]\n" +
+        "downloadedPackagesFolder: my-downloaded-packages\n" +
+        "dependencies:\n" +
+        "- compile: " + manifest.getAbsolutePath() + "\n";
+    Files.write(String.format(yamlText, "cmake"), yaml, StandardCharsets.UTF_8);
+    main("-wf", folder.toString());
+    File snapshots[] = new File(folder, "my-downloaded-packages/downloads/.function-tables").listFiles();
+    assertThat(snapshots).hasLength(1);
+
+    // A different builder reuses the snapshot
+    Files.write(String.format(yamlText, "ndk-build"), yaml, StandardCharsets.UTF_8);
+    main("-wf", folder.toString());
+    File androidMk = new File(folder, ".cdep/modules/ndk-build/cdep-dependencies/Android.mk");
+    assertThat(FileUtils.readAllText(androidMk)).contains("first-include");
+
+    // A changed manifest isn't hidden by the snapshot
+    Files.write(String.format(manifestText, "second-include"), manifest, StandardCharsets.UTF_8);
+    main("-wf", folder.toString());
+    assertThat(FileUtils.readAllText(androidMk)).contains("second-include");
+    assertThat(FileUtils.readAllText(androidMk)).doesNotContain("first-include");
+  }
+
   @Test
   public void checkArchiveSentinel() throws Exception {
     File yaml = new File(".test-files/checkArchiveSentinel/cdep.yml");
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestCDepDaemon {
+  private File folder;
+  private File daemonFile;
+  private Thread daemonThread;
+
+  private static void deleteDirectory(File folder) {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          deleteDirectory(f);
+        } else {
+          f.delete();
+        }
+      }
+    }
+    folder.delete();
+  }
+
+  @Before
+  public void startDaemon() throws Exception {
+    folder = new File(".test-files/TestCDepDaemon").getAbsoluteFile();
+    deleteDirectory(folder);
+    folder.mkdirs();
+    daemonFile = new File(folder, "daemon");
+    daemonThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new CDepDaemon(daemonFile, 60 * 1000).run();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    daemonThread.setDaemon(true);
+    daemonThread.start();
+    for (int i = 0; i < 500 && !daemonFile.isFile(); ++i) {
+      Thread.sleep(10);
+    }
+    assertThat(daemonFile.isFile()).isTrue();
+  }
+
+  @After
+  public void stopDaemon() throws Exception {
+    CDepClient.stopDaemon(daemonFile);
+    daemonThread.join(10000);
+  }
+
+  private static class Result {
+    final Integer code;
+    final String out;
+    final String err;
+
+    Result(Integer code, String out, String err) {
+      this.code = code;
+      this.out = out;
+      this.err = err;
+    }
+  }
+
+  private Result run(String... args) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    Integer code = CDepClient.tryRunInDaemon(daemonFile, args, new PrintStream(out), new PrintStream(err));
+    Result result = new Result(code,
+        new String(out.toByteArray(), StandardCharsets.UTF_8),
+        new String(err.toByteArray(), StandardCharsets.UTF_8));
+    System.out.print(result.out);
+    System.out.print(result.err);
+    return result;
+  }
+
+  @Test
+  public void runsCommandInDaemon() throws Exception {
+    Result result = run("--version");
+    assertThat(result.code).isEqualTo(0);
+    assertThat(result.out).contains("cdep " + BuildInfo.PROJECT_VERSION);
+  }
+
+  @Test
+  public void generatesInDaemon() throws Exception {
+    File manifest = new File(folder, "cdep-manifest.yml");
+    Files.write("coordinate:\n" +
+        "  groupId: com.github.jomof\n" +
+        "  artifactId: daemon-test\n" +
+        "  version: 1.0.0\n" +
+        "interfaces:\n" +
+        "  headers:\n" +
+        "    file: daemon-test-headers.zip\n" +
+        "    sha256: 1234\n" +
+        "    size: 1\n" +
+        "    include: include\n", manifest, StandardCharsets.UTF_8);
+    Files.write("builders: [cmake]\n" +
+        "downloadedPackagesFolder: my-downloaded-packages\n" +
+        "dependencies:\n" +
+        "- compile: " + manifest.getAbsolutePath() + "\n", new File(folder, "cdep.yml"), StandardCharsets.UTF_8);
+    Result result = run("-wf", folder.toString());
+    assertThat(result.code).isEqualTo(0);
+    assertThat(result.out).contains("Generating");
+    assertThat(new File(folder, ".cdep/modules/cdep-dependencies-config.cmake").isFile()).isTrue();
+
+    // The daemon keeps serving after a command
+    result = run("-wf", folder.toString());
+    assertThat(result.code).isEqualTo(0);
+    assertThat(result.out).contains("up to date");
+  }
+
+  @Test
+  public void errorsAreReturned() throws Exception {
+    Result result = run("-wf", new File(folder, "missing").toString());
+    assertThat(result.code).isEqualTo(0);
+    assertThat(result.out).contains("Expected a configuration file");
+
+    Files.write("dependencies:\n- compile: com.github.jomof:daemon-test\n", new File(folder, "cdep.yml"),
+        StandardCharsets.UTF_8);
+    result = run("-wf", folder.toString(), "--offline");
+    assertThat(result.code).isEqualTo(1);
+    assertThat(result.err).contains("error:");
+  }
+
+  @Test
+  public void daemonFileIsOwnerOnly() throws Exception {
+    assertThat(PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(daemonFile.toPath())))
+        .isEqualTo("rw-------");
+  }
+
+  @Test
+  public void wrongTokenFallsBack() throws Exception {
+    String contents = Files.toString(daemonFile, StandardCharsets.UTF_8);
+    File other = new File(folder, "other-daemon");
+    Files.write(contents.split(" ")[0] + " not-the-token\n", other, StandardCharsets.UTF_8);
+    assertThat(CDepClient.tryRunInDaemon(other, new String[]{"--version"}, System.out, System.err)).isNull();
+    assertThat(CDepClient.stopDaemon(other)).isFalse();
+    // The daemon is still there for the right token
+    assertThat(run("--version").code).isEqualTo(0);
+  }
+
+  @Test
+  public void noDaemonFallsBack() throws Exception {
+    File missing = new File(folder, "no-daemon");
+    assertThat(CDepClient.tryRunInDaemon(missing, new String[]{"--version"}, System.out, System.err)).isNull();
+    assertThat(CDepClient.stopDaemon(missing)).isFalse();
+  }
+
+  @Test
+  public void stopRemovesDaemonFile() throws Exception {
+    assertThat(CDepClient.stopDaemon(daemonFile)).isTrue();
+    daemonThread.join(10000);
+    assertThat(daemonThread.isAlive()).isFalse();
+    assertThat(daemonFile.exists()).isFalse();
+    assertThat(run("--version").code).isNull();
+  }
+}
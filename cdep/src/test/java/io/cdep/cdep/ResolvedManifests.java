@@ -1016,6 +1016,36 @@ public class ResolvedManifests {
             "(simd4f_add(simd4f_create(1,2,3,4), \n      simd4f_create(1,2,3,4)));\n  }");
   }
 
+  /*
+   * A synthetic manifest for benchmarks with an android archive for each of 3 runtimes, 7 ABIs and
+   * 10 platforms, 210 in all. It returns the body rather than a TestManifest so that all() doesn't
+   * run every test over it.
+   */
+  @NotNull
+  public static String largeMultiAbiBody() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("coordinate:\n  groupId: com.github.jomof\n  artifactId: big\n  version: 1.0.0\n");
+    sb.append("interfaces:\n  headers:\n    file: big-headers.zip\n");
+    sb.append("    sha256: 97ce6635df1f44653a597343cd5757bb8b6b992beb3720f5fc761e3644bcbe7b\n");
+    sb.append("    size: 1000\n    include: include\n    requires: [cxx_auto_type, cxx_lambdas]\n");
+    sb.append("android:\n  archives:\n");
+    int count = 0;
+    for (String runtime : new String[]{"c++", "gnustl", "stlport"}) {
+      for (String abi : new String[]{"armeabi", "armeabi-v7a", "arm64-v8a", "x86", "x86_64", "mips", "mips64"}) {
+        for (int platform = 12; platform < 32; platform += 2) {
+          ++count;
+          sb.append(String.format("  - file: big-android-%s-%s-%s.zip\n", runtime, platform, abi));
+          sb.append(String.format("    sha256: %064x\n", count));
+          sb.append(String.format("    size: %s\n", 1000 + count));
+          sb.append(String.format("    runtime: %s\n    platform: %s\n    abi: %s\n", runtime, platform, abi));
+          sb.append("    ndk: r17\n    compiler: clang\n    include: include\n");
+          sb.append("    libs: [libbig.a, libbig_extra.a, libbig_util.a, libbig_io.a]\n");
+        }
+      }
+    }
+    return sb.toString();
+  }
+
   @NotNull
   static TestManifest getResolvedManifest(@NotNull String manifest) throws MalformedURLException {
     CDepManifestYml yml = CDepManifestYmlUtils.convertStringToManifest("test.yml", manifest);
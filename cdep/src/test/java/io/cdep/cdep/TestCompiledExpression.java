@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
+import io.cdep.cdep.ast.finder.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestCompiledExpression {
+
+  /*
+   * Parameter bindings for a spread of Android, iOS and Linux targets.
+   */
+  @NotNull
+  private static List<Map<ParameterExpression, Object>> getTargets(@NotNull FunctionTableExpression table) {
+    List<Map<ParameterExpression, Object>> result = new ArrayList<>();
+    for (String abi : new String[]{"armeabi", "armeabi-v7a", "arm64-v8a", "x86", "x86_64"}) {
+      for (String runtime : new String[]{"c++_shared", "c++_static", "gnustl_static", "stlport_shared"}) {
+        for (String platform : new String[]{"9", "16", "21", "24"}) {
+          Map<ParameterExpression, Object> bindings = getCommonBindings(table, "Android");
+          bindings.put(table.globals.cdepDeterminedAndroidAbi, abi);
+          bindings.put(table.globals.cdepDeterminedAndroidRuntime, runtime);
+          bindings.put(table.globals.buildSystemTargetPlatform, platform);
+          result.add(bindings);
+        }
+      }
+    }
+    for (String architecture : new String[]{"armv7", "arm64", "i386", "x86_64"}) {
+      Map<ParameterExpression, Object> bindings = getCommonBindings(table, "Darwin");
+      bindings.put(table.globals.cmakeOsxArchitectures, new String[]{architecture});
+      bindings.put(table.globals.cmakeOsxSysroot,
+          "/Applications/Xcode.app/Contents/Developer/Platforms/iPhoneOS.platform/Developer/SDKs/iPhoneOS10.2.sdk");
+      result.add(bindings);
+    }
+    result.add(getCommonBindings(table, "Linux"));
+    return result;
+  }
+
+  @NotNull
+  private static Map<ParameterExpression, Object> getCommonBindings(@NotNull FunctionTableExpression table,
+      @NotNull String system) {
+    Map<ParameterExpression, Object> bindings = new HashMap<>();
+    bindings.put(table.globals.cdepExplodedRoot, "exploded/root");
+    bindings.put(table.globals.buildSystemTargetSystem, system);
+    bindings.put(table.globals.buildSystemNoneRuntime, "none");
+    return bindings;
+  }
+
+  @NotNull
+  private static Object interpret(@NotNull Expression expr, @NotNull final Map<ParameterExpression, Object> bindings) {
+    return new InterpretingVisitor() {
+      @Override
+      protected Object visitParameterExpression(@NotNull ParameterExpression expr) {
+        if (bindings.containsKey(expr)) {
+          return bindings.get(expr);
+        }
+        return super.visitParameterExpression(expr);
+      }
+    }.visit(expr);
+  }
+
+  /*
+   * Describe a result or the exception thrown while computing it so that results can be compared.
+   */
+  @NotNull
+  private static String describe(Object value) {
+    if (value instanceof ModuleArchive) {
+      ModuleArchive archive = (ModuleArchive) value;
+      StringBuilder sb = new StringBuilder();
+      sb.append(archive.remote).append(" ").append(archive.fullIncludePath);
+      for (Object library : archive.fullLibraryNames) {
+        sb.append(" ").append(library);
+      }
+      return sb.toString();
+    }
+    if (value instanceof Object[]) {
+      StringBuilder sb = new StringBuilder("[");
+      for (Object element : (Object[]) value) {
+        sb.append(describe(element)).append(";");
+      }
+      return sb.append("]").toString();
+    }
+    if (value instanceof NopExpression) {
+      return "nop";
+    }
+    if (value instanceof Throwable) {
+      return value.getClass().getSimpleName() + ": " + ((Throwable) value).getMessage();
+    }
+    return String.valueOf(value);
+  }
+
+  @NotNull
+  private static List<FunctionTableExpression> getTables() {
+    List<FunctionTableExpression> tables = new ArrayList<>();
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+      builder.addManifest(manifest.resolved);
+      try {
+        tables.add(builder.build());
+      } catch (RuntimeException e) {
+        // Some test manifests are malformed on purpose
+      }
+    }
+    return tables;
+  }
+
+  @Test
+  public void testSameResultsAsInterpreter() throws Exception {
+    int compared = 0;
+    for (FunctionTableExpression table : getTables()) {
+      for (Coordinate coordinate : table.orderOfReferences) {
+        StatementExpression function = table.getFindFunction(coordinate);
+        CompiledExpression compiled = CompiledExpression.compile(function);
+        for (Map<ParameterExpression, Object> bindings : getTargets(table)) {
+          Object expected;
+          try {
+            expected = interpret(function, bindings);
+          } catch (RuntimeException e) {
+            expected = e;
+          }
+          Object actual;
+          try {
+            actual = compiled.evaluate(bindings);
+          } catch (RuntimeException e) {
+            actual = e;
+          }
+          assertThat(describe(actual)).isEqualTo(describe(expected));
+          ++compared;
+        }
+      }
+    }
+    assertThat(compared).isGreaterThan(1000);
+  }
+
+  @Test
+  public void testAssignmentEvaluatedOnce() throws Exception {
+    final int calls[] = new int[1];
+    GlobalBuildEnvironmentExpression globals = new GlobalBuildEnvironmentExpression();
+    AssignmentExpression assignment = ExpressionBuilder.assign("value", globals.cdepExplodedRoot);
+    Expression expr = ExpressionBuilder.array(
+        ExpressionBuilder.reference(assignment),
+        ExpressionBuilder.reference(assignment));
+    Object result = CompiledExpression.compile(expr).evaluate(new CompiledExpression.Evaluation() {
+      @Override
+      protected Object getParameter(@NotNull ParameterExpression expr) {
+        ++calls[0];
+        return "value";
+      }
+    });
+    assertThat(describe(result)).isEqualTo("[value;value;]");
+    assertThat(calls[0]).isEqualTo(1);
+  }
+
+  @Test
+  public void testUnboundParameter() throws Exception {
+    try {
+      CompiledExpression.compile(new GlobalBuildEnvironmentExpression().cdepExplodedRoot)
+          .evaluate(new HashMap<ParameterExpression, Object>());
+      throw new AssertionError("Expected exception");
+    } catch (RuntimeException e) {
+      assertThat(e).hasMessage("Need to bind cdep_exploded_root");
+    }
+  }
+
+  @Test
+  public void testTiming() throws Exception {
+    // Only targets that find a module are timed. Aborts spend their time building the exception.
+    List<Expression> functions = new ArrayList<>();
+    List<CompiledExpression> compiled = new ArrayList<>();
+    List<Map<ParameterExpression, Object>> targets = new ArrayList<>();
+    for (FunctionTableExpression table : getTables()) {
+      for (Coordinate coordinate : table.orderOfReferences) {
+        StatementExpression function = table.getFindFunction(coordinate);
+        CompiledExpression compiledFunction = CompiledExpression.compile(function);
+        for (Map<ParameterExpression, Object> bindings : getTargets(table)) {
+          try {
+            compiledFunction.evaluate(bindings);
+          } catch (RuntimeException e) {
+            continue;
+          }
+          functions.add(function);
+          compiled.add(compiledFunction);
+          targets.add(bindings);
+        }
+      }
+    }
+    int iterations = 200;
+    // Warm up both
+    for (int i = 0; i < 20; ++i) {
+      for (int j = 0; j < targets.size(); ++j) {
+        interpret(functions.get(j), targets.get(j));
+        compiled.get(j).evaluate(targets.get(j));
+      }
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      for (int j = 0; j < targets.size(); ++j) {
+        interpret(functions.get(j), targets.get(j));
+      }
+    }
+    long interpretedNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      for (int j = 0; j < targets.size(); ++j) {
+        compiled.get(j).evaluate(targets.get(j));
+      }
+    }
+    long compiledNanos = System.nanoTime() - start;
+    long evaluations = (long) iterations * targets.size();
+    assertThat(targets).isNotEmpty();
+    System.out.printf("%s find function evaluations: interpreted %.2f us, compiled %.2f us each\n",
+        targets.size(), interpretedNanos / 1000.0 / evaluations, compiledNanos / 1000.0 / evaluations);
+  }
+}
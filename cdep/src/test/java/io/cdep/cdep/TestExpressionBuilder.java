@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.cdep.ast.finder.AssignmentExpression;
+import io.cdep.cdep.ast.finder.ConstantExpression;
+import io.cdep.cdep.ast.finder.Expression;
+import io.cdep.cdep.ast.finder.FunctionTableExpression;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.*;
+
+public class TestExpressionBuilder {
+
+  /*
+   * Counts every node visited, shared or not, and the distinct nodes among them.
+   */
+  private static class NodeCounter extends ReadonlyVisitor {
+    private final Set<Expression> distinct = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+    private final Set<Object> constants = new HashSet<>();
+    private int visited = 0;
+    private int distinctConstants = 0;
+
+    @Override
+    public void visit(Expression expr) {
+      if (expr == null) {
+        return;
+      }
+      ++visited;
+      if (distinct.add(expr) && expr instanceof ConstantExpression) {
+        ++distinctConstants;
+        constants.add(((ConstantExpression) expr).value);
+      }
+      super.visit(expr);
+    }
+  }
+
+  @Test
+  public void testConstantsAreShared() {
+    assertThat(constant("armeabi-v7a")).isSameAs(constant("armeabi-v7a"));
+    assertThat(constant(21)).isSameAs(constant(21));
+    assertThat(constant("21")).isNotSameAs(constant(21));
+  }
+
+  @Test
+  public void testInvocationsAreShared() {
+    Expression left = eq(constant("x"), constant("y"));
+    assertThat(left).isSameAs(eq(constant("x"), constant("y")));
+    assertThat(left).isNotSameAs(eq(constant("y"), constant("x")));
+    assertThat(left.hashCode()).isEqualTo(eq(constant("x"), constant("y")).hashCode());
+  }
+
+  @Test
+  public void testArraysAreShared() {
+    assertThat(array(constant("x"), constant("y"))).isSameAs(array(constant("x"), constant("y")));
+    assertThat(array(constant("x"))).isNotSameAs(array(constant("x"), constant("y")));
+    assertThat(array()).isSameAs(array());
+  }
+
+  @Test
+  public void testAssignmentsAreNotShared() {
+    AssignmentExpression first = assign("x", constant("y"));
+    AssignmentExpression second = assign("x", constant("y"));
+    assertThat(first).isNotSameAs(second);
+    assertThat(first.expression).isSameAs(second.expression);
+    assertThat(reference(first)).isSameAs(reference(first));
+    assertThat(reference(first)).isNotSameAs(reference(second));
+  }
+
+  @Test
+  public void testNodeCounts() throws Exception {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.getResolvedManifest(ResolvedManifests.largeMultiAbiBody()).manifest);
+    FunctionTableExpression table = builder.build();
+    NodeCounter counter = new NodeCounter();
+    counter.visit(table);
+    System.out.printf("Manifest with 210 android archives: %s nodes visited, %s distinct, %s distinct constants\n",
+        counter.visited, counter.distinct.size(), counter.distinctConstants);
+    assertThat(counter.distinctConstants).isEqualTo(counter.constants.size());
+  }
+}
@@ -35,7 +35,9 @@ import org.junit.Test;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -433,4 +435,116 @@ public class TestFindModuleFunctionTableBuilder {
       }
     }
   }
+
+  @NotNull
+  private static List<ResolvedManifest> syntheticGraph(int count) throws Exception {
+    List<ResolvedManifest> result = new ArrayList<>();
+    // Each archive needs its own SHA256 or dependent packages look like they duplicate files
+    int files = 0;
+    for (int i = 0; i < count; ++i) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("coordinate:\n  groupId: com.github.jomof\n  artifactId: synthetic-%s\n  version: 1.0.0\n", i));
+      if (i > 0) {
+        sb.append("dependencies:\n");
+        for (int dependency : new int[]{i - 1, i / 2}) {
+          sb.append(String.format("  - compile: com.github.jomof:synthetic-%s:1.0.0\n", dependency));
+          sb.append("    sha256: 97ce6635df1f44653a597343cd5757bb8b6b992beb3720f5fc761e3644bcbe7b\n");
+          if (dependency == i / 2) {
+            break;
+          }
+        }
+      }
+      sb.append("android:\n  archives:\n");
+      for (String runtime : new String[]{"c++", "gnustl"}) {
+        for (String abi : new String[]{"armeabi-v7a", "arm64-v8a", "x86"}) {
+          sb.append(String.format("  - file: synthetic-%s-%s-%s.zip\n", i, runtime, abi));
+          sb.append(String.format("    sha256: %064x\n", ++files));
+          sb.append(String.format("    size: 1000\n    runtime: %s\n    platform: 21\n    abi: %s\n", runtime, abi));
+          sb.append("    include: include\n    lib: libsynthetic.a\n");
+        }
+      }
+      sb.append(String.format("linux:\n  archives:\n  - file: synthetic-%s-linux.zip\n", i));
+      sb.append(String.format("    sha256: %064x\n", ++files));
+      sb.append("    size: 1000\n    include: include\n    lib: libsynthetic.a\n");
+      CDepManifestYml manifest = CDepManifestYmlUtils.convertStringToManifest("synthetic.yml", sb.toString());
+      result.add(new ResolvedManifest(new URL("http://google.com/cdep-manifest.yml"), manifest));
+    }
+    return result;
+  }
+
+  @NotNull
+  private static FunctionTableExpression buildTable(@NotNull List<ResolvedManifest> manifests) {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    for (ResolvedManifest manifest : manifests) {
+      builder.addManifest(manifest);
+    }
+    return builder.build();
+  }
+
+  private static double timePass(int iterations, @NotNull Runnable pass) {
+    // Warm up for longer than we measure so the JIT has finished with the pass before timing starts
+    for (int i = 0; i < 2 * iterations; ++i) {
+      pass.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      pass.run();
+    }
+    return (System.nanoTime() - start) / 1000000.0 / iterations;
+  }
+
+  @Test
+  public void benchmarkSyntheticGraphPasses() throws Exception {
+    final List<ResolvedManifest> manifests = syntheticGraph(500);
+    final FunctionTableExpression table = buildTable(manifests);
+    assertThat(table.orderOfReferences).hasSize(500);
+    Map<String, Runnable> passes = new LinkedHashMap<>();
+    passes.put("build", new Runnable() {
+      @Override
+      public void run() {
+        buildTable(manifests);
+      }
+    });
+    passes.put("ReadonlyVisitor", new Runnable() {
+      @Override
+      public void run() {
+        new ReadonlyVisitor().visit(table);
+      }
+    });
+    passes.put("RewritingVisitor", new Runnable() {
+      @Override
+      public void run() {
+        new RewritingVisitor().visit(table);
+      }
+    });
+    passes.put("LiftAssignmentToCommonAncestor", new Runnable() {
+      @Override
+      public void run() {
+        new LiftAssignmentToCommonAncestor().visit(table);
+      }
+    });
+    passes.put("CheckReferenceAndDependencyConsistency", new Runnable() {
+      @Override
+      public void run() {
+        new CheckReferenceAndDependencyConsistency().visit(table);
+      }
+    });
+    passes.put("CreateStringVisitor", new Runnable() {
+      @Override
+      public void run() {
+        CreateStringVisitor.convert(table);
+      }
+    });
+    passes.put("CompiledExpression", new Runnable() {
+      @Override
+      public void run() {
+        CompiledExpression.compile(table);
+      }
+    });
+    for (Map.Entry<String, Runnable> pass : passes.entrySet()) {
+      int iterations = pass.getKey().equals("build") ? 3 : 10;
+      System.out.printf("%s coordinates, %s: %.3f ms\n", manifests.size(), pass.getKey(),
+          timePass(iterations, pass.getValue()));
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.cdep.ast.finder.FindModuleExpression;
+import io.cdep.cdep.ast.finder.FunctionTableExpression;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class TestFunctionTableSnapshot {
+
+  private static FunctionTableExpression roundTrip(FunctionTableExpression table) throws IOException {
+    return FunctionTableSnapshot.read(new DataInputStream(new ByteArrayInputStream(toBytes(table))));
+  }
+
+  private static byte[] toBytes(FunctionTableExpression table) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      FunctionTableSnapshot.write(table, out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static List<FunctionTableExpression> buildAll() throws Exception {
+    List<FunctionTableExpression> tables = new ArrayList<>();
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      if (Objects.equals(manifest.name, "admob") || Objects.equals(manifest.name, "fuzz1")) {
+        // These don't build
+        continue;
+      }
+      BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+      if (Objects.equals(manifest.name, "curlAndroid")) {
+        builder.addManifest(ResolvedManifests.zlibAndroid().manifest);
+        builder.addManifest(ResolvedManifests.boringSSLAndroid().manifest);
+      }
+      builder.addManifest(manifest.resolved);
+      tables.add(builder.build());
+    }
+    return tables;
+  }
+
+  @Test
+  public void testAllResolvedManifestsRoundTrip() throws Exception {
+    for (FunctionTableExpression table : buildAll()) {
+      FunctionTableExpression copy = roundTrip(table);
+      assertThat(CreateStringVisitor.convert(copy)).isEqualTo(CreateStringVisitor.convert(table));
+      assertThat(copy.orderOfReferences).isEqualTo(table.orderOfReferences);
+      // References must still point at the assignments that are in scope
+      new CheckReferenceAndDependencyConsistency().visit(copy);
+      // Writing the copy gives the same bytes
+      assertThat(toBytes(copy)).isEqualTo(toBytes(table));
+    }
+  }
+
+  @Test
+  public void testGlobalsAreShared() throws Exception {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.sqliteAndroid().manifest);
+    FunctionTableExpression copy = roundTrip(builder.build());
+    Coordinate coordinate = copy.orderOfReferences.get(0);
+    assertThat(((FindModuleExpression) copy.getFindFunction(coordinate)).globals)
+        .isSameAs(copy.globals);
+  }
+
+  @Test
+  public void testTruncatedSnapshot() throws Exception {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.sqliteAndroid().manifest);
+    byte bytes[] = toBytes(builder.build());
+    byte truncated[] = new byte[bytes.length / 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    try {
+      FunctionTableSnapshot.read(new DataInputStream(new ByteArrayInputStream(truncated)));
+      fail("Expected exception");
+    } catch (EOFException e) {
+      // Expected
+    }
+    try {
+      FunctionTableSnapshot.read(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+      fail("Expected exception");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("Not a function table snapshot");
+    }
+  }
+
+  @Test
+  public void benchmarkSnapshot() throws Exception {
+    List<FunctionTableExpression> tables = buildAll();
+    List<byte[]> snapshots = new ArrayList<>();
+    for (FunctionTableExpression table : tables) {
+      snapshots.add(toBytes(table));
+    }
+    int iterations = 20;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      buildAll();
+    }
+    long buildNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      for (byte snapshot[] : snapshots) {
+        FunctionTableSnapshot.read(new DataInputStream(new ByteArrayInputStream(snapshot)));
+      }
+    }
+    long readNanos = System.nanoTime() - start;
+    System.out.printf("Parse and build %s tables: %s ms, read snapshots: %s ms\n",
+        tables.size(), buildNanos / iterations / 1000000.0, readNanos / iterations / 1000000.0);
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.ast.finder.*;
+import io.cdep.cdep.utils.CDepRuntimeException;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.google.common.truth.Truth.assertThat;
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.assignmentBlock;
+import static io.cdep.cdep.utils.Invariant.require;
+
+public class TestLiftAssignmentToCommonAncestor {
+
+  /*
+   * The original implementation which finds the references under each scope by walking it with
+   * GetContainedReferences. The pass must produce exactly what this does.
+   */
+  private static class WalkingLiftAssignmentToCommonAncestor extends RewritingVisitor {
+    @NotNull
+    private final Set<AssignmentExpression> captured = new LinkedHashSet<>();
+    @NotNull
+    private Map<AssignmentExpression, Integer> functionCounts = new LinkedHashMap<>();
+
+    @NotNull
+    @Override
+    protected Expression visitFindModuleExpression(@NotNull FindModuleExpression expr) {
+      this.functionCounts = counts(expr);
+      StatementExpression body = (StatementExpression) visit(expr.body);
+      List<AssignmentExpression> block = extractBlocks(body);
+      if (block.size() > 0) {
+        body = assignmentBlock(block, body);
+      }
+      StatementExpression result = new FindModuleExpression(
+          expr.globals,
+          expr.coordinate,
+          expr.headerArchive,
+          expr.include,
+          body);
+      block = extractBlocks(result);
+      if (block.size() > 0) {
+        result = assignmentBlock(block, result);
+      }
+      return result;
+    }
+
+    @NotNull
+    @Override
+    protected Expression visitIfSwitchExpression(@NotNull IfSwitchExpression expr) {
+      Expression result = super.visitIfSwitchExpression(expr);
+      List<AssignmentExpression> block = extractBlocks(result);
+      if (block.size() > 0) {
+        return assignmentBlock(block, (StatementExpression) result);
+      }
+      return result;
+    }
+
+    @Override
+    protected Expression visitModuleExpression(@NotNull ModuleExpression expr) {
+      Expression result = super.visitModuleExpression(expr);
+      List<AssignmentExpression> block = extractBlocks(result);
+      if (block.size() > 0) {
+        return assignmentBlock(block, (StatementExpression) result);
+      }
+      return result;
+    }
+
+    @NotNull
+    private List<AssignmentExpression> extractBlocks(Expression result) {
+      Map<AssignmentExpression, Integer> count = counts(result);
+      List<AssignmentExpression> block = new ArrayList<>();
+      for (AssignmentExpression assignment : new GetContainedReferences(result).list) {
+        if (captured.contains(assignment)) {
+          continue;
+        }
+        long functionCount = functionCounts.get(assignment);
+        long currentCount = count.get(assignment);
+        require(currentCount <= functionCount);
+        if (currentCount == functionCount) {
+          captured.add(assignment);
+          block.add(assignment);
+        }
+      }
+      return block;
+    }
+
+    @NotNull
+    private static Map<AssignmentExpression, Integer> counts(Expression expr) {
+      Map<AssignmentExpression, Integer> counts = new LinkedHashMap<>();
+      for (AssignmentExpression assignment : new GetContainedReferences(expr).list) {
+        Integer n = counts.get(assignment);
+        counts.put(assignment, n == null ? 1 : n + 1);
+      }
+      return counts;
+    }
+  }
+
+  @NotNull
+  private static List<FunctionTableExpression> unliftedTables() throws Exception {
+    List<FunctionTableExpression> tables = new ArrayList<>();
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+      if (Objects.equals(manifest.name, "curlAndroid")) {
+        builder.addManifest(ResolvedManifests.zlibAndroid().manifest);
+        builder.addManifest(ResolvedManifests.boringSSLAndroid().manifest);
+      }
+      builder.addManifest(manifest.resolved);
+      try {
+        tables.add(builder.buildUnlifted());
+      } catch (CDepRuntimeException e) {
+        // Manifests that can't be built are covered elsewhere
+      }
+    }
+    return tables;
+  }
+
+  @NotNull
+  private static String lift(@NotNull RewritingVisitor lift, @NotNull FunctionTableExpression table) {
+    return CreateStringVisitor.convert(lift.visit(table));
+  }
+
+  @Test
+  public void testSameAsWalkingEachScope() throws Exception {
+    List<FunctionTableExpression> tables = unliftedTables();
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.getResolvedManifest(ResolvedManifests.largeMultiAbiBody()).manifest);
+    tables.add(builder.buildUnlifted());
+    assertThat(tables.size()).isGreaterThan(10);
+    for (FunctionTableExpression table : tables) {
+      String expected = lift(new WalkingLiftAssignmentToCommonAncestor(), table);
+      assertThat(lift(new LiftAssignmentToCommonAncestor(), table)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testSameAsWalkingEachScopeWhenAlreadyLifted() throws Exception {
+    // Assignment blocks from an earlier lift aren't counted as references
+    for (FunctionTableExpression table : unliftedTables()) {
+      FunctionTableExpression lifted = (FunctionTableExpression) new LiftAssignmentToCommonAncestor().visit(table);
+      String expected = lift(new WalkingLiftAssignmentToCommonAncestor(), lifted);
+      assertThat(lift(new LiftAssignmentToCommonAncestor(), lifted)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void benchmarkLargeManifest() throws Exception {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.getResolvedManifest(ResolvedManifests.largeMultiAbiBody()).manifest);
+    FunctionTableExpression table = builder.buildUnlifted();
+    int iterations = 20;
+    for (int i = 0; i < iterations; ++i) {
+      new WalkingLiftAssignmentToCommonAncestor().visit(table);
+      new LiftAssignmentToCommonAncestor().visit(table);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      new WalkingLiftAssignmentToCommonAncestor().visit(table);
+    }
+    long walkingNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      new LiftAssignmentToCommonAncestor().visit(table);
+    }
+    long liftNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      builder.build();
+    }
+    long buildNanos = System.nanoTime() - start;
+    System.out.printf("Manifest with 210 android archives: walking lift %.3f ms, lift %.3f ms, build %.3f ms\n",
+        walkingNanos / 1000000.0 / iterations, liftNanos / 1000000.0 / iterations, buildNanos / 1000000.0 / iterations);
+  }
+}
@@ -15,15 +15,20 @@
 */
 package io.cdep.cdep;
 
+import io.cdep.annotations.Nullable;
 import io.cdep.cdep.ast.finder.Expression;
+import io.cdep.cdep.ast.finder.ExpressionKind;
+import io.cdep.cdep.ast.finder.FunctionTableExpression;
 import io.cdep.cdep.utils.CDepRuntimeException;
 import io.cdep.cdep.yml.cdepmanifest.CxxLanguageFeatures;
 import org.junit.Test;
 
 import java.net.URL;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import static com.google.common.truth.Truth.assertThat;
 import static io.cdep.cdep.ast.finder.ExpressionBuilder.archive;
@@ -63,4 +68,32 @@ public class TestReadonlyVisitor {
       }
     }
   }
+
+  @Test
+  public void testKindMatchesClass() throws Exception {
+    final Set<ExpressionKind> seen = new HashSet<>();
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+      builder.addManifest(manifest.resolved);
+      FunctionTableExpression table;
+      try {
+        table = builder.build();
+      } catch (CDepRuntimeException e) {
+        continue;
+      }
+      new ReadonlyVisitor() {
+        @Override
+        public void visit(@Nullable Expression expr) {
+          if (expr != null) {
+            // For example, IfSwitchExpression is IF_SWITCH
+            String name = expr.getClass().getSimpleName().replace("Expression", "");
+            assertThat(expr.kind.name()).isEqualTo(name.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase());
+            seen.add(expr.kind);
+          }
+          super.visit(expr);
+        }
+      }.visit(table);
+    }
+    assertThat(seen).contains(ExpressionKind.ASSIGNMENT_REFERENCE);
+  }
 }
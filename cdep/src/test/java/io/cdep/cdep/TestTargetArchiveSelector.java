@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep;
+
+import io.cdep.cdep.InterpretingVisitor.ModuleArchive;
+import io.cdep.cdep.ast.finder.Expression;
+import io.cdep.cdep.ast.finder.FunctionTableExpression;
+import io.cdep.cdep.ast.finder.ModuleExpression;
+import io.cdep.cdep.utils.ExpressionUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestTargetArchiveSelector {
+
+  private static List<String> getArchiveFileNames(Map<Coordinate, List<Expression>> foundModules) {
+    List<String> names = new ArrayList<>();
+    for (List<Expression> modules : foundModules.values()) {
+      for (Expression module : modules) {
+        String file = ((ModuleExpression) module).archive.file.getFile();
+        names.add(file.substring(file.lastIndexOf('/') + 1));
+      }
+    }
+    return names;
+  }
+
+  private static FunctionTableExpression getOpenCVTable() throws Exception {
+    BuildFindModuleFunctionTable builder = new BuildFindModuleFunctionTable();
+    builder.addManifest(ResolvedManifests.opencv().manifest);
+    return builder.build();
+  }
+
+  @Test
+  public void testSelectsSingleAndroidAbi() throws Exception {
+    FunctionTableExpression table = getOpenCVTable();
+    Map<Coordinate, List<Expression>> foundModules = ExpressionUtils.getAllFoundModuleExpressions(table);
+    assertThat(getArchiveFileNames(foundModules)).hasSize(6);
+    Map<Coordinate, List<Expression>> selected = new TargetArchiveSelector(table, new File("exploded"),
+        "Android", "21", "c++_shared", Collections.singletonList("arm64-v8a")).select(foundModules);
+    assertThat(getArchiveFileNames(selected)).containsExactly("opencv-headers.zip", "opencv-android-12-arm64-v8a.zip");
+  }
+
+  @Test
+  public void testSelectsSeveralAndroidAbis() throws Exception {
+    FunctionTableExpression table = getOpenCVTable();
+    Map<Coordinate, List<Expression>> selected = new TargetArchiveSelector(table, new File("exploded"),
+        "Android", "21", "c++_shared", Arrays.asList("x86", "armeabi-v7a"))
+        .select(ExpressionUtils.getAllFoundModuleExpressions(table));
+    assertThat(getArchiveFileNames(selected)).containsExactly(
+        "opencv-headers.zip", "opencv-android-12-x86.zip", "opencv-android-12-armeabi-v7a.zip");
+  }
+
+  @Test
+  public void testUnknownParameterKeepsAllArchives() throws Exception {
+    FunctionTableExpression table = getOpenCVTable();
+    // The ABI isn't given so the selection can't be made
+    Map<Coordinate, List<Expression>> selected = new TargetArchiveSelector(table, new File("exploded"),
+        "Android", "21", "c++_shared", Collections.<String>emptyList())
+        .select(ExpressionUtils.getAllFoundModuleExpressions(table));
+    assertThat(getArchiveFileNames(selected)).hasSize(6);
+  }
+
+  @Test
+  public void testQuery() throws Exception {
+    FunctionTableExpression table = getOpenCVTable();
+    Coordinate coordinate = table.orderOfReferences.get(0);
+    Map<String, List<ModuleArchive>> found = new TargetArchiveSelector(table, new File("exploded"),
+        "Android", "21", "c++_shared", Arrays.asList("x86", "armeabi-v7a")).query(coordinate);
+    assertThat(found.keySet()).containsExactly("x86", "armeabi-v7a").inOrder();
+    List<String> names = new ArrayList<>();
+    for (ModuleArchive archive : found.get("x86")) {
+      names.add(new File(archive.remote.getFile()).getName());
+      for (File library : archive.fullLibraryNames) {
+        assertThat(library.getPath()).startsWith(new File("exploded").getPath());
+      }
+    }
+    assertThat(names).containsExactly("opencv-headers.zip", "opencv-android-12-x86.zip");
+  }
+
+  @Test
+  public void testQueryUnknownParameter() throws Exception {
+    FunctionTableExpression table = getOpenCVTable();
+    assertThat(new TargetArchiveSelector(table, new File("exploded"),
+        "Android", "21", "c++_shared", Collections.<String>emptyList()).query(table.orderOfReferences.get(0))).isNull();
+  }
+}
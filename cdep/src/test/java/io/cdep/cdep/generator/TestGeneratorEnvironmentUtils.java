@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.generator;
+
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.ast.finder.Expression;
+import io.cdep.cdep.ast.finder.ModuleArchiveExpression;
+import io.cdep.cdep.utils.ArchiveUtils;
+import io.cdep.cdep.utils.CoordinateUtils;
+import io.cdep.cdep.utils.FileUtils;
+import io.cdep.cdep.utils.HashUtils;
+import io.cdep.cdep.yml.cdepmanifest.CxxLanguageFeatures;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.archive;
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.constant;
+import static io.cdep.cdep.ast.finder.ExpressionBuilder.module;
+
+public class TestGeneratorEnvironmentUtils {
+
+  private static void deleteDirectory(File folder) {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          deleteDirectory(f);
+        } else {
+          //noinspection ResultOfMethodCallIgnored
+          f.delete();
+        }
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    folder.delete();
+  }
+
+  private static ModuleArchiveExpression localArchive(File zip) throws Exception {
+    return archive(zip.toURI().toURL(),
+        HashUtils.getSHA256OfFile(zip),
+        zip.length(),
+        "include",
+        null,
+        new String[0],
+        new Expression[0],
+        constant("completion_sentinel"),
+        new CxxLanguageFeatures[0]);
+  }
+
+  private static File createZip(File folder, String name) throws Exception {
+    File source = new File(folder, name + "-source");
+    FileUtils.writeTextToFile(new File(source, "include/header.h"), "// " + name);
+    File zip = new File(folder, name + ".zip");
+    //noinspection ResultOfMethodCallIgnored
+    zip.delete();
+    ArchiveUtils.pack(source.toPath(), zip.toPath());
+    return zip;
+  }
+
+  private static Map<Coordinate, List<Expression>> foundModules(File remotes) throws Exception {
+    File shared = createZip(remotes, "shared");
+    File sharedCopy = new File(remotes, "copy/shared.zip");
+    //noinspection ResultOfMethodCallIgnored
+    sharedCopy.getParentFile().mkdirs();
+    FileUtils.copyFile(shared, sharedCopy);
+    File other = createZip(remotes, "other");
+
+    Map<Coordinate, List<Expression>> result = new LinkedHashMap<>();
+    List<Expression> first = new ArrayList<>();
+    // Two module expressions, for example for two ABIs, that share an archive.
+    first.add(module(localArchive(shared), null));
+    first.add(module(localArchive(shared), null));
+    first.add(module(localArchive(other), null));
+    result.put(CoordinateUtils.tryParse("com.github.jomof:first:1.0.0"), first);
+    // The same archive content published under a different coordinate.
+    List<Expression> second = new ArrayList<>();
+    second.add(module(localArchive(sharedCopy), null));
+    result.put(CoordinateUtils.tryParse("com.github.jomof:second:1.0.0"), second);
+    return result;
+  }
+
+  private static void assertExploded(GeneratorEnvironment environment, Map<Coordinate, List<Expression>> found) {
+    for (Coordinate coordinate : found.keySet()) {
+      for (ModuleArchiveExpression archive : GeneratorEnvironmentUtils.getArchives(found.get(coordinate))) {
+        assertThat(environment.getLocalDownloadFilename(coordinate, archive.file).length()).isEqualTo(archive.size);
+        File unzipFolder = environment.getLocalUnzipFolder(coordinate, archive.file);
+        assertThat(new File(unzipFolder, "include/header.h").isFile()).isTrue();
+        assertThat(new File(unzipFolder, "completion_sentinel").isFile()).isTrue();
+        assertThat(new File(unzipFolder, "cdep-archive.yml").isFile()).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void testPipelinedDownloadMatchesSerial() throws Exception {
+    File root = new File(".test-files/TestGeneratorEnvironmentUtils/testPipelinedDownloadMatchesSerial")
+        .getAbsoluteFile();
+    deleteDirectory(root);
+    Map<Coordinate, List<Expression>> found = foundModules(new File(root, "remotes"));
+
+    GeneratorEnvironment serial = new GeneratorEnvironment(new File(root, "serial"), null,
+        "packages", null, false, false);
+    GeneratorEnvironmentUtils.downloadReferencedModules(serial, found, 1);
+    assertExploded(serial, found);
+
+    GeneratorEnvironment pipelined = new GeneratorEnvironment(new File(root, "pipelined"), null,
+        "packages", null, false, false);
+    GeneratorEnvironmentUtils.downloadReferencedModules(pipelined, found, 4);
+    assertExploded(pipelined, found);
+
+    // Running again over already exploded archives is a no-op.
+    GeneratorEnvironmentUtils.downloadReferencedModules(pipelined, found, 4);
+    assertExploded(pipelined, found);
+  }
+
+  @Test
+  public void testPipelinedRedownload() throws Exception {
+    File root = new File(".test-files/TestGeneratorEnvironmentUtils/testPipelinedRedownload").getAbsoluteFile();
+    deleteDirectory(root);
+    Map<Coordinate, List<Expression>> found = foundModules(new File(root, "remotes"));
+    GeneratorEnvironment environment = new GeneratorEnvironment(new File(root, "working"), null,
+        "packages", null, false, false);
+    GeneratorEnvironmentUtils.downloadReferencedModules(environment, found, 4);
+    GeneratorEnvironment redownload = new GeneratorEnvironment(new File(root, "working"), null,
+        "packages", null, true, false);
+    GeneratorEnvironmentUtils.downloadReferencedModules(redownload, found, 4);
+    assertExploded(redownload, found);
+  }
+
+  @Test
+  public void testIdenticalArchivesShareStorage() throws Exception {
+    File root = new File(".test-files/TestGeneratorEnvironmentUtils/testIdenticalArchivesShareStorage")
+        .getAbsoluteFile();
+    deleteDirectory(root);
+    Map<Coordinate, List<Expression>> found = foundModules(new File(root, "remotes"));
+    GeneratorEnvironment environment = new GeneratorEnvironment(new File(root, "working"), null,
+        "packages", null, false, false);
+    GeneratorEnvironmentUtils.downloadReferencedModules(environment, found, 1);
+    assertExploded(environment, found);
+
+    // The shared archive was published under two coordinates but is stored once.
+    Coordinate first = CoordinateUtils.tryParse("com.github.jomof:first:1.0.0");
+    Coordinate second = CoordinateUtils.tryParse("com.github.jomof:second:1.0.0");
+    assert first != null;
+    assert second != null;
+    URL firstArchive = GeneratorEnvironmentUtils.getArchives(found.get(first)).get(0).file;
+    URL secondArchive = GeneratorEnvironmentUtils.getArchives(found.get(second)).get(0).file;
+    assertThat(Files.isSameFile(
+        environment.getLocalDownloadFilename(first, firstArchive).toPath(),
+        environment.getLocalDownloadFilename(second, secondArchive).toPath())).isTrue();
+    assertThat(Files.isSameFile(
+        new File(environment.getLocalUnzipFolder(first, firstArchive), "include/header.h").toPath(),
+        new File(environment.getLocalUnzipFolder(second, secondArchive), "include/header.h").toPath())).isTrue();
+    assertThat(environment.collectGarbage()).isEqualTo(0);
+
+    // Once no coordinate refers to the other archive its stored copies are collected.
+    URL otherArchive = GeneratorEnvironmentUtils.getArchives(found.get(first)).get(2).file;
+    deleteDirectory(environment.getLocalDownloadFilename(first, otherArchive));
+    deleteDirectory(environment.getLocalUnzipFolder(first, otherArchive));
+    assertThat(environment.collectGarbage()).isEqualTo(2);
+    assertThat(FileUtils.readAllText(new File(environment.getLocalUnzipFolder(second, secondArchive),
+        "include/header.h"))).isEqualTo("// shared");
+  }
+
+  @Test
+  public void testDownloadRecordsDigest() throws Exception {
+    File root = new File(".test-files/TestGeneratorEnvironmentUtils/testDownloadRecordsDigest").getAbsoluteFile();
+    deleteDirectory(root);
+    File zip = createZip(new File(root, "remotes"), "archive");
+    ModuleArchiveExpression archive = localArchive(zip);
+    Coordinate coordinate = CoordinateUtils.tryParse("com.github.jomof:archive:1.0.0");
+    assert coordinate != null;
+    GeneratorEnvironment environment = new GeneratorEnvironment(new File(root, "working"), null,
+        "packages", null, false, false);
+    GeneratorEnvironmentUtils.downloadSingleArchive(environment, coordinate, archive.file, archive.size,
+        archive.sha256, false);
+
+    // The digest is taken while downloading and recorded in the downloads folder hash index.
+    File local = environment.getLocalDownloadFilename(coordinate, archive.file);
+    File index = new File(environment.downloadFolder, ".sha256-index");
+    assertThat(FileUtils.readAllText(index)).contains(archive.sha256 + " " + archive.size + " ");
+    assertThat(FileUtils.readAllText(index)).contains(local.getAbsolutePath());
+
+    // While the file is unchanged the recorded digest is trusted.
+    environment.hashIndex.record(local, "recorded");
+    assertThat(environment.getSHA256OfDownloadedFile(local)).isEqualTo("recorded");
+
+    // Otherwise the file is hashed again.
+    assertThat(local.setLastModified(local.lastModified() - 10000)).isTrue();
+    assertThat(environment.getSHA256OfDownloadedFile(local)).isEqualTo(archive.sha256);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.resolver;
+
+import io.cdep.cdep.Coordinate;
+import io.cdep.cdep.utils.CDepManifestYmlUtils;
+import io.cdep.cdep.utils.CoordinateUtils;
+import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestManifestResolutionCache {
+  private static final Coordinate COORDINATE = CoordinateUtils.tryParse("com.github.jomof:sqlite:1.0.0");
+
+  /*
+   * Serves a manifest for any URL that contains 'exists' and records each URL asked for.
+   */
+  private static class CountingManifestProvider implements ManifestProvider {
+    final List<String> requests = new ArrayList<>();
+
+    @Override
+    public CDepManifestYml tryGetManifest(Coordinate coordinate, URL remoteArchive) {
+      requests.add(remoteArchive.toString());
+      if (!remoteArchive.toString().contains("exists")) {
+        return null;
+      }
+      return CDepManifestYmlUtils.convertStringToManifest(remoteArchive.toString(),
+          "coordinate:\n  groupId: com.github.jomof\n  artifactId: sqlite\n  version: 1.0.0\n");
+    }
+  }
+
+  private static File missingFile(String testName) {
+    File file = new File(".test-files/TestManifestResolutionCache/" + testName + "/.missing-manifests")
+        .getAbsoluteFile();
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+    return file;
+  }
+
+  @Test
+  public void testFoundManifestFetchedOnce() throws Exception {
+    CountingManifestProvider provider = new CountingManifestProvider();
+    ManifestResolutionCache cache = new ManifestResolutionCache(provider,
+        missingFile("testFoundManifestFetchedOnce"), 60000, false);
+    URL url = new URL("https://github.com/jomof/sqlite/releases/download/1.0.0/exists.yml");
+    CDepManifestYml first = cache.tryGetManifest(COORDINATE, url);
+    CDepManifestYml second = cache.tryGetManifest(COORDINATE, url);
+    assertThat(first).isNotNull();
+    assertThat(second).isSameAs(first);
+    assertThat(provider.requests).hasSize(1);
+  }
+
+  @Test
+  public void testMissingRememberedAcrossRuns() throws Exception {
+    File missingFile = missingFile("testMissingRememberedAcrossRuns");
+    URL url = new URL("https://github.com/jomof/sqlite/releases/download/1.0.0/missing.yml");
+    CountingManifestProvider provider = new CountingManifestProvider();
+    assertThat(new ManifestResolutionCache(provider, missingFile, 60000, false)
+        .tryGetManifest(COORDINATE, url)).isNull();
+    assertThat(provider.requests).hasSize(1);
+
+    // A later run doesn't ask again
+    assertThat(new ManifestResolutionCache(provider, missingFile, 60000, false)
+        .tryGetManifest(COORDINATE, url)).isNull();
+    assertThat(provider.requests).hasSize(1);
+
+    // Unless asked to ignore what it remembered, for example when redownloading
+    assertThat(new ManifestResolutionCache(provider, missingFile, 60000, true)
+        .tryGetManifest(COORDINATE, url)).isNull();
+    assertThat(provider.requests).hasSize(2);
+  }
+
+  @Test
+  public void testMissingExpires() throws Exception {
+    File missingFile = missingFile("testMissingExpires");
+    URL url = new URL("https://github.com/jomof/sqlite/releases/download/1.0.0/missing.yml");
+    CountingManifestProvider provider = new CountingManifestProvider();
+    ManifestResolutionCache cache = new ManifestResolutionCache(provider, missingFile, -1, false);
+    assertThat(cache.tryGetManifest(COORDINATE, url)).isNull();
+    assertThat(cache.tryGetManifest(COORDINATE, url)).isNull();
+    assertThat(provider.requests).hasSize(2);
+  }
+}
@@ -16,6 +16,7 @@
 package io.cdep.cdep.resolver;
 
 import com.google.common.collect.Lists;
+import io.cdep.annotations.NotNull;
 import io.cdep.cdep.Coordinate;
 import io.cdep.cdep.resolver.ResolutionScope.Unresolvable;
 import io.cdep.cdep.utils.CDepRuntimeException;
@@ -28,7 +29,11 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
@@ -420,4 +425,96 @@ public class TestResolutionScope {
     assertThat(scope.getUnresolveableReason(scope.getUnresolvableReferences().iterator().next())).
         isSameAs(Unresolvable.UNPARSEABLE);
   }
+
+  /*
+   * The original ordering which makes passes over the manifests in the order they were resolved
+   * and writes each one whose dependencies have all been written.
+   */
+  @NotNull
+  private static List<String> repeatedPasses(@NotNull ResolutionScope scope, @NotNull List<String> names) {
+    Set<String> seen = new LinkedHashSet<>();
+    List<String> result = new ArrayList<>();
+    while (result.size() < names.size()) {
+      int resolutionsInLoop = 0;
+      for (String name : names) {
+        if (seen.contains(name)) {
+          continue;
+        }
+        List<Coordinate> dependencies = scope.forwardEdges.get(scope.getResolution(name).cdepManifestYml.coordinate);
+        boolean missingDependencies = false;
+        if (dependencies != null) {
+          for (Coordinate dependency : dependencies) {
+            if (!seen.contains(CoordinateUtils.getVersionless(dependency).toString())) {
+              missingDependencies = true;
+              break;
+            }
+          }
+        }
+        if (missingDependencies) {
+          continue;
+        }
+        result.add(name);
+        seen.add(name);
+        ++resolutionsInLoop;
+      }
+      assertThat(resolutionsInLoop).isGreaterThan(0);
+    }
+    return result;
+  }
+
+  private static void resolve(@NotNull ResolutionScope scope, @NotNull String coordinate,
+      @NotNull List<String> dependencies) throws IOException {
+    List<HardNameDependency> transitiveDependencies = new ArrayList<>();
+    for (String dependency : dependencies) {
+      transitiveDependencies.add(new HardNameDependency(dependency, "shavalue"));
+    }
+    Coordinate parsed = CoordinateUtils.tryParse(coordinate);
+    assert parsed != null;
+    scope.recordResolved(new SoftNameDependency(coordinate),
+        new ResolvedManifest(new URL("http://www.google.com"), new CDepManifestYml(parsed)),
+        transitiveDependencies);
+  }
+
+  @Test
+  public void testOrderMatchesRepeatedPasses() throws IOException {
+    for (int seed = 0; seed < 20; ++seed) {
+      Random random = new Random(seed);
+      int count = 300;
+      // Manifests are resolved in a shuffled order and depend only on lower numbered manifests
+      List<Integer> order = new ArrayList<>();
+      for (int i = 0; i < count; ++i) {
+        order.add(i);
+      }
+      Collections.shuffle(order, random);
+      ResolutionScope scope = new ResolutionScope();
+      List<String> names = new ArrayList<>();
+      for (int i : order) {
+        List<String> dependencies = new ArrayList<>();
+        int dependencyCount = i == 0 ? 0 : random.nextInt(4);
+        for (int j = 0; j < dependencyCount; ++j) {
+          dependencies.add(String.format("com.github.jomof:node%s:1.0.0", random.nextInt(i)));
+        }
+        resolve(scope, String.format("com.github.jomof:node%s:1.0.0", i), dependencies);
+        names.add(String.format("com.github.jomof:node%s", i));
+      }
+      assertThat(scope.getResolutions()).containsExactlyElementsIn(repeatedPasses(scope, names)).inOrder();
+    }
+  }
+
+  @Test
+  public void testCycle() throws IOException {
+    ResolutionScope scope = new ResolutionScope();
+    List<String> dependencies = new ArrayList<>();
+    dependencies.add("com.github.jomof:b:1.0.0");
+    resolve(scope, "com.github.jomof:a:1.0.0", dependencies);
+    dependencies.clear();
+    dependencies.add("com.github.jomof:a:1.0.0");
+    resolve(scope, "com.github.jomof:b:1.0.0", dependencies);
+    try {
+      scope.getResolutions();
+      fail("Expected exception");
+    } catch (CDepRuntimeException e) {
+      assertThat(e).hasMessage("Reference com.github.jomof:a:1.0.0 has unresolved dependency com.github.jomof:b:1.0.0");
+    }
+  }
 }
@@ -27,7 +27,10 @@ import io.cdep.cdep.utils.CDepManifestYmlUtils;
 import io.cdep.cdep.utils.CoordinateUtils;
 import io.cdep.cdep.yml.cdep.SoftNameDependency;
 import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 
 
@@ -129,4 +132,131 @@ public class TestResolver {
     assertThat(scope.isResolutionComplete()).isTrue();
     assertThat(scope.getResolutions()).hasSize(0);
   }
+
+  @Test
+  public void testResolutionTimeScalesWithDepth() throws Exception {
+    int depth = 3;
+    int width = 8;
+    long delayMillis = 150;
+    SlowManifestProvider provider = new SlowManifestProvider(depth, width, delayMillis);
+    SoftNameDependency roots[] = new SoftNameDependency[width];
+    for (int i = 0; i < width; ++i) {
+      roots[i] = new SoftNameDependency(SlowManifestProvider.coordinate(0, i));
+    }
+    CoordinateResolver resolvers[] = new CoordinateResolver[]{new GithubReleasesCoordinateResolver()};
+
+    long start = System.currentTimeMillis();
+    ResolutionScope parallel = new Resolver(provider, resolvers, width).resolveAll(roots);
+    long elapsed = System.currentTimeMillis() - start;
+    ResolutionScope serial = new Resolver(provider, resolvers, 1).resolveAll(roots);
+
+    // Serial resolution would take depth * width * delay.
+    assertThat(elapsed).isLessThan(depth * width * delayMillis / 2);
+    assertThat(parallel.getResolutions()).containsExactlyElementsIn(serial.getResolutions()).inOrder();
+    assertThat(parallel.forwardEdges.keySet()).containsExactlyElementsIn(serial.forwardEdges.keySet()).inOrder();
+    assertThat(parallel.getResolutions()).hasSize(depth * width);
+  }
+
+  @Test
+  public void testResolutionOrderScales() throws Exception {
+    int count = 10000;
+    ChainManifestProvider provider = new ChainManifestProvider(count);
+    CoordinateResolver resolvers[] = new CoordinateResolver[]{new GithubReleasesCoordinateResolver()};
+    ResolutionScope scope = new Resolver(provider, resolvers, 1)
+        .resolveAll(new SoftNameDependency[]{new SoftNameDependency(ChainManifestProvider.coordinate(0))});
+
+    long start = System.nanoTime();
+    List<String> resolutions = new ArrayList<>(scope.getResolutions());
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("Ordered %s resolutions in %.3f ms\n", resolutions.size(), elapsed / 1000000.0);
+
+    // Each manifest depends on the next so dependees come out in reverse
+    assertThat(resolutions).hasSize(count);
+    for (int i = 0; i < count; ++i) {
+      assertThat(resolutions.get(i)).isEqualTo(CoordinateUtils.getVersionless(
+          CoordinateUtils.tryParse(ChainManifestProvider.coordinate(count - 1 - i))).toString());
+    }
+  }
+
+  /*
+   * Serves [count] manifests where manifest i depends on i + 1 and 2i + 1. The chain is far deeper
+   * than any real dependency graph.
+   */
+  private static class ChainManifestProvider implements ManifestProvider {
+    private final int count;
+
+    ChainManifestProvider(int count) {
+      this.count = count;
+    }
+
+    static String coordinate(int index) {
+      return String.format("com.github.jomof:chain%s:1.0.0", index);
+    }
+
+    @Override
+    public CDepManifestYml tryGetManifest(Coordinate coordinate, URL remoteArchive) throws IOException {
+      int index = Integer.parseInt(coordinate.artifactId.substring("chain".length()));
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("coordinate:\n  groupId: com.github.jomof\n  artifactId: %s\n  version: 1.0.0\n",
+          coordinate.artifactId));
+      sb.append("interfaces:\n  headers:\n    file: headers.zip\n    sha256: " +
+          "47e72f9898a78024a96e7adc5b29d6ec02313a02087646d69d7797f13840121c\n    size: 92\n    include: include\n");
+      if (index + 1 < count) {
+        sb.append("dependencies:\n");
+        for (int dependency : new int[]{index + 1, 2 * index + 1}) {
+          if (dependency < count) {
+            sb.append(String.format("  - compile: %s\n    sha256: " +
+                "8292d143db85ec40ddf4d51133571607f4df3796e0477e8678993dcae4acfd03\n", coordinate(dependency)));
+          }
+        }
+      }
+      return CDepManifestYmlUtils.convertStringToManifest(remoteArchive.toString(), sb.toString());
+    }
+  }
+
+  /*
+   * Serves a graph of manifests that is [depth] levels deep and [width] wide. Each manifest at a
+   * level depends on the corresponding manifest at the next level.
+   */
+  private static class SlowManifestProvider implements ManifestProvider {
+    private final int depth;
+    private final int width;
+    private final long delayMillis;
+
+    SlowManifestProvider(int depth, int width, long delayMillis) {
+      this.depth = depth;
+      this.width = width;
+      this.delayMillis = delayMillis;
+    }
+
+    static String coordinate(int level, int index) {
+      return String.format("com.github.jomof:level%s-%s:1.0.0", level, index);
+    }
+
+    @Override
+    public CDepManifestYml tryGetManifest(Coordinate coordinate, URL remoteArchive) throws IOException {
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      String parts[] = coordinate.artifactId.substring("level".length()).split("-");
+      int level = Integer.parseInt(parts[0]);
+      int index = Integer.parseInt(parts[1]);
+      List<String> lines = new ArrayList<>();
+      lines.add(String.format("coordinate:\n  groupId: com.github.jomof\n  artifactId: %s\n  version: 1.0.0\n",
+          coordinate.artifactId));
+      lines.add("interfaces:\n  headers:\n    file: headers.zip\n    sha256: " +
+          "47e72f9898a78024a96e7adc5b29d6ec02313a02087646d69d7797f13840121c\n    size: 92\n    include: include\n");
+      if (level + 1 < depth) {
+        lines.add(String.format("dependencies:\n  - compile: %s\n    sha256: " +
+            "8292d143db85ec40ddf4d51133571607f4df3796e0477e8678993dcae4acfd03\n", coordinate(level + 1, index)));
+      }
+      StringBuilder sb = new StringBuilder();
+      for (String line : lines) {
+        sb.append(line);
+      }
+      return CDepManifestYmlUtils.convertStringToManifest(remoteArchive.toString(), sb.toString());
+    }
+  }
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestArchiveUtils {
+
+  private static void deleteDirectory(File folder) {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          deleteDirectory(f);
+        } else {
+          //noinspection ResultOfMethodCallIgnored
+          f.delete();
+        }
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    folder.delete();
+  }
+
+  private static File prepare(String testName) {
+    File folder = new File(".test-files/TestArchiveUtils/" + testName).getAbsoluteFile();
+    deleteDirectory(folder);
+    //noinspection ResultOfMethodCallIgnored
+    folder.mkdirs();
+    return folder;
+  }
+
+  /*
+   * Unzip the given file one entry at a time on the calling thread. This is how ArchiveUtils
+   * unzipped before it unzipped in parallel and is kept here to compare against.
+   */
+  private static void unzipSerially(File localArchive, File localUnzipFolder) throws IOException {
+    ZipFile zipFile = new ZipFile(localArchive.getPath());
+    Enumeration<?> enu = zipFile.entries();
+    while (enu.hasMoreElements()) {
+      ZipEntry zipEntry = (ZipEntry) enu.nextElement();
+      String name = zipEntry.getName();
+      File file = new File(localUnzipFolder, name);
+      if (name.endsWith("/")) {
+        //noinspection ResultOfMethodCallIgnored
+        file.mkdirs();
+        continue;
+      }
+
+      File parent = file.getParentFile();
+      if (parent != null) {
+        //noinspection ResultOfMethodCallIgnored
+        parent.mkdirs();
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      InputStream is = zipFile.getInputStream(zipEntry);
+      FileOutputStream fos = new FileOutputStream(file);
+      byte[] bytes = new byte[1024];
+      int length;
+      while ((length = is.read(bytes)) >= 0) {
+        fos.write(bytes, 0, length);
+      }
+      is.close();
+      fos.close();
+    }
+    zipFile.close();
+  }
+
+  /*
+   * Write an archive shaped like a header package: many small headers spread over nested folders
+   * plus a few large libraries.
+   */
+  private static File writeArchive(File archive, int headers, int libraries) throws Exception {
+    return writeArchive(archive, headers, libraries, false);
+  }
+
+  private static File writeArchive(File archive, int headers, int libraries, boolean stored) throws Exception {
+    Random random = new Random(0);
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+      zip.putNextEntry(newEntry("include/", new byte[0], stored));
+      zip.closeEntry();
+      for (int i = 0; i < headers; ++i) {
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < 40; ++line) {
+          sb.append("#define HEADER_").append(i).append("_").append(line).append(" ").append(random.nextInt()).append("\n");
+        }
+        byte bytes[] = sb.toString().getBytes(StandardCharsets.UTF_8);
+        zip.putNextEntry(newEntry(String.format("include/group%s/sub%s/header%s.h", i % 17, i % 5, i), bytes, stored));
+        zip.write(bytes);
+        zip.closeEntry();
+      }
+      for (int i = 0; i < libraries; ++i) {
+        byte bytes[] = new byte[4 * 1024 * 1024];
+        random.nextBytes(bytes);
+        zip.putNextEntry(newEntry(String.format("lib/liblibrary%s.a", i), bytes, stored));
+        zip.write(bytes);
+        zip.closeEntry();
+      }
+    }
+    return archive;
+  }
+
+  private static ZipEntry newEntry(String name, byte content[], boolean stored) {
+    ZipEntry entry = new ZipEntry(name);
+    if (stored) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+    }
+    return entry;
+  }
+
+  private static void assertSameTree(File expected, File actual) throws Exception {
+    String expectedNames[] = expected.list();
+    String actualNames[] = actual.list();
+    assertThat(actualNames).isNotNull();
+    Arrays.sort(expectedNames);
+    Arrays.sort(actualNames);
+    assertThat(actualNames).isEqualTo(expectedNames);
+    for (String name : expectedNames) {
+      File expectedChild = new File(expected, name);
+      File actualChild = new File(actual, name);
+      if (expectedChild.isDirectory()) {
+        assertThat(actualChild.isDirectory()).isTrue();
+        assertSameTree(expectedChild, actualChild);
+      } else {
+        assertThat(Files.readAllBytes(actualChild.toPath())).isEqualTo(Files.readAllBytes(expectedChild.toPath()));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelMatchesSerial() throws Exception {
+    File folder = prepare("testParallelMatchesSerial");
+    File archive = writeArchive(new File(folder, "archive.zip"), 500, 2);
+    File serial = new File(folder, "serial");
+    File parallel = new File(folder, "parallel");
+    unzipSerially(archive, serial);
+    ArchiveUtils.unzip(archive, parallel, 4);
+    assertSameTree(serial, parallel);
+    assertThat(new File(parallel, "include").isDirectory()).isTrue();
+  }
+
+  @Test
+  public void testSmallArchive() throws Exception {
+    File folder = prepare("testSmallArchive");
+    File archive = writeArchive(new File(folder, "archive.zip"), 3, 0);
+    File unzipped = new File(folder, "unzipped");
+    ArchiveUtils.unzip(archive, unzipped);
+    assertThat(new File(unzipped, "include/group2/sub2/header2.h").isFile()).isTrue();
+  }
+
+  @Test
+  public void testOverwritesExistingFiles() throws Exception {
+    File folder = prepare("testOverwritesExistingFiles");
+    File archive = writeArchive(new File(folder, "archive.zip"), 200, 0);
+    File unzipped = new File(folder, "unzipped");
+    File header = new File(unzipped, "include/group0/sub0/header0.h");
+    FileUtils.writeTextToFile(header, "a much longer prior content that must be replaced entirely " +
+        "rather than partially overwritten by the unzip");
+    ArchiveUtils.unzip(archive, unzipped, 4);
+    assertThat(FileUtils.readAllText(header)).startsWith("#define HEADER_0_0 ");
+    assertThat(FileUtils.readAllText(header)).doesNotContain("unzip");
+  }
+
+  @Test
+  public void testStoredEntriesAreCopied() throws Exception {
+    File folder = prepare("testStoredEntriesAreCopied");
+    File deflated = writeArchive(new File(folder, "deflated.zip"), 300, 1);
+    File stored = writeArchive(new File(folder, "stored.zip"), 300, 1, true);
+    assertThat(ArchiveUtils.getStoredEntryOffsets(deflated)).isEmpty();
+    // Every header and library plus the folder entry
+    assertThat(ArchiveUtils.getStoredEntryOffsets(stored)).hasSize(302);
+
+    File fromDeflated = new File(folder, "from-deflated");
+    File fromStored = new File(folder, "from-stored");
+    long deflatedBytes = ArchiveUtils.unzip(deflated, fromDeflated, 4);
+    long storedBytes = ArchiveUtils.unzip(stored, fromStored, 4);
+    assertSameTree(fromDeflated, fromStored);
+    assertThat(storedBytes).isEqualTo(deflatedBytes);
+    assertThat(storedBytes).isGreaterThan(4L * 1024 * 1024);
+  }
+
+  @Test
+  public void testDuplicateNamesAreReadThroughZipFile() throws Exception {
+    File folder = prepare("testDuplicateNamesAreReadThroughZipFile");
+    File archive = new File(folder, "archive.zip");
+    byte stored[] = "stored".getBytes(StandardCharsets.UTF_8);
+    byte deflated[] = "deflated".getBytes(StandardCharsets.UTF_8);
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+      zip.putNextEntry(newEntry("a.txt", stored, true));
+      zip.write(stored);
+      zip.closeEntry();
+      zip.putNextEntry(newEntry("b.txt", deflated, false));
+      zip.write(deflated);
+      zip.closeEntry();
+    }
+    // ZipOutputStream refuses duplicate names so rename the second entry afterward
+    byte bytes[] = Files.readAllBytes(archive.toPath());
+    byte from[] = "b.txt".getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i + from.length <= bytes.length; ++i) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + from.length), from)) {
+        bytes[i] = 'a';
+      }
+    }
+    Files.write(archive.toPath(), bytes);
+
+    assertThat(ArchiveUtils.getStoredEntryOffsets(archive)).doesNotContainKey("a.txt");
+    byte expected[];
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      try (InputStream in = zipFile.getInputStream(zipFile.getEntry("a.txt"))) {
+        expected = new byte[(int) zipFile.getEntry("a.txt").getSize()];
+        int read = 0;
+        while (read < expected.length) {
+          read += in.read(expected, read, expected.length - read);
+        }
+      }
+    }
+    File unzipped = new File(folder, "unzipped");
+    ArchiveUtils.unzip(archive, unzipped);
+    assertThat(Files.readAllBytes(new File(unzipped, "a.txt").toPath())).isEqualTo(expected);
+  }
+
+  /*
+   * Compare the serial unzip with the parallel one on an archive with many small headers. Timings
+   * are printed rather than asserted because they depend on the machine.
+   */
+  @Test
+  public void benchmarkUnzip() throws Exception {
+    File folder = prepare("benchmarkUnzip");
+    File archive = writeArchive(new File(folder, "archive.zip"), 10000, 4);
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    for (int iteration = 0; iteration < 3; ++iteration) {
+      File serial = new File(folder, "serial-" + iteration);
+      long start = System.nanoTime();
+      unzipSerially(archive, serial);
+      long serialNanos = System.nanoTime() - start;
+
+      File parallel = new File(folder, "parallel-" + iteration);
+      start = System.nanoTime();
+      ArchiveUtils.unzip(archive, parallel, threads);
+      long parallelNanos = System.nanoTime() - start;
+      System.out.printf("Unzip of 10004 files: serial %s ms, %s threads %s ms\n",
+          serialNanos / 1000000, threads, parallelNanos / 1000000);
+    }
+    assertSameTree(new File(folder, "serial-0"), new File(folder, "parallel-0"));
+  }
+
+  /*
+   * Compare unzipping an archive with deflated entries to one with the same entries stored, whose
+   * bytes are copied straight from the archive. Both write the same bytes.
+   */
+  @Test
+  public void benchmarkStoredUnzip() throws Exception {
+    File folder = prepare("benchmarkStoredUnzip");
+    File deflated = writeArchive(new File(folder, "deflated.zip"), 10000, 4);
+    File stored = writeArchive(new File(folder, "stored.zip"), 10000, 4, true);
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    for (int iteration = 0; iteration < 3; ++iteration) {
+      long start = System.nanoTime();
+      long deflatedBytes = ArchiveUtils.unzip(deflated, new File(folder, "deflated-" + iteration), threads);
+      long deflatedNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long storedBytes = ArchiveUtils.unzip(stored, new File(folder, "stored-" + iteration), threads);
+      long storedNanos = System.nanoTime() - start;
+      System.out.printf("Unzip of 10004 files: deflated %s bytes in %s ms, stored %s bytes in %s ms\n",
+          deflatedBytes, deflatedNanos / 1000000, storedBytes, storedNanos / 1000000);
+      assertThat(storedBytes).isEqualTo(deflatedBytes);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import io.cdep.cdep.ResolvedManifests;
+import io.cdep.cdep.yml.cdepmanifest.AndroidABI;
+import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
+import io.cdep.cdep.yml.cdepmanifest.CDepManifestYmlEquality;
+import io.cdep.cdep.yml.cdepmanifest.CDepManifestYmlVersion;
+import org.junit.Test;
+import org.yaml.snakeyaml.error.Mark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class TestCDepManifestYmlEventReader {
+
+  @Test
+  public void sameAsVersionedReaders() throws Exception {
+    int read = 0;
+    int fellBack = 0;
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      CDepManifestYml streamed;
+      try {
+        streamed = CDepManifestYmlEventReader.read(manifest.body, new LinkedHashMap<Object, Mark>());
+      } catch (CDepManifestYmlEventReader.UnsupportedSyntax e) {
+        // Only manifests of older versions should need the versioned readers
+        assertThat(manifest.resolved.cdepManifestYml.sourceVersion).named(manifest.name)
+            .isNotEqualTo(CDepManifestYmlVersion.vlatest);
+        ++fellBack;
+        continue;
+      }
+      CDepManifestYml versioned =
+          CDepManifestYmlUtils.convertStringToManifestWithVersionedReaders("test.yml", manifest.body);
+      assertThat(streamed.sourceVersion).named(manifest.name).isEqualTo(versioned.sourceVersion);
+      assertThat(CDepManifestYmlUtils.convertManifestToString(streamed)).named(manifest.name)
+          .isEqualTo(CDepManifestYmlUtils.convertManifestToString(versioned));
+      if (!CDepManifestYmlEquality.areDeeplyIdentical(streamed, versioned)) {
+        fail(String.format("Manifest %s was read differently", manifest.name));
+      }
+      ++read;
+    }
+    System.out.printf("Event reader read %s manifests, %s older ones fell back\n", read, fellBack);
+    assertThat(read).isGreaterThan(0);
+  }
+
+  @Test
+  public void olderVersionFallsBack() throws Exception {
+    String body = ResolvedManifests.archiveOnly().body;
+    try {
+      CDepManifestYmlEventReader.read(body, new LinkedHashMap<Object, Mark>());
+      fail("Expected UnsupportedSyntax");
+    } catch (CDepManifestYmlEventReader.UnsupportedSyntax e) {
+      assertThat(e.getMessage()).contains("archive");
+    }
+    CDepManifestYml manifest = CDepManifestYmlUtils.convertStringToManifest("test.yml", body);
+    assertThat(manifest.sourceVersion).isEqualTo(CDepManifestYmlVersion.v2);
+    assertThat(manifest.interfaces.headers.file).isEqualTo("vectorial.zip");
+  }
+
+  @Test
+  public void emptyFallsBack() {
+    try {
+      CDepManifestYmlEventReader.read("", new LinkedHashMap<Object, Mark>());
+      fail("Expected UnsupportedSyntax");
+    } catch (CDepManifestYmlEventReader.UnsupportedSyntax e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void anchorsFallBack() {
+    try {
+      CDepManifestYmlEventReader.read("coordinate: &c\n  groupId: com.github.jomof\n",
+          new LinkedHashMap<Object, Mark>());
+      fail("Expected UnsupportedSyntax");
+    } catch (CDepManifestYmlEventReader.UnsupportedSyntax e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void marksComeFromTheSamePass() {
+    Map<Object, Mark> marks = new LinkedHashMap<>();
+    CDepManifestYml manifest = CDepManifestYmlEventReader.read("coordinate:\n"
+        + "  groupId: com.github.jomof\n"
+        + "  artifactId: boost\n"
+        + "  version: 1.0.63-rev10\n"
+        + "android:\n"
+        + "  archives:\n"
+        + "  - file: bob.zip\n"
+        + "    sha256: 97ce6635df1f44653a597343cd5757bb8b6b992beb3720f5fc761e3644bcbe7b\n"
+        + "    size: 192\n"
+        + "    abi: x86\n"
+        + "    libs:\n"
+        + "    - liba.a\n"
+        + "    - libb.a\n", marks);
+    assertThat(marks.get(manifest).getLine()).isEqualTo(0);
+    assertThat(marks.get(manifest.coordinate).getLine()).isEqualTo(1);
+    assertThat(marks.get("bob.zip").getLine()).isEqualTo(6);
+    assertThat(marks.get(192L).getLine()).isEqualTo(8);
+    assertThat(marks.get(new AndroidABI("x86")).getLine()).isEqualTo(9);
+    // Each list element has its own line
+    assertThat(marks.get("liba.a").getLine()).isEqualTo(11);
+    assertThat(marks.get("libb.a").getLine()).isEqualTo(12);
+    assertThat(marks.get(manifest.android.archives[0]).getLine()).isEqualTo(6);
+  }
+
+  @Test
+  public void errorsReportLineFromEventReader() {
+    Invariant.pushErrorCollectionScope(false);
+    try {
+      CDepManifestYml manifest = CDepManifestYmlUtils.convertStringToManifest("test.yml", "coordinate:\n"
+          + "  groupId: com.github.jomof\n"
+          + "  artifactId: boost\n"
+          + "  version: 1.0.63-rev10\n"
+          + "android:\n"
+          + "  archives:\n"
+          + "  - file: bob.zip\n"
+          + "    size: 192\n");
+      assertThat(manifest.sourceVersion).isEqualTo(CDepManifestYmlVersion.vlatest);
+      Invariant.require(false, "Archive %s is bad", "bob.zip");
+    } finally {
+      CDepRuntimeException error = Invariant.popErrorCollectionScope().get(0);
+      assertThat(error.errorInfo.file).isEqualTo("test.yml");
+      assertThat(error.errorInfo.line).isEqualTo(7);
+    }
+  }
+
+  /*
+   * Compare the event reader with the versioned readers, which load the manifest and then compose
+   * it a second time for error locations, on a large manifest with many ABIs, platforms and runtimes.
+   */
+  @Test
+  public void benchmarkLargeMultiAbiManifest() {
+    String body = ResolvedManifests.largeMultiAbiBody();
+    int iterations = 30;
+    // Warm up both
+    for (int i = 0; i < 5; ++i) {
+      CDepManifestYmlEventReader.read(body, new LinkedHashMap<Object, Mark>());
+      CDepManifestYmlUtils.convertStringToManifestWithVersionedReaders("big.yml", body);
+    }
+    long start = System.nanoTime();
+    CDepManifestYml streamed = null;
+    for (int i = 0; i < iterations; ++i) {
+      streamed = CDepManifestYmlEventReader.read(body, new LinkedHashMap<Object, Mark>());
+    }
+    long streamedNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    CDepManifestYml versioned = null;
+    for (int i = 0; i < iterations; ++i) {
+      versioned = CDepManifestYmlUtils.convertStringToManifestWithVersionedReaders("big.yml", body);
+    }
+    long versionedNanos = System.nanoTime() - start;
+    int count = streamed.android.archives.length;
+    assertThat(count).isEqualTo(210);
+    assertThat(CDepManifestYmlEquality.areDeeplyIdentical(streamed, versioned)).isTrue();
+    System.out.printf("Manifest with %s android archives (%s bytes): event reader %.2f ms, versioned readers %.2f ms\n",
+        count, body.length(), streamedNanos / 1000000.0 / iterations, versionedNanos / 1000000.0 / iterations);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestContentAddressedStore {
+
+  private static void deleteDirectory(File folder) {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          deleteDirectory(f);
+        } else {
+          //noinspection ResultOfMethodCallIgnored
+          f.delete();
+        }
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    folder.delete();
+  }
+
+  private static File prepare(String testName) {
+    File folder = new File(".test-files/TestContentAddressedStore/" + testName).getAbsoluteFile();
+    deleteDirectory(folder);
+    //noinspection ResultOfMethodCallIgnored
+    folder.mkdirs();
+    return folder;
+  }
+
+  @Test
+  public void testIdenticalFilesShareStorage() throws Exception {
+    File folder = prepare("testIdenticalFilesShareStorage");
+    ContentAddressedStore store = new ContentAddressedStore(new File(folder, ".cas"));
+    File first = new File(folder, "first/archive.zip");
+    File second = new File(folder, "second/archive.zip");
+    FileUtils.writeTextToFile(first, "content");
+    FileUtils.writeTextToFile(second, "content");
+    String sha256 = HashUtils.getSHA256OfFile(first);
+
+    assertThat(store.addFile(sha256, first)).isFalse();
+    assertThat(store.getEntry(sha256).isFile()).isTrue();
+    assertThat(store.addFile(sha256, second)).isTrue();
+    assertThat(Files.isSameFile(first.toPath(), second.toPath())).isTrue();
+    assertThat(FileUtils.readAllText(second)).isEqualTo("content");
+
+    // A missing view can be recreated from the store.
+    File third = new File(folder, "third/archive.zip");
+    assertThat(store.tryLinkFile(sha256, "content".length(), third)).isTrue();
+    assertThat(FileUtils.readAllText(third)).isEqualTo("content");
+    assertThat(store.tryLinkFile(sha256, 1, new File(folder, "wrong-size.zip"))).isFalse();
+    assertThat(store.tryLinkFile("0000", 7, new File(folder, "missing.zip"))).isFalse();
+  }
+
+  @Test
+  public void testLinkFolder() throws Exception {
+    File folder = prepare("testLinkFolder");
+    ContentAddressedStore store = new ContentAddressedStore(new File(folder, ".cas"));
+    File temp = store.newTemporaryFolder("abcd");
+    FileUtils.writeTextToFile(new File(temp, "include/header.h"), "// header");
+    File entry = store.addFolder("abcd", temp);
+    assertThat(temp.exists()).isFalse();
+    assertThat(new File(entry, "include/header.h").isFile()).isTrue();
+
+    File view = new File(folder, "exploded/archive");
+    store.linkFolder("abcd", view);
+    assertThat(FileUtils.readAllText(new File(view, "include/header.h"))).isEqualTo("// header");
+    assertThat(Files.isSameFile(new File(view, "include/header.h").toPath(),
+        new File(entry, "include/header.h").toPath())).isTrue();
+  }
+
+  @Test
+  public void testAddFolderKeepsCompleteEntry() throws Exception {
+    File folder = prepare("testAddFolderKeepsCompleteEntry");
+    ContentAddressedStore store = new ContentAddressedStore(new File(folder, ".cas"));
+    File temp = store.newTemporaryFolder("abcd");
+    FileUtils.writeTextToFile(new File(temp, "include/header.h"), "// header");
+    File entry = store.addFolder("abcd", temp);
+    File header = new File(entry, "include/header.h");
+    Object fileKey = Files.readAttributes(header.toPath(), BasicFileAttributes.class).fileKey();
+
+    // The same content again leaves the entry, and any views onto it, in place
+    temp = store.newTemporaryFolder("abcd");
+    FileUtils.writeTextToFile(new File(temp, "include/header.h"), "// header");
+    assertThat(store.addFolder("abcd", temp)).isEqualTo(entry);
+    assertThat(temp.exists()).isFalse();
+    assertThat(Files.readAttributes(header.toPath(), BasicFileAttributes.class).fileKey()).isEqualTo(fileKey);
+
+    // A damaged entry is replaced
+    //noinspection ResultOfMethodCallIgnored
+    header.delete();
+    temp = store.newTemporaryFolder("abcd");
+    FileUtils.writeTextToFile(new File(temp, "include/header.h"), "// header");
+    store.addFolder("abcd", temp);
+    assertThat(FileUtils.readAllText(header)).isEqualTo("// header");
+  }
+
+  @Test
+  public void testCollectGarbage() throws Exception {
+    File folder = prepare("testCollectGarbage");
+    ContentAddressedStore store = new ContentAddressedStore(new File(folder, ".cas"));
+    File kept = new File(folder, "kept/archive.zip");
+    File dropped = new File(folder, "dropped/archive.zip");
+    FileUtils.writeTextToFile(kept, "kept");
+    FileUtils.writeTextToFile(dropped, "dropped");
+    store.addFile(HashUtils.getSHA256OfFile(kept), kept);
+    String droppedSha256 = HashUtils.getSHA256OfFile(dropped);
+    store.addFile(droppedSha256, dropped);
+
+    assertThat(store.collectGarbage(folder)).isEqualTo(0);
+    //noinspection ResultOfMethodCallIgnored
+    dropped.delete();
+    assertThat(store.collectGarbage(folder)).isEqualTo(1);
+    assertThat(store.getEntry(droppedSha256).exists()).isFalse();
+    assertThat(store.getEntry(HashUtils.getSHA256OfFile(kept)).isFile()).isTrue();
+  }
+}
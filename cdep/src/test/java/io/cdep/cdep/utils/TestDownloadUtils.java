@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class TestDownloadUtils {
+  private HttpServer server;
+  private URL url;
+  private byte content[];
+  private String etag = "\"v1\"";
+  private int truncateNextResponseAt = -1;
+  private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+  private final AtomicInteger bytesSent = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10000; ++i) {
+      sb.append(i).append("\n");
+    }
+    content = sb.toString().getBytes(UTF_8);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/archive.zip", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+    server.start();
+    url = new URL(String.format("http://127.0.0.1:%s/archive.zip", server.getAddress().getPort()));
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  // Serves content with support for Range, If-Range and If-None-Match
+  private synchronized void serve(HttpExchange exchange) throws IOException {
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    ranges.add(range);
+    exchange.getResponseHeaders().add("ETag", etag);
+    if (etag.equals(ifNoneMatch)) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    int start = 0;
+    if (range != null && (ifRange == null || etag.equals(ifRange))) {
+      start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      exchange.getResponseHeaders().add("Content-Range",
+          String.format("bytes %s-%s/%s", start, content.length - 1, content.length));
+      exchange.sendResponseHeaders(206, content.length - start);
+    } else {
+      exchange.sendResponseHeaders(200, content.length);
+    }
+    int end = content.length;
+    if (truncateNextResponseAt >= 0) {
+      end = truncateNextResponseAt;
+      truncateNextResponseAt = -1;
+    }
+    // Counted before writing because the client may finish reading before this handler returns
+    bytesSent.addAndGet(end - start);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(content, start, end - start);
+    }
+  }
+
+  private static File prepare(String testName) {
+    File folder = new File(".test-files/TestDownloadUtils/" + testName).getAbsoluteFile();
+    File files[] = folder.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    folder.mkdirs();
+    return folder;
+  }
+
+  private String expectedSha256() throws Exception {
+    File expected = File.createTempFile("expected", ".zip");
+    try (OutputStream out = new FileOutputStream(expected)) {
+      out.write(content);
+    }
+    String sha256 = HashUtils.getSHA256OfFile(expected);
+    //noinspection ResultOfMethodCallIgnored
+    expected.delete();
+    return sha256;
+  }
+
+  private void writePart(File local, int length) throws IOException {
+    try (OutputStream out = new FileOutputStream(local.getPath() + ".part")) {
+      out.write(content, 0, length);
+    }
+    FileUtils.writeTextToFile(new File(local.getPath() + ".part.validators"), "ETag: \"v1\"\n");
+  }
+
+  @Test
+  public void testDownload() throws Exception {
+    File local = new File(prepare("testDownload"), "archive.zip");
+    DownloadUtils.Result result = DownloadUtils.download(url, local, false);
+    assertThat(result.status).isEqualTo(DownloadUtils.Status.DOWNLOADED);
+    assertThat(result.sha256).isEqualTo(expectedSha256());
+    assertThat(HashUtils.getSHA256OfFile(local)).isEqualTo(expectedSha256());
+    assertThat(new File(local.getPath() + ".part").exists()).isFalse();
+    assertThat(FileUtils.readAllText(new File(local.getPath() + ".validators"))).contains("ETag: \"v1\"");
+  }
+
+  @Test
+  public void testResumePartialDownload() throws Exception {
+    File local = new File(prepare("testResumePartialDownload"), "archive.zip");
+    writePart(local, 1000);
+    DownloadUtils.Result result = DownloadUtils.download(url, local, false);
+    assertThat(ranges).containsExactly("bytes=1000-");
+    assertThat(bytesSent.get()).isEqualTo(content.length - 1000);
+    assertThat(result.status).isEqualTo(DownloadUtils.Status.DOWNLOADED);
+    assertThat(result.sha256).isEqualTo(expectedSha256());
+    assertThat(HashUtils.getSHA256OfFile(local)).isEqualTo(expectedSha256());
+  }
+
+  @Test
+  public void testResumeAfterRemoteChanged() throws Exception {
+    File local = new File(prepare("testResumeAfterRemoteChanged"), "archive.zip");
+    writePart(local, 1000);
+    etag = "\"v2\"";
+    DownloadUtils.Result result = DownloadUtils.download(url, local, false);
+    // The server ignored the range because If-Range didn't match and sent the whole file
+    assertThat(bytesSent.get()).isEqualTo(content.length);
+    assertThat(result.sha256).isEqualTo(expectedSha256());
+    assertThat(HashUtils.getSHA256OfFile(local)).isEqualTo(expectedSha256());
+  }
+
+  @Test
+  public void testInterruptedDownloadResumes() throws Exception {
+    File local = new File(prepare("testInterruptedDownloadResumes"), "archive.zip");
+    truncateNextResponseAt = 5000;
+    DownloadUtils.Result result = DownloadUtils.download(url, local, false);
+    assertThat(ranges).containsExactly(null, "bytes=5000-");
+    assertThat(bytesSent.get()).isEqualTo(content.length);
+    assertThat(result.sha256).isEqualTo(expectedSha256());
+    assertThat(HashUtils.getSHA256OfFile(local)).isEqualTo(expectedSha256());
+  }
+
+  @Test
+  public void testRevalidate() throws Exception {
+    File local = new File(prepare("testRevalidate"), "archive.zip");
+    DownloadUtils.download(url, local, false);
+    bytesSent.set(0);
+    DownloadUtils.Result result = DownloadUtils.download(url, local, true);
+    assertThat(result.status).isEqualTo(DownloadUtils.Status.NOT_MODIFIED);
+    assertThat(bytesSent.get()).isEqualTo(0);
+
+    // Once the remote changes it is downloaded again
+    etag = "\"v2\"";
+    result = DownloadUtils.download(url, local, true);
+    assertThat(result.status).isEqualTo(DownloadUtils.Status.DOWNLOADED);
+    assertThat(bytesSent.get()).isEqualTo(content.length);
+    assertThat(FileUtils.readAllText(new File(local.getPath() + ".validators"))).contains("ETag: \"v2\"");
+  }
+
+  @Test
+  public void testConcurrentDownloadsShareOneTransfer() throws Exception {
+    final File local = new File(prepare("testConcurrentDownloadsShareOneTransfer"), "archive.zip");
+    final List<DownloadUtils.Status> statuses = Collections.synchronizedList(new ArrayList<DownloadUtils.Status>());
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            statuses.add(DownloadUtils.download(url, local, false).status);
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(errors).isEmpty();
+    assertThat(statuses).containsExactly(DownloadUtils.Status.DOWNLOADED, DownloadUtils.Status.NOT_MODIFIED,
+        DownloadUtils.Status.NOT_MODIFIED, DownloadUtils.Status.NOT_MODIFIED);
+    assertThat(bytesSent.get()).isEqualTo(content.length);
+    assertThat(HashUtils.getSHA256OfFile(local)).isEqualTo(expectedSha256());
+  }
+
+  @Test
+  public void testMissing() throws Exception {
+    File local = new File(prepare("testMissing"), "archive.zip");
+    DownloadUtils.Result result = DownloadUtils.download(new URL(url, "/missing.zip"), local, false);
+    assertThat(result.status).isEqualTo(DownloadUtils.Status.MISSING);
+    assertThat(local.exists()).isFalse();
+  }
+}
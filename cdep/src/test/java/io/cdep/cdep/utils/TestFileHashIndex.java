@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestFileHashIndex {
+
+  private static File prepare(String testName) {
+    File folder = new File(".test-files/TestFileHashIndex/" + testName).getAbsoluteFile();
+    File files[] = folder.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    folder.mkdirs();
+    return folder;
+  }
+
+  @Test
+  public void testUnchangedFileIsNotHashedAgain() throws Exception {
+    File folder = prepare("testUnchangedFileIsNotHashedAgain");
+    File file = new File(folder, "archive.zip");
+    FileUtils.writeTextToFile(file, "content");
+    FileHashIndex index = FileHashIndex.forFile(new File(folder, ".sha256-index"));
+    assertThat(index.getSHA256OfFile(file)).isEqualTo(HashUtils.getSHA256OfFile(file));
+
+    index.record(file, "recorded");
+    assertThat(index.getSHA256OfFile(file)).isEqualTo("recorded");
+
+    // Changing the file invalidates the entry.
+    FileUtils.writeTextToFile(file, "changed content");
+    assertThat(file.setLastModified(file.lastModified() + 10000)).isTrue();
+    assertThat(index.getSHA256OfFile(file)).isEqualTo(HashUtils.getSHA256OfFile(file));
+  }
+
+  @Test
+  public void testIndexIsPersisted() throws Exception {
+    File folder = prepare("testIndexIsPersisted");
+    File file = new File(folder, "archive with spaces.zip");
+    FileUtils.writeTextToFile(file, "content");
+    File indexFile = new File(folder, ".sha256-index");
+    FileHashIndex.forFile(indexFile).record(file, "recorded");
+    String text = FileUtils.readAllText(indexFile);
+    assertThat(text).startsWith("# cdep sha256 index v1\n");
+    assertThat(text).contains("recorded " + file.length() + " ");
+    assertThat(text).contains(file.getAbsolutePath() + "\n");
+
+    // Updates are appended and the latest entry for a file wins
+    File other = new File(folder, "other.zip");
+    FileUtils.writeTextToFile(other, "other");
+    FileHashIndex.forFile(indexFile).record(file, "recorded again");
+    FileHashIndex.forFile(indexFile).getSHA256OfFile(other);
+    String appended = FileUtils.readAllText(indexFile);
+    assertThat(appended).startsWith(text);
+    assertThat(appended).contains("recorded again " + file.length() + " ");
+    assertThat(FileHashIndex.forFile(indexFile).getSHA256OfFile(file)).isEqualTo("recorded again");
+
+    // Pruning drops replaced entries and entries for files that no longer exist
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+    FileHashIndex.forFile(indexFile).prune();
+    text = FileUtils.readAllText(indexFile);
+    assertThat(text).startsWith("# cdep sha256 index v1\n");
+    assertThat(text).doesNotContain(file.getAbsolutePath());
+    assertThat(text).contains(other.getAbsolutePath());
+    assertThat(FileHashIndex.forFile(indexFile).getSHA256OfFile(other)).isEqualTo(HashUtils.getSHA256OfFile(other));
+  }
+
+  @Test
+  public void testPartialLineIsIgnored() throws Exception {
+    File folder = prepare("testPartialLineIsIgnored");
+    File file = new File(folder, "archive.zip");
+    FileUtils.writeTextToFile(file, "content");
+    File indexFile = new File(folder, ".sha256-index");
+    // A process stopped part way through appending an entry
+    FileUtils.writeTextToFile(indexFile, "# cdep sha256 index v1\nabc 12");
+    FileHashIndex index = FileHashIndex.forFile(indexFile);
+    assertThat(index.getSHA256OfFile(file)).isEqualTo(HashUtils.getSHA256OfFile(file));
+    String text = FileUtils.readAllText(indexFile);
+    assertThat(text).contains("\nabc 12\n" + HashUtils.getSHA256OfFile(file) + " ");
+    assertThat(index.getSHA256OfFile(file)).isEqualTo(HashUtils.getSHA256OfFile(file));
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    File folder = prepare("testConcurrentUpdates");
+    final File indexFile = new File(folder, ".sha256-index");
+    List<Thread> threads = new ArrayList<>();
+    final List<File> files = new ArrayList<>();
+    for (int i = 0; i < 8; ++i) {
+      final File file = new File(folder, "archive-" + i + ".zip");
+      FileUtils.writeTextToFile(file, "content " + i);
+      files.add(file);
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            FileHashIndex.forFile(indexFile).getSHA256OfFile(file);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    String text = FileUtils.readAllText(indexFile);
+    for (File file : files) {
+      assertThat(text).contains(HashUtils.getSHA256OfFile(file) + " ");
+      assertThat(text).contains(file.getAbsolutePath());
+    }
+  }
+}
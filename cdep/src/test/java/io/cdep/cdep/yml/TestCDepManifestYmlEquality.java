@@ -16,8 +16,10 @@
 package io.cdep.cdep.yml;
 
 import io.cdep.cdep.ResolvedManifests;
+import io.cdep.cdep.utils.CDepManifestYmlUtils;
 import io.cdep.cdep.yml.cdepmanifest.CDepManifestYml;
 import io.cdep.cdep.yml.cdepmanifest.CDepManifestYmlEquality;
+import io.cdep.cdep.yml.cdepmanifest.MergeCDepManifestYmls;
 import org.junit.Test;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -75,5 +77,33 @@ public class TestCDepManifestYmlEquality {
       }
     }
   }
+
+  @Test
+  public void testLargeManifestTiming() throws Exception {
+    String body = ResolvedManifests.largeMultiAbiBody();
+    CDepManifestYml left = CDepManifestYmlUtils.convertStringToManifest("big.yml", body);
+    CDepManifestYml right = CDepManifestYmlUtils.convertStringToManifest("big.yml", body);
+    int count = left.android.archives.length;
+    int iterations = 200;
+    // Warm up
+    for (int i = 0; i < 20; ++i) {
+      CDepManifestYmlEquality.areDeeplyIdentical(left, right);
+      MergeCDepManifestYmls.merge(left, right);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      checkEquals(left, right);
+    }
+    long equalityNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    CDepManifestYml merged = null;
+    for (int i = 0; i < iterations; ++i) {
+      merged = MergeCDepManifestYmls.merge(left, right);
+    }
+    long mergeNanos = System.nanoTime() - start;
+    assertThat(merged.android.archives).hasLength(2 * count);
+    System.out.printf("Manifest with %s android archives: areDeeplyIdentical %.3f ms, merge %.3f ms\n",
+        count, equalityNanos / 1000000.0 / iterations, mergeNanos / 1000000.0 / iterations);
+  }
 }
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.cdep.yml;
+
+import io.cdep.annotations.NotNull;
+import io.cdep.cdep.ResolvedManifests;
+import io.cdep.cdep.yml.cdepmanifest.*;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TestCDepManifestYmlReadonlyVisitor {
+
+  /*
+   * Records the leaf values the visitor reaches, in order.
+   */
+  private static class RecordingVisitor extends CDepManifestYmlReadonlyVisitor {
+    @NotNull
+    final List<String> leaves = new ArrayList<>();
+
+    @Override
+    public void visitString(String name, String node) {
+      leaves.add(name + "=" + node);
+    }
+
+    @Override
+    public void visitLong(String name, Long value) {
+      leaves.add(name + "=" + value);
+    }
+
+    @Override
+    public void visitCDepManifestYmlVersion(@NotNull String name, CDepManifestYmlVersion sourceVersion) {
+      leaves.add(name + "=" + sourceVersion);
+    }
+
+    @Override
+    public void visitiOSPlatform(String name, @NotNull iOSPlatform value) {
+      leaves.add(name + "=" + value);
+    }
+
+    @Override
+    public void visitiOSArchitecture(String name, @NotNull iOSArchitecture value) {
+      leaves.add(name + "=" + value);
+    }
+
+    @Override
+    public void visitCxxLanguageFeatures(String name, @NotNull CxxLanguageFeatures value) {
+      leaves.add(name + "=" + value);
+    }
+  }
+
+  /*
+   * The same walk done with reflection over public fields.
+   */
+  private static void reflect(String name, Object value, @NotNull List<String> leaves) throws IllegalAccessException {
+    if (value == null) {
+      return;
+    }
+    if (value instanceof String || value instanceof Long || value.getClass().isEnum()) {
+      leaves.add(name + "=" + value);
+      return;
+    }
+    if (value instanceof Object[]) {
+      for (Object element : (Object[]) value) {
+        reflect(null, element, leaves);
+      }
+      return;
+    }
+    for (Field field : value.getClass().getFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        reflect(field.getName(), field.get(value), leaves);
+      }
+    }
+  }
+
+  @Test
+  public void testStaticWalkMatchesReflection() throws Exception {
+    for (ResolvedManifests.NamedManifest manifest : ResolvedManifests.all()) {
+      CDepManifestYml yml = manifest.resolved.cdepManifestYml;
+      RecordingVisitor visitor = new RecordingVisitor();
+      visitor.visit(yml, CDepManifestYml.class);
+      List<String> expected = new ArrayList<>();
+      reflect(null, yml, expected);
+      assertThat(visitor.leaves).containsExactlyElementsIn(expected).inOrder();
+    }
+  }
+}
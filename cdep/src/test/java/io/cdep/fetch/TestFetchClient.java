@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.fetch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class TestFetchClient {
+  private HttpServer server;
+  private URL base;
+  private final AtomicInteger failuresRemaining = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int code = 200;
+        if (exchange.getRequestURI().getPath().equals("/missing")) {
+          code = 404;
+        } else if (failuresRemaining.getAndDecrement() > 0) {
+          code = 503;
+        }
+        byte body[] = String.format("response %s", code).getBytes(UTF_8);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    server.start();
+    base = new URL(String.format("http://127.0.0.1:%s/", server.getAddress().getPort()));
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private static String read(URLConnection connection) throws IOException {
+    HttpURLConnection http = (HttpURLConnection) connection;
+    if (http.getResponseCode() >= 500) {
+      throw new IOException(String.format("Server returned %s", http.getResponseCode()));
+    }
+    StringBuilder sb = new StringBuilder();
+    try (InputStream in = connection.getInputStream()) {
+      int c;
+      while ((c = in.read()) != -1) {
+        sb.append((char) c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static final FetchClient.Exchange<String> READ = new FetchClient.Exchange<String>() {
+    @Override
+    public String exchange(URLConnection connection) throws IOException {
+      return read(connection);
+    }
+  };
+
+  @Test
+  public void testRetryWithBackoff() throws Exception {
+    final List<Long> delays = new ArrayList<>();
+    FetchClient client = new FetchClient(1000, 1000, 4, 10, new FetchClient.RetryListener() {
+      @Override
+      public void retrying(URL url, int attempt, long delayMillis, IOException cause) {
+        delays.add(delayMillis);
+      }
+    });
+    failuresRemaining.set(2);
+    assertThat(client.fetch(new URL(base, "/file"), READ)).isEqualTo("response 200");
+    assertThat(delays).containsExactly(10L, 20L).inOrder();
+  }
+
+  @Test
+  public void testGiveUpAfterAttempts() throws Exception {
+    FetchClient client = new FetchClient(1000, 1000, 3, 1, null);
+    failuresRemaining.set(10);
+    try {
+      client.fetch(new URL(base, "/file"), READ);
+      throw new RuntimeException("Expected an exception");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("503");
+    }
+    assertThat(requests.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testMissingIsNotRetried() throws Exception {
+    FetchClient client = new FetchClient(1000, 1000, 4, 1, null);
+    try {
+      client.fetch(new URL(base, "/missing"), READ);
+      throw new RuntimeException("Expected an exception");
+    } catch (FileNotFoundException e) {
+      // Expected
+    }
+    assertThat(requests.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConnectionReusedAfterError() throws Exception {
+    FetchClient client = new FetchClient(1000, 1000, 4, 1, null);
+    failuresRemaining.set(1);
+    // The first response is an error whose body the exchange doesn't read. The connection is
+    // still reused because the client drains it.
+    assertThat(client.fetch(new URL(base, "/file"), READ)).isEqualTo("response 200");
+    assertThat(client.fetch(new URL(base, "/file"), READ)).isEqualTo("response 200");
+    assertThat(clientPorts).hasSize(3);
+    assertThat(clientPorts.get(1)).isEqualTo(clientPorts.get(0));
+    assertThat(clientPorts.get(2)).isEqualTo(clientPorts.get(0));
+  }
+
+  @Test
+  public void testTimeouts() throws Exception {
+    FetchClient client = new FetchClient(1234, 5678, 1, 1, null);
+    URLConnection connection = client.open(new URL(base, "/file"));
+    assertThat(connection.getConnectTimeout()).isEqualTo(1234);
+    assertThat(connection.getReadTimeout()).isEqualTo(5678);
+    FetchClient.release(connection);
+  }
+}
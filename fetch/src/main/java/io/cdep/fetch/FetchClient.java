@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package io.cdep.fetch;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/*
+ * HTTP fetching shared by cdep and its bootstrap.
+ *
+ * The JDK keeps idle HTTP connections alive and reuses them for later requests to the same host,
+ * which saves a TLS handshake per file, but only if each response body (including error bodies)
+ * is read to the end. FetchClient makes sure error bodies are drained and raises the number of
+ * idle connections kept per host so that concurrent downloads from the same GitHub host reuse
+ * them. It also applies connect and read timeouts and retries failed requests with exponential
+ * backoff.
+ *
+ * The JDK this code targets has no HTTP/2 client so concurrent requests use several pooled
+ * HTTP/1.1 connections rather than being multiplexed on one.
+ *
+ * Defaults can be changed with these system properties:
+ *   cdep.fetch.connectTimeoutMillis (default 15000)
+ *   cdep.fetch.readTimeoutMillis (default 60000)
+ *   cdep.fetch.attempts (default 4)
+ *   cdep.fetch.backoffMillis (default 500, doubled after each failed attempt)
+ */
+public class FetchClient {
+  final private static int MAX_IDLE_CONNECTIONS_PER_HOST = 16;
+  final private static long MAX_BACKOFF_MILLIS = 8000;
+
+  static {
+    // Read by the JDK when the first HTTP connection is made
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS_PER_HOST));
+    }
+  }
+
+  /*
+   * One attempt at a request. It may set request headers on the connection before reading the
+   * response. Throwing IOException, other than FileNotFoundException, causes another attempt with
+   * a new connection.
+   */
+  public interface Exchange<T> {
+    T exchange(URLConnection connection) throws IOException;
+  }
+
+  /*
+   * Told about each failed attempt that will be retried.
+   */
+  public interface RetryListener {
+    void retrying(URL url, int attempt, long delayMillis, IOException cause);
+  }
+
+  final public int connectTimeoutMillis;
+  final public int readTimeoutMillis;
+  final public int attempts;
+  final public long backoffMillis;
+  final private RetryListener listener;
+
+  public FetchClient(
+      int connectTimeoutMillis,
+      int readTimeoutMillis,
+      int attempts,
+      long backoffMillis,
+      RetryListener listener) {
+    if (attempts < 1) {
+      throw new IllegalArgumentException(String.format("Fetch attempts must be positive but was %s", attempts));
+    }
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.attempts = attempts;
+    this.backoffMillis = backoffMillis;
+    this.listener = listener;
+  }
+
+  /*
+   * Return a client configured from system properties.
+   */
+  public static FetchClient fromSystemProperties(RetryListener listener) {
+    return new FetchClient(
+        Integer.getInteger("cdep.fetch.connectTimeoutMillis", 15000),
+        Integer.getInteger("cdep.fetch.readTimeoutMillis", 60000),
+        Integer.getInteger("cdep.fetch.attempts", 4),
+        Long.getLong("cdep.fetch.backoffMillis", 500L),
+        listener);
+  }
+
+  /*
+   * Open a connection to url with this client's timeouts. The caller must read the response to
+   * the end, or call release, for the connection to be reused.
+   */
+  public URLConnection open(URL url) throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    return connection;
+  }
+
+  /*
+   * Run the exchange against url, retrying with exponential backoff if it fails.
+   * FileNotFoundException means the remote doesn't exist so it isn't retried.
+   */
+  public <T> T fetch(URL url, Exchange<T> exchange) throws IOException {
+    long delay = backoffMillis;
+    for (int attempt = 1; ; ++attempt) {
+      URLConnection connection = open(url);
+      try {
+        return exchange.exchange(connection);
+      } catch (FileNotFoundException e) {
+        throw e;
+      } catch (IOException e) {
+        if (attempt >= attempts) {
+          throw e;
+        }
+        if (listener != null) {
+          listener.retrying(url, attempt, delay, e);
+        }
+        sleep(delay);
+        delay = Math.min(delay * 2, MAX_BACKOFF_MILLIS);
+      } finally {
+        release(connection);
+      }
+    }
+  }
+
+  /*
+   * Read and close any unread error body so the underlying connection can be reused.
+   */
+  public static void release(URLConnection connection) {
+    if (!(connection instanceof HttpURLConnection)) {
+      return;
+    }
+    InputStream error = ((HttpURLConnection) connection).getErrorStream();
+    if (error == null) {
+      return;
+    }
+    try (InputStream in = error) {
+      byte buffer[] = new byte[4096];
+      //noinspection StatementWithEmptyBody
+      while (in.read(buffer) != -1) {
+      }
+    } catch (IOException e) {
+      // The connection won't be reused
+    }
+  }
+
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to retry", e);
+    }
+  }
+}